@@ -173,7 +173,25 @@ public class ArgumentParser {
 		return value == null ? defaultValue : value;
 	}
 	
-	// TODO public int getPositiveInteger(String flag, int defaultValue)
+	/**
+	 * Returns the value the specified flag is mapped to as a positive integer, or
+	 * the default value if the flag does not exist or its value is not a positive
+	 * integer.
+	 *
+	 * @param flag         the flag whose associated value will be returned
+	 * @param defaultValue the default value to return if there is no valid mapping
+	 *                     for the flag
+	 * @return the value the specified flag is mapped to as a positive integer, or
+	 *         the default value if there is no valid mapping for the flag
+	 */
+	public int getPositiveInteger(String flag, int defaultValue) {
+		try {
+			int value = Integer.parseInt(getString(flag));
+			return value > 0 ? value : defaultValue;
+		} catch (NumberFormatException e) {
+			return defaultValue;
+		}
+	}
 	
 	// # of threads?
 
@@ -0,0 +1,56 @@
+/**
+ * Postings backed by arrays: for each posting a document, and its positions
+ * between two offsets of one position array
+ *
+ * @author pcarbajal
+ */
+public class ArrayPostings implements Postings {
+
+	/**
+	 * Document of each posting
+	 */
+	private final int[] documents;
+
+	/**
+	 * Start of the positions of each posting, plus the end of the last one
+	 */
+	private final int[] offsets;
+
+	/**
+	 * Positions of every posting
+	 */
+	private final int[] positions;
+
+	/**
+	 * Wraps arrays without copying them
+	 *
+	 * @param documents	document of each posting, ascending
+	 * @param offsets	start of the positions of each posting, plus the end
+	 * @param positions	positions of every posting, ascending within a posting
+	 */
+	public ArrayPostings(int[] documents, int[] offsets, int[] positions) {
+		this.documents = documents;
+		this.offsets = offsets;
+		this.positions = positions;
+	}
+
+	@Override
+	public int size() {
+		return documents.length;
+	}
+
+	@Override
+	public int document(int i) {
+		return documents[i];
+	}
+
+	@Override
+	public int frequency(int i) {
+		return offsets[i + 1] - offsets[i];
+	}
+
+	@Override
+	public int position(int i, int j) {
+		return positions[offsets[i] + j];
+	}
+}
@@ -0,0 +1,67 @@
+/**
+ * Okapi BM25: like TF-IDF, but the frequency of a word saturates and is
+ * normalized by the length of the document relative to the average
+ *
+ * @author pcarbajal
+ */
+public class Bm25Scorer implements Scorer {
+
+	/**
+	 * Default saturation of the word frequency
+	 */
+	public static final double DEFAULT_K1 = 1.2;
+
+	/**
+	 * Default strength of the length normalization
+	 */
+	public static final double DEFAULT_B = 0.75;
+
+	/**
+	 * Saturation of the word frequency
+	 */
+	private final double k1;
+
+	/**
+	 * Strength of the length normalization, from 0 (none) to 1 (full)
+	 */
+	private final double b;
+
+	/**
+	 * Creates a scorer with the usual parameters
+	 */
+	public Bm25Scorer() {
+		this(DEFAULT_K1, DEFAULT_B);
+	}
+
+	/**
+	 * Creates a scorer
+	 *
+	 * @param k1	saturation of the word frequency
+	 * @param b		strength of the length normalization
+	 */
+	public Bm25Scorer(double k1, double b) {
+		this.k1 = k1;
+		this.b = b;
+	}
+
+	@Override
+	public double idf(int documentFrequency, int documents) {
+		return Math.log(1 + (documents - documentFrequency + 0.5) / (documentFrequency + 0.5));
+	}
+
+	@Override
+	public double weight(int frequency, int length, double idf, double averageLength) {
+		double norm = k1 * (1 - b + b * length / averageLength);
+		return idf * frequency * (k1 + 1) / (frequency + norm);
+	}
+
+	@Override
+	public double score(double weights, int count, int length) {
+		return weights;
+	}
+
+	@Override
+	public String toString() {
+		return "bm25";
+	}
+}
@@ -0,0 +1,732 @@
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Set;
+import java.util.TreeSet;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+import opennlp.tools.stemmer.Stemmer;
+
+/**
+ * Query line with boolean operators, such as {@code (search OR find) AND engine
+ * NOT car}. The operators are the upper-case words AND, OR and NOT, grouped by
+ * parentheses; NOT binds tightest, then AND. Words next to each other without
+ * an operator are ORed, as in a plain query, except that a NOT right after a
+ * word means AND NOT. NOT only excludes locations from what it is combined with
+ * by AND, so a NOT on its own matches nothing. Query lines are only parsed
+ * this way with -boolean; otherwise the operators are words like any other.
+ *
+ * Queries are evaluated document at a time: every word is a cursor over its
+ * sorted postings, AND leapfrogs its cursors to the next document they all
+ * share (skipping with galloping search), OR moves to the smallest document of
+ * its cursors, and the NOTs of an AND skip the documents they are found in.
+ * The count of a result adds up the matches of the words that were not
+ * excluded.
+ *
+ * @author pcarbajal
+ */
+public class BooleanQuery {
+
+	/**
+	 * Document id of a cursor that has no more documents
+	 */
+	public static final int END = Integer.MAX_VALUE;
+
+	/**
+	 * Splits a line into parentheses and words
+	 */
+	private static final Pattern TOKEN = Pattern.compile("(?U)[()]|[^\\p{Space}()]+");
+
+	/**
+	 * Top node of the query
+	 */
+	private final Node root;
+
+	/**
+	 * Wraps a parsed query
+	 *
+	 * @param root	top node of the query
+	 */
+	private BooleanQuery(Node root) {
+		this.root = root;
+	}
+
+	/**
+	 * Checks if a query line uses boolean operators
+	 *
+	 * @param line	text line of a query
+	 * @return true if the line has AND, OR or NOT as a word, or a parenthesis
+	 */
+	public static boolean isBooleanQuery(String line) {
+		Matcher matcher = TOKEN.matcher(line);
+		while (matcher.find()) {
+			switch (matcher.group()) {
+				case "AND":
+				case "OR":
+				case "NOT":
+				case "(":
+				case ")":
+					return true;
+				default:
+			}
+		}
+		return false;
+	}
+
+	/**
+	 * Parses a query line. Misplaced operators and parentheses are skipped, and
+	 * an unclosed parenthesis runs to the end of the line.
+	 *
+	 * @param line		text line of a query
+	 * @param stemmer	stemmer to stem the words
+	 * @return the query, or null if it has no words
+	 */
+	public static BooleanQuery parse(String line, Stemmer stemmer) {
+		List<String> tokens = new ArrayList<>();
+		Matcher matcher = TOKEN.matcher(line);
+		while (matcher.find()) {
+			tokens.add(matcher.group());
+		}
+		Node root = new Parser(tokens, stemmer).parse();
+		return root == null ? null : new BooleanQuery(root);
+	}
+
+	/**
+	 * Stems of the query if it only ORs words together, in which case it is the
+	 * same as a plain query of those words
+	 *
+	 * @return sorted stems, or null if the query uses AND or NOT
+	 */
+	public Set<String> disjunction() {
+		Set<String> stems = new TreeSet<>();
+		if (root instanceof Term) {
+			stems.add(((Term) root).stem);
+			return stems;
+		}
+		if (!(root instanceof Or)) {
+			return null;
+		}
+		for (Node child : ((Or) root).children) {
+			if (!(child instanceof Term)) {
+				return null;
+			}
+			stems.add(((Term) child).stem);
+		}
+		return stems;
+	}
+
+	/**
+	 * Creates the cursors to evaluate the query on an index
+	 *
+	 * @param view		view of the index
+	 * @param exact		whether words are matched exactly or by prefix
+	 * @param scorer	ranking model
+	 * @return cursor over the matching documents
+	 */
+	public Cursor cursor(IndexView view, boolean exact, Scorer scorer) {
+		return root.cursor(view, exact, scorer);
+	}
+
+	/**
+	 * The query with stems, in a normal form used to report and cache it
+	 */
+	@Override
+	public String toString() {
+		return root.toString();
+	}
+
+	/**
+	 * Matches found in one document
+	 */
+	public static class Match {
+
+		/**
+		 * Number of matches
+		 */
+		private int count;
+
+		/**
+		 * Summed weights of the matched words
+		 */
+		private double weights;
+
+		/**
+		 * Number of words in the document
+		 */
+		private int length;
+
+		/**
+		 * Starts over for a document
+		 *
+		 * @param length	number of words in the document
+		 */
+		public void reset(int length) {
+			this.count = 0;
+			this.weights = 0;
+			this.length = length;
+		}
+
+		/**
+		 * Number of matches
+		 *
+		 * @return count
+		 */
+		public int getCount() {
+			return count;
+		}
+
+		/**
+		 * Summed weights of the matched words
+		 *
+		 * @return weights
+		 */
+		public double getWeights() {
+			return weights;
+		}
+	}
+
+	/**
+	 * Walks the documents matching part of a query, in ascending order
+	 */
+	public abstract static class Cursor {
+
+		/**
+		 * Current document, -1 before the first move and {@link BooleanQuery#END}
+		 * after the last
+		 */
+		protected int doc = -1;
+
+		/**
+		 * Current document
+		 *
+		 * @return document id
+		 */
+		public int doc() {
+			return doc;
+		}
+
+		/**
+		 * Moves to the first matching document that is not smaller than a target
+		 *
+		 * @param target	document id
+		 * @return the new current document, or {@link BooleanQuery#END}
+		 */
+		public abstract int advance(int target);
+
+		/**
+		 * Adds the matches in the current document
+		 *
+		 * @param match	matches found so far
+		 */
+		public abstract void collect(Match match);
+
+		/**
+		 * Moves a cursor unless it is already at or past a target
+		 *
+		 * @param cursor	cursor to be moved
+		 * @param target	document id
+		 * @return current document of the cursor
+		 */
+		protected static int advance(Cursor cursor, int target) {
+			return cursor.doc() < target ? cursor.advance(target) : cursor.doc();
+		}
+	}
+
+	/**
+	 * Cursor that matches nothing
+	 */
+	private static class EmptyCursor extends Cursor {
+
+		@Override
+		public int advance(int target) {
+			return doc = END;
+		}
+
+		@Override
+		public void collect(Match match) {
+		}
+	}
+
+	/**
+	 * Cursor over the postings of one index word
+	 */
+	private static class WordCursor extends Cursor {
+
+		/**
+		 * Postings of the word
+		 */
+		private final Postings postings;
+
+		/**
+		 * Ranking model
+		 */
+		private final Scorer scorer;
+
+		/**
+		 * Weight of the word that does not depend on the document
+		 */
+		private final double idf;
+
+		/**
+		 * Average number of words per document
+		 */
+		private final double averageLength;
+
+		/**
+		 * Current posting
+		 */
+		private int i;
+
+		/**
+		 * Creates a cursor before the first posting
+		 *
+		 * @param view		view of the index
+		 * @param w			word id
+		 * @param scorer	ranking model
+		 */
+		private WordCursor(IndexView view, int w, Scorer scorer) {
+			this.postings = view.postings(w);
+			this.scorer = scorer;
+			this.idf = scorer.idf(postings.size(), view.size());
+			this.averageLength = view.getAverageLength();
+			this.i = 0;
+		}
+
+		@Override
+		public int advance(int target) {
+			i = postings.seek(i, target);
+			return doc = i < postings.size() ? postings.document(i) : END;
+		}
+
+		@Override
+		public void collect(Match match) {
+			int frequency = postings.frequency(i);
+			match.count += frequency;
+			match.weights += scorer.weight(frequency, match.length, idf, averageLength);
+		}
+	}
+
+	/**
+	 * Cursor over the documents matched by any of several cursors
+	 */
+	private static class OrCursor extends Cursor {
+
+		/**
+		 * Cursors to be combined
+		 */
+		private final List<Cursor> cursors;
+
+		/**
+		 * Combines cursors
+		 *
+		 * @param cursors	cursors to be combined
+		 */
+		private OrCursor(List<Cursor> cursors) {
+			this.cursors = cursors;
+		}
+
+		@Override
+		public int advance(int target) {
+			doc = END;
+			for (Cursor cursor : cursors) {
+				doc = Math.min(doc, advance(cursor, target));
+			}
+			return doc;
+		}
+
+		@Override
+		public void collect(Match match) {
+			for (Cursor cursor : cursors) {
+				if (cursor.doc() == doc) {
+					cursor.collect(match);
+				}
+			}
+		}
+	}
+
+	/**
+	 * Cursor over the documents matched by all of several cursors and by none of
+	 * several others
+	 */
+	private static class AndCursor extends Cursor {
+
+		/**
+		 * Cursors that must all match
+		 */
+		private final List<Cursor> required;
+
+		/**
+		 * Cursors that must not match
+		 */
+		private final List<Cursor> excluded;
+
+		/**
+		 * Combines cursors
+		 *
+		 * @param required	cursors that must all match, at least one
+		 * @param excluded	cursors that must not match
+		 */
+		private AndCursor(List<Cursor> required, List<Cursor> excluded) {
+			this.required = required;
+			this.excluded = excluded;
+		}
+
+		@Override
+		public int advance(int target) {
+			int candidate = target;
+			candidates:
+			while (true) {
+				for (Cursor cursor : required) {
+					int d = advance(cursor, candidate);
+					if (d == END) return doc = END;
+					if (d > candidate) { // leapfrog: every cursor has to reach it
+						candidate = d;
+						continue candidates;
+					}
+				}
+				for (Cursor cursor : excluded) {
+					if (advance(cursor, candidate) == candidate) {
+						candidate++;
+						continue candidates;
+					}
+				}
+				return doc = candidate;
+			}
+		}
+
+		@Override
+		public void collect(Match match) {
+			for (Cursor cursor : required) {
+				cursor.collect(match);
+			}
+		}
+	}
+
+	/**
+	 * Part of a parsed query
+	 */
+	private abstract static class Node {
+
+		/**
+		 * Creates the cursor that evaluates this part
+		 *
+		 * @param view		view of the index
+		 * @param exact		whether words are matched exactly or by prefix
+		 * @param scorer	ranking model
+		 * @return cursor over the matching documents
+		 */
+		abstract Cursor cursor(IndexView view, boolean exact, Scorer scorer);
+	}
+
+	/**
+	 * A stemmed word; by prefix, every index word starting with it
+	 */
+	private static class Term extends Node {
+
+		/**
+		 * The stem
+		 */
+		private final String stem;
+
+		/**
+		 * Creates a word
+		 *
+		 * @param stem	the stem
+		 */
+		private Term(String stem) {
+			this.stem = stem;
+		}
+
+		@Override
+		Cursor cursor(IndexView view, boolean exact, Scorer scorer) {
+			if (exact) {
+				int w = view.find(stem);
+				return w >= 0 ? new WordCursor(view, w, scorer) : new EmptyCursor();
+			}
+			List<Cursor> cursors = new ArrayList<>();
+			for (int w : view.prefixed(stem)) {
+				cursors.add(new WordCursor(view, w, scorer));
+			}
+			return cursors.size() == 1 ? cursors.get(0) : new OrCursor(cursors);
+		}
+
+		@Override
+		public String toString() {
+			return stem;
+		}
+	}
+
+	/**
+	 * Excludes what its child matches from the AND it is part of
+	 */
+	private static class Not extends Node {
+
+		/**
+		 * Part to be excluded
+		 */
+		private final Node child;
+
+		/**
+		 * Creates a NOT
+		 *
+		 * @param child	part to be excluded
+		 */
+		private Not(Node child) {
+			this.child = child;
+		}
+
+		@Override
+		Cursor cursor(IndexView view, boolean exact, Scorer scorer) {
+			return new EmptyCursor(); // nothing to exclude from
+		}
+
+		@Override
+		public String toString() {
+			return "NOT " + (child instanceof Term ? child.toString() : "(" + child + ")");
+		}
+	}
+
+	/**
+	 * Matches what all its children match
+	 */
+	private static class And extends Node {
+
+		/**
+		 * Parts that must all match, or be excluded if they are NOTs
+		 */
+		private final List<Node> children;
+
+		/**
+		 * Creates an AND
+		 *
+		 * @param children	at least two parts
+		 */
+		private And(List<Node> children) {
+			this.children = children;
+		}
+
+		@Override
+		Cursor cursor(IndexView view, boolean exact, Scorer scorer) {
+			List<Cursor> required = new ArrayList<>();
+			List<Cursor> excluded = new ArrayList<>();
+			for (Node child : children) {
+				if (child instanceof Not) {
+					excluded.add(((Not) child).child.cursor(view, exact, scorer));
+				} else {
+					required.add(child.cursor(view, exact, scorer));
+				}
+			}
+			return required.isEmpty() ? new EmptyCursor() : new AndCursor(required, excluded);
+		}
+
+		@Override
+		public String toString() {
+			List<String> parts = new ArrayList<>();
+			for (Node child : children) {
+				parts.add(child instanceof Or ? "(" + child + ")" : child.toString());
+			}
+			return String.join(" AND ", parts);
+		}
+	}
+
+	/**
+	 * Matches what any of its children match
+	 */
+	private static class Or extends Node {
+
+		/**
+		 * Parts of which any must match
+		 */
+		private final List<Node> children;
+
+		/**
+		 * Creates an OR
+		 *
+		 * @param children	at least two parts
+		 */
+		private Or(List<Node> children) {
+			this.children = children;
+		}
+
+		@Override
+		Cursor cursor(IndexView view, boolean exact, Scorer scorer) {
+			List<Cursor> cursors = new ArrayList<>();
+			for (Node child : children) {
+				cursors.add(child.cursor(view, exact, scorer));
+			}
+			return new OrCursor(cursors);
+		}
+
+		@Override
+		public String toString() {
+			List<String> parts = new ArrayList<>();
+			for (Node child : children) {
+				parts.add(child.toString());
+			}
+			return String.join(" OR ", parts);
+		}
+	}
+
+	/**
+	 * Recursive descent parser over the tokens of a line
+	 */
+	private static class Parser {
+
+		/**
+		 * Parentheses, operators and words of the line
+		 */
+		private final List<String> tokens;
+
+		/**
+		 * Stemmer to stem the words
+		 */
+		private final Stemmer stemmer;
+
+		/**
+		 * Next token
+		 */
+		private int next;
+
+		/**
+		 * Number of parentheses open
+		 */
+		private int depth;
+
+		/**
+		 * Creates a parser
+		 *
+		 * @param tokens	tokens of the line
+		 * @param stemmer	stemmer to stem the words
+		 */
+		private Parser(List<String> tokens, Stemmer stemmer) {
+			this.tokens = tokens;
+			this.stemmer = stemmer;
+			this.next = 0;
+			this.depth = 0;
+		}
+
+		/**
+		 * Parses the whole line
+		 *
+		 * @return top node, or null if there are no words
+		 */
+		private Node parse() {
+			return parseOr();
+		}
+
+		/**
+		 * Next token without taking it
+		 *
+		 * @return the token, or null at the end
+		 */
+		private String peek() {
+			return next < tokens.size() ? tokens.get(next) : null;
+		}
+
+		/**
+		 * Parses ORed parts, up to a closing parenthesis or the end
+		 *
+		 * @return node, or null if there are no words
+		 */
+		private Node parseOr() {
+			List<Node> children = new ArrayList<>();
+			String token;
+			while ((token = peek()) != null) {
+				if (token.equals(")")) {
+					if (depth > 0) break;
+					next++; // stray
+				} else if (token.equals("OR") || token.equals("AND")) {
+					next++; // explicit OR, or AND with nothing before it
+				} else {
+					add(children, parseAnd(), Or.class);
+				}
+			}
+			return combine(children, false);
+		}
+
+		/**
+		 * Parses ANDed parts, where a NOT means AND NOT
+		 *
+		 * @return node, or null if there are no words
+		 */
+		private Node parseAnd() {
+			List<Node> children = new ArrayList<>();
+			add(children, parseUnary(), And.class);
+			String token;
+			while ((token = peek()) != null) {
+				if (token.equals("AND")) {
+					next++;
+					add(children, parseUnary(), And.class);
+				} else if (token.equals("NOT")) {
+					add(children, parseUnary(), And.class);
+				} else {
+					break;
+				}
+			}
+			return combine(children, true);
+		}
+
+		/**
+		 * Parses a word, a NOT or a parenthesized part
+		 *
+		 * @return node, or null if there are no words
+		 */
+		private Node parseUnary() {
+			String token = peek();
+			if (token == null || token.equals(")") || token.equals("AND") || token.equals("OR")) {
+				return null;
+			}
+			next++;
+			if (token.equals("NOT")) {
+				Node child = parseUnary();
+				if (child == null) return null;
+				return child instanceof Not ? ((Not) child).child : new Not(child);
+			}
+			if (token.equals("(")) {
+				depth++;
+				Node child = parseOr();
+				depth--;
+				if (")".equals(peek())) {
+					next++;
+				}
+				return child;
+			}
+			List<String> stems = TextFileStemmer.listStems(token, stemmer);
+			if (stems.isEmpty()) return null;
+			List<Node> terms = new ArrayList<>();
+			for (String stem : stems) {
+				terms.add(new Term(stem));
+			}
+			return combine(terms, false);
+		}
+
+		/**
+		 * Adds a part, taking in the parts of a nested node of the same kind
+		 *
+		 * @param children	parts so far
+		 * @param child		part to be added, may be null
+		 * @param kind		kind of the node the parts are for
+		 */
+		private static void add(List<Node> children, Node child, Class<? extends Node> kind) {
+			if (child == null) return;
+			if (kind.isInstance(child)) {
+				children.addAll(child instanceof And ? ((And) child).children : ((Or) child).children);
+			} else {
+				children.add(child);
+			}
+		}
+
+		/**
+		 * Makes one node out of parts
+		 *
+		 * @param children	parts
+		 * @param and		whether they are ANDed or ORed
+		 * @return the node, the only part, or null if there are none
+		 */
+		private static Node combine(List<Node> children, boolean and) {
+			if (children.isEmpty()) return null;
+			if (children.size() == 1) return children.get(0);
+			return and ? new And(children) : new Or(children);
+		}
+	}
+}
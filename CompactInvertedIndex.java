@@ -0,0 +1,822 @@
+import java.io.BufferedWriter;
+import java.io.IOException;
+import java.io.StringWriter;
+import java.io.Writer;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.TreeMap;
+import java.util.TreeSet;
+
+/**
+ * Dictionary-encoded version of the inverted index. Every word and location is
+ * given a dense int id, and the postings of a word are stored as a compressed
+ * list of (location id, position) pairs instead of nested maps of boxed
+ * Integers. Postings are only decoded when a search or the output needs them.
+ *
+ * Produces exactly the same output as {@link InvertedIndex} while using a
+ * fraction of the heap.
+ *
+ * @author pcarbajal
+ */
+public class CompactInvertedIndex extends InvertedIndex {
+
+	/**
+	 * Maps each word to its id, kept sorted for partial search and output
+	 */
+	private final TreeMap<String, Integer> wordIds;
+
+	/**
+	 * Postings of each word, indexed by word id
+	 */
+	private PostingList[] postings;
+
+	/**
+	 * Maps each location to its id
+	 */
+	private final Map<String, Integer> locationIds;
+
+	/**
+	 * Location of each id
+	 */
+	private final List<String> locations;
+
+	/**
+	 * Word count of each location, indexed by location id
+	 */
+	private int[] wordCounts;
+
+	/**
+	 * Sum of the word counts, for the average document length used in scoring
+	 */
+	private long totalWords;
+
+	/**
+	 * Instantiating my compact inverted index
+	 */
+	public CompactInvertedIndex() {
+		super();
+		wordIds = new TreeMap<>();
+		postings = new PostingList[16];
+		locationIds = new HashMap<>();
+		locations = new ArrayList<>();
+		wordCounts = new int[16];
+		totalWords = 0;
+	}
+
+	/**
+	 * Returns the id of a word, assigning the next free one if needed
+	 *
+	 * @param word to be looked up
+	 * @return id of the word
+	 */
+	private int wordId(String word) {
+		Integer id = wordIds.get(word);
+		if (id == null) {
+			id = wordIds.size();
+			wordIds.put(word, id);
+			if (id == postings.length) {
+				postings = Arrays.copyOf(postings, id * 2);
+			}
+			postings[id] = new PostingList();
+		}
+		return id;
+	}
+
+	/**
+	 * Returns the id of a location, assigning the next free one if needed
+	 *
+	 * @param location to be looked up
+	 * @return id of the location
+	 */
+	private int locationId(String location) {
+		Integer id = locationIds.get(location);
+		if (id == null) {
+			id = locations.size();
+			locationIds.put(location, id);
+			locations.add(location);
+			if (id == wordCounts.length) {
+				wordCounts = Arrays.copyOf(wordCounts, id * 2);
+			}
+		}
+		return id;
+	}
+
+	@Override
+	public void addEntry(String word, String location, int position) {
+		int wordId = wordId(word);
+		int locationId = locationId(location);
+		if (postings[wordId].add(locationId, position)) {
+			wordCounts[locationId]++;
+			totalWords++;
+			modified();
+		}
+	}
+
+	@Override
+	public void addAll(InvertedIndex local) {
+		for (String word : local.getWords()) {
+			int wordId = wordId(word);
+			PostingList list = postings[wordId];
+			for (String location : local.getLocations(word)) {
+				int locationId = locationId(location);
+				for (int position : local.getPositions(word, location)) {
+					list.add(locationId, position);
+				}
+			}
+		}
+		for (String location : local.getLocations()) {
+			wordCounts[locationId(location)] += local.getWordCount(location);
+			totalWords += local.getWordCount(location);
+		}
+		modified();
+	}
+
+	/**
+	 * Removes some locations, keeping the ids dense: the locations after a
+	 * removed one move down, and every list with a location from the first
+	 * removed one on is decoded and encoded again with the new ids. Words left
+	 * without locations are dropped and the word ids are packed the same way.
+	 */
+	@Override
+	public void removeLocations(Set<String> removed) {
+		int[] remap = new int[locations.size()];
+		int first = -1;
+		int kept = 0;
+		for (int id = 0; id < locations.size(); id++) {
+			if (removed.contains(locations.get(id))) {
+				remap[id] = -1;
+				first = first < 0 ? id : first;
+			} else {
+				remap[id] = kept++;
+			}
+		}
+		if (first < 0) {
+			return;
+		}
+
+		PostingList[] packed = new PostingList[postings.length];
+		int words = 0;
+		Iterator<Map.Entry<String, Integer>> it = wordIds.entrySet().iterator();
+		while (it.hasNext()) {
+			Map.Entry<String, Integer> entry = it.next();
+			PostingList list = postings[entry.getValue()];
+			if (list.lastLocation >= first) { // the last location is the greatest
+				list.remap(remap);
+			}
+			if (list.size == 0) {
+				it.remove();
+			} else {
+				packed[words] = list;
+				entry.setValue(words++);
+			}
+		}
+		postings = packed;
+
+		locationIds.clear();
+		for (int id = 0; id < remap.length; id++) {
+			if (remap[id] < 0) {
+				totalWords -= wordCounts[id];
+			} else {
+				locations.set(remap[id], locations.get(id));
+				wordCounts[remap[id]] = wordCounts[id];
+				locationIds.put(locations.get(id), remap[id]);
+			}
+		}
+		locations.subList(kept, locations.size()).clear();
+		Arrays.fill(wordCounts, kept, wordCounts.length, 0);
+		modified();
+	}
+
+	@Override
+	public boolean contains(String word) {
+		return wordIds.containsKey(word);
+	}
+
+	@Override
+	public boolean contains(String word, String location) {
+		Integer wordId = wordIds.get(word);
+		Integer locationId = locationIds.get(location);
+		return wordId != null && locationId != null && postings[wordId].contains(locationId);
+	}
+
+	@Override
+	public boolean contains(String word, String location, int position) {
+		Integer wordId = wordIds.get(word);
+		Integer locationId = locationIds.get(location);
+		return wordId != null && locationId != null && postings[wordId].contains(locationId, position);
+	}
+
+	@Override
+	public Set<String> getLocations() {
+		return Collections.unmodifiableSet(new TreeSet<>(locations));
+	}
+
+	@Override
+	public Set<String> getWords() {
+		return Collections.unmodifiableSet(wordIds.keySet());
+	}
+
+	@Override
+	public Set<String> getLocations(String word) {
+		Integer wordId = wordIds.get(word);
+		if (wordId == null) {
+			return Collections.emptySet();
+		}
+		return Collections.unmodifiableSet(postings[wordId].toMap(locations).keySet());
+	}
+
+	@Override
+	public Set<Integer> getPositions(String word, String location) {
+		Integer wordId = wordIds.get(word);
+		Integer locationId = locationIds.get(location);
+		if (wordId == null || locationId == null) {
+			return Collections.emptySet();
+		}
+		return Collections.unmodifiableSet(postings[wordId].positions(locationId));
+	}
+
+	@Override
+	public Map<String, ? extends Collection<Integer>> getPostings(String word) {
+		Integer wordId = wordIds.get(word);
+		if (wordId == null) {
+			return Collections.emptyMap();
+		}
+		return Collections.unmodifiableMap(postings[wordId].toMap(locations));
+	}
+
+	@Override
+	public int getWordCount(String location) {
+		Integer locationId = locationIds.get(location);
+		return locationId == null ? 0 : wordCounts[locationId];
+	}
+
+	@Override
+	public void writeIndex(Path path) throws IOException {
+		try (BufferedWriter writer = Files.newBufferedWriter(path, StandardCharsets.UTF_8)) {
+			writeIndex(writer);
+		}
+	}
+
+	/**
+	 * Writes the index in the same pretty JSON format as
+	 * {@link JsonWriter#asVeryNestedObject(Map, Writer, int)}, one word at a time
+	 * so the nested maps never exist for the whole index at once
+	 *
+	 * @param writer	file writer
+	 * @throws IOException	throws exception
+	 */
+	private void writeIndex(Writer writer) throws IOException {
+		writer.write("{\n");
+		Iterator<Map.Entry<String, Integer>> it = wordIds.entrySet().iterator();
+		if (it.hasNext()) {
+			writeWord(it.next(), writer);
+		}
+		while (it.hasNext()) {
+			writer.write(",");
+			writer.write("\n");
+			writeWord(it.next(), writer);
+		}
+		writer.write("\n");
+		writer.write("}");
+	}
+
+	/**
+	 * Writes a single word and its postings
+	 *
+	 * @param entry		word and its id
+	 * @param writer	file writer
+	 * @throws IOException	throws exception
+	 */
+	private void writeWord(Map.Entry<String, Integer> entry, Writer writer) throws IOException {
+		JsonWriter.quote(entry.getKey(), writer, 1);
+		writer.write(": ");
+		JsonWriter.asNestedObject(postings[entry.getValue()].toMap(locations), writer, 1);
+	}
+
+	@Override
+	public void writeCounts(Path path) throws IOException {
+		JsonWriter.asObject(countsMap(), path);
+	}
+
+	/**
+	 * Builds the sorted location to word count map used for output
+	 *
+	 * @return map of word counts
+	 */
+	private Map<String, Integer> countsMap() {
+		Map<String, Integer> counts = new TreeMap<>();
+		for (int i = 0; i < locations.size(); i++) {
+			counts.put(locations.get(i), wordCounts[i]);
+		}
+		return counts;
+	}
+
+	@Override
+	public String toString() {
+		try {
+			StringWriter writer = new StringWriter();
+			writeIndex(writer);
+			return writer.toString();
+		} catch (IOException e) {
+			return null;
+		}
+	}
+
+	/**
+	 * Top-k search without skipping: every list would have to be decoded for
+	 * that anyway, so the bounded heap over all matches is as fast
+	 */
+	@Override
+	public List<SearchMetrics> search(Set<String> queries, boolean exact, int k) {
+		return best(exact ? exactMatches(queries) : partialMatches(queries), k);
+	}
+
+	@Override
+	protected List<SearchMetrics> exactMatches(Set<String> query) {
+		List<SearchMetrics> results = new ArrayList<>();
+		SearchMetrics[] lookup = new SearchMetrics[locations.size()]; // lookup search results by location id
+		Scorer scorer = getScorer();
+
+		for (String word : query) {
+			Integer wordId = wordIds.get(word);
+			if (wordId != null) {
+				searchHelper(lookup, results, wordId, scorer);
+			}
+		}
+		return results;
+	}
+
+	@Override
+	protected List<SearchMetrics> partialMatches(Set<String> query) {
+		List<SearchMetrics> results = new ArrayList<>();
+		SearchMetrics[] lookup = new SearchMetrics[locations.size()]; // lookup search results by location id
+		Scorer scorer = getScorer();
+
+		for (String word : query) {
+			for (Map.Entry<String, Integer> entry : wordIds.tailMap(word).entrySet()) {
+				if (!entry.getKey().startsWith(word)) break;
+				searchHelper(lookup, results, entry.getValue(), scorer);
+			}
+		}
+		return results;
+	}
+
+	@Override
+	protected IndexView view() {
+		return new View();
+	}
+
+	/**
+	 * View of the encoded lists by word and location ids. Lists are decoded when
+	 * asked for, so the view is only meant for one search.
+	 */
+	private class View implements IndexView {
+
+		@Override
+		public int size() {
+			return locations.size();
+		}
+
+		@Override
+		public double getAverageLength() {
+			return (double) totalWords / locations.size();
+		}
+
+		@Override
+		public String location(int d) {
+			return locations.get(d);
+		}
+
+		@Override
+		public int length(int d) {
+			return wordCounts[d];
+		}
+
+		@Override
+		public int numWords() {
+			return wordIds.size();
+		}
+
+		@Override
+		public int find(String word) {
+			Integer wordId = wordIds.get(word);
+			return wordId == null ? -1 : wordId;
+		}
+
+		@Override
+		public int[] prefixed(String prefix) {
+			int[] ids = new int[16];
+			int size = 0;
+			for (Map.Entry<String, Integer> entry : wordIds.tailMap(prefix).entrySet()) {
+				if (!entry.getKey().startsWith(prefix)) break;
+				if (size == ids.length) {
+					ids = Arrays.copyOf(ids, size * 2);
+				}
+				ids[size++] = entry.getValue();
+			}
+			return Arrays.copyOf(ids, size);
+		}
+
+		@Override
+		public Postings postings(int w) {
+			return CompactInvertedIndex.this.postings[w].decode();
+		}
+	}
+
+	/**
+	 * Adds or updates the SearchMetrics of every location a word was found in
+	 *
+	 * @param lookup	search results by location id
+	 * @param results	list of SearchMetrics objects
+	 * @param wordId	id of the word being searched
+	 * @param scorer	ranking model of this search
+	 */
+	private void searchHelper(SearchMetrics[] lookup, List<SearchMetrics> results, int wordId, Scorer scorer) {
+		PostingList list = postings[wordId];
+		PostingList.Reader reader = list.reader();
+		double idf = scorer.idf(list.documents, locations.size());
+		double averageLength = (double) totalWords / locations.size();
+		int added = results.size();
+		boolean more = reader.next();
+		while (more) {
+			int locationId = reader.location;
+			int matches = 0;
+			do {
+				matches++;
+				more = reader.next();
+			} while (more && reader.location == locationId);
+
+			if (lookup[locationId] == null) {
+				lookup[locationId] = new SearchMetrics(locations.get(locationId), scorer);
+				results.add(lookup[locationId]);
+			}
+			int length = wordCounts[locationId];
+			lookup[locationId].update(matches, length, scorer.weight(matches, length, idf, averageLength));
+		}
+		/*
+		 * The map-backed index adds new results in location order. Ties in
+		 * SearchMetrics.compareTo keep that order after the (stable) sort, so the
+		 * new results are put in the same order here.
+		 */
+		results.subList(added, results.size()).sort(Comparator.comparing(SearchMetrics::getWhere));
+	}
+
+	/**
+	 * Total size of the encoded postings, used to report memory per posting
+	 *
+	 * @return number of bytes used by the encoded postings
+	 */
+	public long encodedBytes() {
+		long total = 0;
+		for (int i = 0; i < wordIds.size(); i++) {
+			total += postings[i].length;
+		}
+		return total;
+	}
+
+	/**
+	 * Postings of a single word: (location id, position) pairs sorted by location
+	 * id and then by position, without duplicates, delta encoded as
+	 * variable-byte integers.
+	 *
+	 * A pair in the same location as the pair before it is stored as its
+	 * position gap shifted left by one. The first pair of a location is stored as
+	 * its location gap shifted left by one with the low bit set, followed by its
+	 * position. Gaps are small, so most pairs take a single byte.
+	 */
+	private static class PostingList {
+
+		/**
+		 * Encoded pairs
+		 */
+		private byte[] data;
+
+		/**
+		 * Number of bytes used in data
+		 */
+		private int length;
+
+		/**
+		 * Number of pairs stored
+		 */
+		private int size;
+
+		/**
+		 * Number of distinct locations, the document frequency of the word
+		 */
+		private int documents;
+
+		/**
+		 * Location id of the last pair, appends are encoded relative to it
+		 */
+		private int lastLocation;
+
+		/**
+		 * Position of the last pair, appends are encoded relative to it
+		 */
+		private int lastPosition;
+
+		/**
+		 * Creates an empty posting list, most words only ever have a few postings
+		 */
+		public PostingList() {
+			data = new byte[4];
+			length = 0;
+			size = 0;
+			documents = 0;
+			lastLocation = 0;
+			lastPosition = 0;
+		}
+
+		/**
+		 * Adds a pair if not already present. Indexing a file adds increasing
+		 * pairs, so this is usually a plain append.
+		 *
+		 * @param location	location id
+		 * @param position	position in the location
+		 * @return true if the pair was added
+		 */
+		public boolean add(int location, int position) {
+			if (size > 0 && (location < lastLocation || (location == lastLocation && position <= lastPosition))) {
+				return insert(location, position);
+			}
+			append(location, position);
+			return true;
+		}
+
+		/**
+		 * Encodes a pair that is greater than every pair stored
+		 *
+		 * @param location	location id
+		 * @param position	position in the location
+		 */
+		private void append(int location, int position) {
+			if (size > 0 && location == lastLocation) {
+				write((position - lastPosition) << 1);
+			} else {
+				write(((location - lastLocation) << 1) | 1);
+				write(position);
+				documents++;
+			}
+			lastLocation = location;
+			lastPosition = position;
+			size++;
+		}
+
+		/**
+		 * Adds a pair that belongs before the end of the list by decoding and
+		 * re-encoding the whole list. Only happens when a location is indexed
+		 * again or indexes are merged out of order.
+		 *
+		 * @param location	location id
+		 * @param position	position in the location
+		 * @return true if the pair was added
+		 */
+		private boolean insert(int location, int position) {
+			int[] locations = new int[size + 1];
+			int[] positions = new int[size + 1];
+			int count = 0;
+			boolean inserted = false;
+			Reader reader = reader();
+			while (reader.next()) {
+				if (!inserted && (reader.location > location || (reader.location == location && reader.position >= position))) {
+					if (reader.location == location && reader.position == position) {
+						return false;
+					}
+					locations[count] = location;
+					positions[count++] = position;
+					inserted = true;
+				}
+				locations[count] = reader.location;
+				positions[count++] = reader.position;
+			}
+
+			length = 0;
+			size = 0;
+			documents = 0;
+			lastLocation = 0;
+			lastPosition = 0;
+			for (int i = 0; i < count; i++) {
+				append(locations[i], positions[i]);
+			}
+			return true;
+		}
+
+		/**
+		 * Gives the pairs new location ids by decoding and re-encoding the whole
+		 * list. The new ids must keep the order of the old ones.
+		 *
+		 * @param remap	new id of each old location id, or -1 to drop its pairs
+		 */
+		public void remap(int[] remap) {
+			int[] locations = new int[size];
+			int[] positions = new int[size];
+			int count = 0;
+			Reader reader = reader();
+			while (reader.next()) {
+				if (remap[reader.location] >= 0) {
+					locations[count] = remap[reader.location];
+					positions[count++] = reader.position;
+				}
+			}
+
+			length = 0;
+			size = 0;
+			documents = 0;
+			lastLocation = 0;
+			lastPosition = 0;
+			for (int i = 0; i < count; i++) {
+				append(locations[i], positions[i]);
+			}
+		}
+
+		/**
+		 * Writes an int as an unsigned variable-byte integer, 7 bits per byte with
+		 * the high bit set on every byte but the last
+		 *
+		 * @param value	value to be written
+		 */
+		private void write(int value) {
+			if (length + 5 > data.length) {
+				data = Arrays.copyOf(data, Math.max(data.length * 2, length + 5));
+			}
+			while ((value & ~0x7F) != 0) {
+				data[length++] = (byte) ((value & 0x7F) | 0x80);
+				value >>>= 7;
+			}
+			data[length++] = (byte) value;
+		}
+
+		/**
+		 * Decodes the whole list into arrays, for the searches that walk postings
+		 * document by document
+		 *
+		 * @return postings backed by the decoded arrays
+		 */
+		public Postings decode() {
+			int[] locations = new int[documents];
+			int[] offsets = new int[documents + 1];
+			int[] positions = new int[size];
+			int p = 0;
+			int count = 0;
+			Reader reader = reader();
+			while (reader.next()) {
+				if (reader.first) {
+					locations[p] = reader.location;
+					offsets[p++] = count;
+				}
+				positions[count++] = reader.position;
+			}
+			offsets[p] = count;
+			return new ArrayPostings(locations, offsets, positions);
+		}
+
+		/**
+		 * Checks if any pair has a location
+		 *
+		 * @param location	location id
+		 * @return true if the location is present
+		 */
+		public boolean contains(int location) {
+			Reader reader = reader();
+			while (reader.next() && reader.location <= location) {
+				if (reader.location == location) return true;
+			}
+			return false;
+		}
+
+		/**
+		 * Checks if a pair is present
+		 *
+		 * @param location	location id
+		 * @param position	position in the location
+		 * @return true if the pair is present
+		 */
+		public boolean contains(int location, int position) {
+			Reader reader = reader();
+			while (reader.next() && reader.location <= location) {
+				if (reader.location == location && reader.position == position) return true;
+			}
+			return false;
+		}
+
+		/**
+		 * Decodes the positions of a location
+		 *
+		 * @param location	location id
+		 * @return sorted positions, empty if the location is not present
+		 */
+		public Set<Integer> positions(int location) {
+			Set<Integer> positions = new TreeSet<>();
+			Reader reader = reader();
+			while (reader.next() && reader.location <= location) {
+				if (reader.location == location) positions.add(reader.position);
+			}
+			return positions;
+		}
+
+		/**
+		 * Decodes this list into a sorted location name to positions map, used
+		 * for output
+		 *
+		 * @param names	location name of each id
+		 * @return map of positions by location name
+		 */
+		public Map<String, List<Integer>> toMap(List<String> names) {
+			Map<String, List<Integer>> map = new TreeMap<>();
+			List<Integer> positions = null;
+			Reader reader = reader();
+			while (reader.next()) {
+				if (reader.first) {
+					positions = new ArrayList<>();
+					map.put(names.get(reader.location), positions);
+				}
+				positions.add(reader.position);
+			}
+			return map;
+		}
+
+		/**
+		 * Creates a reader positioned before the first pair
+		 *
+		 * @return new reader
+		 */
+		public Reader reader() {
+			return new Reader();
+		}
+
+		/**
+		 * Decodes the pairs one at a time
+		 */
+		private class Reader {
+
+			/**
+			 * Offset of the next byte to be decoded
+			 */
+			private int offset = 0;
+
+			/**
+			 * Location id of the current pair
+			 */
+			private int location = 0;
+
+			/**
+			 * Position of the current pair
+			 */
+			private int position = 0;
+
+			/**
+			 * Whether the current pair is the first one of its location
+			 */
+			private boolean first = false;
+
+			/**
+			 * Moves to the next pair
+			 *
+			 * @return false if there are no more pairs
+			 */
+			public boolean next() {
+				if (offset >= length) {
+					return false;
+				}
+				int value = read();
+				first = (value & 1) == 1;
+				if (first) {
+					location += value >>> 1;
+					position = read();
+				} else {
+					position += value >>> 1;
+				}
+				return true;
+			}
+
+			/**
+			 * Reads an unsigned variable-byte integer
+			 *
+			 * @return value read
+			 */
+			private int read() {
+				int value = 0;
+				int shift = 0;
+				byte b;
+				do {
+					b = data[offset++];
+					value |= (b & 0x7F) << shift;
+					shift += 7;
+				} while (b < 0);
+				return value;
+			}
+		}
+	}
+}
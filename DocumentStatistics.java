@@ -0,0 +1,279 @@
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.NavigableMap;
+import java.util.NavigableSet;
+
+/**
+ * Flat copy of what scoring needs from a map-backed {@link InvertedIndex}: for
+ * every word the documents it was found in and how often, and for every
+ * document its length. Documents are numbered in sorted location order, so
+ * the documents of a word are in the order the maps would visit them.
+ *
+ * Scoring a query then reads arrays only; the single lookup left is finding
+ * each query word (or prefix) in the sorted word array. The positions are
+ * copied as well, for phrase queries (see {@link PhraseMatcher}).
+ *
+ * The index-wide statistics the scorers need are taken at the same time: the
+ * number of documents a word was found in is the length of its arrays, and the
+ * average document length is kept.
+ *
+ * The statistics are a snapshot: they do not follow later changes to the index,
+ * which is why the index keeps the modification count they were taken at.
+ *
+ * @author pcarbajal
+ */
+public class DocumentStatistics implements IndexView {
+
+	/**
+	 * Sorted words
+	 */
+	private final String[] words;
+
+	/**
+	 * Documents each word was found in, in ascending order
+	 */
+	private final int[][] documents;
+
+	/**
+	 * For each word, where the positions of each of its documents start in its
+	 * position array, plus the end of the last one
+	 */
+	private final int[][] offsets;
+
+	/**
+	 * Positions of each word, document after document
+	 */
+	private final int[][] positions;
+
+	/**
+	 * Location of each document, sorted
+	 */
+	private final String[] locations;
+
+	/**
+	 * Number of words in each document
+	 */
+	private final int[] lengths;
+
+	/**
+	 * Average number of words per document
+	 */
+	private final double averageLength;
+
+	/**
+	 * Modification count of the index when these statistics were taken
+	 */
+	private final long modifications;
+
+	/**
+	 * Score bounds of the words under the last scorer asked for, if any
+	 */
+	private volatile ScoreBounds bounds;
+
+	/**
+	 * Copies the statistics out of the maps of an index
+	 *
+	 * @param index			words mapped to their locations and positions
+	 * @param wordCounts	locations mapped to their word counts
+	 * @param modifications	modification count of the index before copying
+	 */
+	DocumentStatistics(NavigableMap<String, NavigableMap<String, NavigableSet<Integer>>> index,
+			NavigableMap<String, Integer> wordCounts, long modifications) {
+		this.modifications = modifications;
+		this.bounds = null;
+		locations = new String[wordCounts.size()];
+		lengths = new int[locations.length];
+		Map<String, Integer> ids = new HashMap<>();
+		long total = 0;
+		int d = 0;
+		for (Map.Entry<String, Integer> location : wordCounts.entrySet()) {
+			if (d == locations.length) break; // a location added while copying
+			ids.put(location.getKey(), d);
+			locations[d] = location.getKey();
+			lengths[d++] = location.getValue();
+			total += location.getValue();
+		}
+		averageLength = d == 0 ? 0 : (double) total / d;
+
+		words = new String[index.size()];
+		documents = new int[words.length][];
+		offsets = new int[words.length][];
+		positions = new int[words.length][];
+		int w = 0;
+		for (Map.Entry<String, NavigableMap<String, NavigableSet<Integer>>> word : index.entrySet()) {
+			if (w == words.length) break;
+			int[] wordDocuments = new int[word.getValue().size()];
+			int[] wordOffsets = new int[wordDocuments.length + 1];
+			int[] wordPositions = new int[16];
+			int p = 0;
+			for (Map.Entry<String, NavigableSet<Integer>> location : word.getValue().entrySet()) {
+				Integer id = ids.get(location.getKey());
+				if (id == null || p == wordDocuments.length) continue; // added while copying
+				int offset = wordOffsets[p];
+				for (int position : location.getValue()) {
+					if (offset == wordPositions.length) {
+						wordPositions = Arrays.copyOf(wordPositions, offset * 2);
+					}
+					wordPositions[offset++] = position;
+				}
+				wordDocuments[p] = id;
+				wordOffsets[++p] = offset;
+			}
+			words[w] = word.getKey();
+			documents[w] = p == wordDocuments.length ? wordDocuments : Arrays.copyOf(wordDocuments, p);
+			offsets[w] = p == wordDocuments.length ? wordOffsets : Arrays.copyOf(wordOffsets, p + 1);
+			positions[w++] = Arrays.copyOf(wordPositions, wordOffsets[p]);
+		}
+	}
+
+	/**
+	 * Modification count of the index when these statistics were taken
+	 *
+	 * @return modification count
+	 */
+	public long getModifications() {
+		return modifications;
+	}
+
+	/**
+	 * Number of documents
+	 *
+	 * @return number of documents
+	 */
+	@Override
+	public int size() {
+		return locations.length;
+	}
+
+	/**
+	 * Average number of words per document
+	 *
+	 * @return average document length
+	 */
+	@Override
+	public double getAverageLength() {
+		return averageLength;
+	}
+
+	/**
+	 * Finds a word
+	 *
+	 * @param word	to be looked up
+	 * @return word id, or negative if not found
+	 */
+	@Override
+	public int find(String word) {
+		return Arrays.binarySearch(words, word);
+	}
+
+	/**
+	 * First word that is not smaller than a prefix
+	 *
+	 * @param prefix	to be looked up
+	 * @return id of the first word that may start with the prefix
+	 */
+	public int first(String prefix) {
+		int w = find(prefix);
+		return w >= 0 ? w : -(w + 1);
+	}
+
+	@Override
+	public int[] prefixed(String prefix) {
+		int from = first(prefix);
+		int to = from;
+		while (to < words.length && words[to].startsWith(prefix)) {
+			to++;
+		}
+		int[] ids = new int[to - from];
+		for (int w = from; w < to; w++) {
+			ids[w - from] = w;
+		}
+		return ids;
+	}
+
+	@Override
+	public double upperBound(int w, Scorer scorer) {
+		ScoreBounds current = bounds;
+		if (current == null || !current.isFor(scorer)) {
+			current = new ScoreBounds(this, scorer);
+			bounds = current;
+		}
+		return current.get(w);
+	}
+
+	/**
+	 * Number of words
+	 *
+	 * @return number of words
+	 */
+	@Override
+	public int numWords() {
+		return words.length;
+	}
+
+	/**
+	 * Word with an id
+	 *
+	 * @param w	word id
+	 * @return the word
+	 */
+	public String word(int w) {
+		return words[w];
+	}
+
+	/**
+	 * Documents a word was found in, in ascending order. Not to be changed.
+	 *
+	 * @param w	word id
+	 * @return document ids
+	 */
+	public int[] documents(int w) {
+		return documents[w];
+	}
+
+	/**
+	 * Where the positions of each document of a word start, plus the end of the
+	 * last one. The difference of two neighbours is the number of times the word
+	 * was found in that document. Not to be changed.
+	 *
+	 * @param w	word id
+	 * @return offsets, one more than {@link #documents(int)}
+	 */
+	public int[] offsets(int w) {
+		return offsets[w];
+	}
+
+	/**
+	 * Postings of a word with their positions, for phrase queries
+	 *
+	 * @param w	word id
+	 * @return postings backed by the arrays of the word
+	 */
+	@Override
+	public Postings postings(int w) {
+		return new ArrayPostings(documents[w], offsets[w], positions[w]);
+	}
+
+	/**
+	 * Location of a document
+	 *
+	 * @param d	document id
+	 * @return location
+	 */
+	@Override
+	public String location(int d) {
+		return locations[d];
+	}
+
+	/**
+	 * Number of words in a document
+	 *
+	 * @param d	document id
+	 * @return document length
+	 */
+	@Override
+	public int length(int d) {
+		return lengths[d];
+	}
+}
@@ -1,5 +1,9 @@
 import java.io.IOException;
 import java.nio.file.Path;
+import java.util.concurrent.TimeUnit;
+
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.Logger;
 
 /**
  * Class responsible for running this project based on the provided command-line
@@ -11,6 +15,11 @@ import java.nio.file.Path;
  */
 public class Driver {
 
+	/**
+	 * Logger
+	 */
+	private static final Logger log = LogManager.getLogger();
+
 	/**
 	 * If the path argument is not provided, use index.json as the default output
 	 * path
@@ -28,11 +37,38 @@ public class Driver {
 	 */
 	public static final String DEFAULT_RESULTS_PATH = "results.json";
 	
+	/**
+	 * If the save or load argument has no value, use index.bin as the default
+	 * binary index filename
+	 */
+	public static final String DEFAULT_BINARY_PATH = "index.bin";
+	
 	/**
 	 * Default number of threads
 	 */
 	public static final int DEFAULT_NUM_THREADS = 5;
+
+	/**
+	 * If the watch argument has no value, keep the index current for a minute
+	 */
+	public static final int DEFAULT_WATCH_SECONDS = 60;
 	
+	/**
+	 * Parses the value of the -threads argument
+	 * 
+	 * @param strNumThreads	value of the argument, may be null
+	 * @return number of threads, or the default upon invalid entry
+	 */
+	private static int numThreads(String strNumThreads) {
+		int numThreads;
+		try {
+			numThreads = Integer.parseInt(strNumThreads);
+		} catch (NumberFormatException e) {
+			numThreads = DEFAULT_NUM_THREADS;
+		}
+		return numThreads <= 0 ? DEFAULT_NUM_THREADS : numThreads;
+	}
+
 	/**
 	 * Initializes the classes necessary based on the provided command-line
 	 * arguments. This includes (but is not limited to) how to build or search an
@@ -52,32 +88,64 @@ public class Driver {
 		/* declaring and setting value to workQueue */
 		WorkQueue workQueue = null;
 
+		if (argumentParser.hasFlag("-compact") && argumentParser.hasFlag("-threads")) { // the compact index is built by a single thread
+			System.out.println("The -compact argument cannot be used with -threads");
+			return;
+		}
+
 		if(argumentParser.hasFlag("-threads")) { // do we run the single threaded version, or just 1 thread upon invalid entry
-			invertedIndex = new ThreadSafeInvertedIndex();
+			invertedIndex = new ThreadSafeInvertedIndex(argumentParser.hasFlag("-concurrent"), argumentParser.hasFlag("-optimistic"));
 			String strNumThreads = argumentParser.getString("-threads");
-			int numThreads;
-			try {
-				numThreads = Integer.parseInt(strNumThreads);
-			} catch (NumberFormatException e) {
-				numThreads = DEFAULT_NUM_THREADS;
-			}
-			if (numThreads <= 0) {
-				workQueue = new WorkQueue(DEFAULT_NUM_THREADS);
+			if ("virtual".equals(strNumThreads)) { // file reads and searches on virtual threads, CPU work capped at the cores
+				workQueue = new VirtualThreadQueue();
+			} else if (argumentParser.hasFlag("-stealing")) { // per-worker deques instead of one shared queue
+				workQueue = new WorkStealingQueue(numThreads(strNumThreads));
 			} else {
-				workQueue = new WorkQueue(numThreads);
+				workQueue = new WorkQueue(numThreads(strNumThreads));
 			}
+		} else if (argumentParser.hasFlag("-compact")) { // dictionary-encoded index, same output with less memory
+			invertedIndex = new CompactInvertedIndex();
 		} else {
 			invertedIndex = new InvertedIndex();
 		}
 
+		IndexWatcher indexWatcher = null;
+		if (argumentParser.hasFlag("-watch")) { // -path registered before building, so no change is missed
+			Path watchPath = argumentParser.getPath("-path");
+			if (workQueue == null || watchPath == null || argumentParser.hasFlag("-load") || argumentParser.hasFlag("-freeze")) {
+				System.out.println("The -watch argument requires -path and -threads, without -load or -freeze");
+			} else {
+				try {
+					indexWatcher = new IndexWatcher((ThreadSafeInvertedIndex)invertedIndex, watchPath, workQueue,
+							IndexWatcher.DEFAULT_QUIET_MILLIS, IndexWatcher.DEFAULT_MAX_DELAY_MILLIS);
+				} catch (IOException e) {
+					System.out.println("Unable to watch path: " + watchPath);
+				}
+			}
+		}
 		
-		if (argumentParser.hasFlag("-path")) {
+		if (argumentParser.hasFlag("-load")) { // a saved index replaces building one from -path
+			Path loadPath = argumentParser.getPath("-load", Path.of(DEFAULT_BINARY_PATH));
+			try {
+				invertedIndex = FrozenInvertedIndex.load(loadPath);
+			} catch (IOException e) {
+				System.out.println("Unable to load the inverted index from path: " + loadPath);
+			}
+		} else if (argumentParser.hasFlag("-path")) {
 			Path path = argumentParser.getPath("-path");
 			if (path == null) {
 				System.out.println("The -path argument is required");
 			} else {
 				try {
-					if (workQueue != null) { //multithreading
+					long chunkSize = argumentParser.getPositiveInteger("-chunk", (int) (ThreadSafeInvertedIndexBuilder.DEFAULT_CHUNK_SIZE >> 10)) * 1024L;
+					if (argumentParser.hasFlag("-incremental")) { // only new and changed files read, on top of the index saved with its manifest
+						Path savedPath = argumentParser.getPath("-incremental", Path.of(DEFAULT_BINARY_PATH));
+						IncrementalIndexBuilder.update(invertedIndex, path, savedPath, workQueue, chunkSize);
+					} else if (workQueue != null && argumentParser.hasFlag("-mergetree")) { // one local index per worker, merged at the end
+						ThreadSafeInvertedIndexBuilder.buildInvertedIndexWithMergeTree((ThreadSafeInvertedIndex)invertedIndex, path, workQueue);
+					} else if (workQueue != null && argumentParser.hasFlag("-chunk")) { // files over the chunk size (in kilobytes) split across workers
+						ThreadSafeInvertedIndexBuilder.buildInvertedIndexFromPath((ThreadSafeInvertedIndex)invertedIndex, path, workQueue, chunkSize);
+					} else if (workQueue != null) { //multithreading
 						ThreadSafeInvertedIndexBuilder.buildInvertedIndexFromPath((ThreadSafeInvertedIndex)invertedIndex, path, workQueue);
 					} else { //singlethreaded
 						InvertedIndexBuilder.buildInvertedIndex(invertedIndex, path);
@@ -87,33 +155,62 @@ public class Driver {
 				}
 			}
 		}
+
+		if (argumentParser.hasFlag("-freeze")) { // read-only from here on, use the array-backed snapshot
+			invertedIndex = invertedIndex.freeze();
+		}
 		
-		if (argumentParser.hasFlag("-index")) {
-			Path indexPath = argumentParser.getPath("-index", Path.of(DEFAULT_INDEX_PATH));
+		if (argumentParser.hasFlag("-save")) {
+			Path savePath = argumentParser.getPath("-save", Path.of(DEFAULT_BINARY_PATH));
 			try {
-				invertedIndex.writeIndex(indexPath);
+				invertedIndex.freeze().save(savePath);
 			} catch (IOException e) {
-				System.out.println("Unable to write the inverted index to path: " + indexPath);
+				System.out.println("Unable to save the inverted index to path: " + savePath);
 			}
 		}
+		
+		writeIndexAndCounts(argumentParser, invertedIndex);
 
-		if (argumentParser.hasFlag("-counts")) {
-			Path countsPath = argumentParser.getPath("-counts", Path.of(DEFAULT_COUNTS_PATH));
-			try {
-				invertedIndex.writeCounts(countsPath);
-			} catch (IOException e) {
-				System.out.println("Unable to write word counts to path: " + countsPath);
+		long watchUntil = System.nanoTime();
+		if (indexWatcher != null) { // changes applied once the index as built is written, while the queries are searched
+			indexWatcher.start();
+			watchUntil += TimeUnit.SECONDS.toNanos(argumentParser.getPositiveInteger("-watch", DEFAULT_WATCH_SECONDS));
+		}
+
+		if (argumentParser.hasFlag("-scorer")) { // ranking model, count / length unless changed
+			Scorer scorer = Scorer.forName(argumentParser.getString("-scorer"));
+			if (scorer == null) {
+				System.out.println("Unknown scorer, expected tf, tfidf or bm25: " + argumentParser.getString("-scorer"));
+			} else {
+				invertedIndex.setScorer(scorer);
 			}
 		}
 
+		QueryCache queryCache = null;
+		if (argumentParser.hasFlag("-cache")) { // bounded cache of search results, by total number of results
+			queryCache = new QueryCache(invertedIndex, argumentParser.getPositiveInteger("-cache", QueryCache.DEFAULT_WEIGHT));
+		}
+
+		int limit = argumentParser.getPositiveInteger("-limit", Integer.MAX_VALUE); // only the first page of results
+
+		ResultsSpool resultsSpool = null;
+		if (argumentParser.hasFlag("-stream")) { // bounded memory for results, spilled as sorted runs by total number of results
+			resultsSpool = new ResultsSpool(argumentParser.getPositiveInteger("-stream", ResultsSpool.DEFAULT_WEIGHT));
+		}
+
 		// TODO Not yet multithreading the search
-		QueryParser queryParser = new QueryParser(invertedIndex);
-		ThreadSafeQueryParser threadSafeQueryParser = new ThreadSafeQueryParser(invertedIndex, workQueue);
+		boolean syntax = argumentParser.hasFlag("-boolean"); // quoted phrases, AND, OR, NOT and parentheses, otherwise plain words
+		QueryParser queryParser = new QueryParser(invertedIndex, queryCache, limit, resultsSpool, syntax);
+		ThreadSafeQueryParser threadSafeQueryParser = new ThreadSafeQueryParser(invertedIndex, workQueue, queryCache, limit, resultsSpool, syntax);
 		if (argumentParser.hasValue("-query")) {
 			Path queryPath = argumentParser.getPath("-query");
 			try {
 				
-				if (workQueue != null) { // multithreading
+				if (argumentParser.hasFlag("-batch") && workQueue != null) { // whole file planned at once, shared stems searched once
+					threadSafeQueryParser.performBatchSearch(queryPath, argumentParser.hasFlag("-exact"));
+				} else if (argumentParser.hasFlag("-batch")) {
+					queryParser.performBatchSearch(queryPath, argumentParser.hasFlag("-exact"));
+				} else if (workQueue != null) { // multithreading
 					threadSafeQueryParser.performSearch(queryPath, argumentParser.hasFlag("-exact"));
 				} else { // singlethreaded
 					queryParser.performSearch(queryPath, argumentParser.hasFlag("-exact"));
@@ -134,8 +231,55 @@ public class Driver {
 				System.out.println("Unable to write search results for : " + resultsPath);
 			}
 		}
+		if (indexWatcher != null) {
+			try {
+				TimeUnit.NANOSECONDS.sleep(watchUntil - System.nanoTime());
+			} catch (InterruptedException e) {
+				Thread.currentThread().interrupt();
+			}
+			try {
+				indexWatcher.close();
+			} catch (IOException e) {
+				System.out.println("Unable to stop watching path: " + argumentParser.getPath("-path"));
+			}
+			log.info("watched {}: {}", argumentParser.getPath("-path"), indexWatcher);
+			writeIndexAndCounts(argumentParser, invertedIndex); // as they are after the changes
+		}
+		if (resultsSpool != null) {
+			try {
+				resultsSpool.close();
+			} catch (IOException e) {
+				System.out.println("Unable to delete spilled search results");
+			}
+		}
 		if(workQueue != null) {
 			workQueue.shutdown();
 		}
 	}
+
+	/**
+	 * Writes the inverted index and the word counts, if asked for
+	 * 
+	 * @param argumentParser	parsed command-line arguments
+	 * @param invertedIndex		index to be written
+	 */
+	private static void writeIndexAndCounts(ArgumentParser argumentParser, InvertedIndex invertedIndex) {
+		if (argumentParser.hasFlag("-index")) {
+			Path indexPath = argumentParser.getPath("-index", Path.of(DEFAULT_INDEX_PATH));
+			try {
+				invertedIndex.writeIndex(indexPath);
+			} catch (IOException e) {
+				System.out.println("Unable to write the inverted index to path: " + indexPath);
+			}
+		}
+
+		if (argumentParser.hasFlag("-counts")) {
+			Path countsPath = argumentParser.getPath("-counts", Path.of(DEFAULT_COUNTS_PATH));
+			try {
+				invertedIndex.writeCounts(countsPath);
+			} catch (IOException e) {
+				System.out.println("Unable to write word counts to path: " + countsPath);
+			}
+		}
+	}
 }
\ No newline at end of file
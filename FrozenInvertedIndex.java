@@ -0,0 +1,834 @@
+import java.io.BufferedOutputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.IntBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.AbstractMap;
+import java.util.AbstractSet;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.NoSuchElementException;
+import java.util.Set;
+import java.util.TreeMap;
+import java.util.function.IntFunction;
+import java.util.function.Predicate;
+
+/**
+ * Immutable snapshot of an inverted index, created by
+ * {@link InvertedIndex#freeze()} once the build is done. Everything is stored
+ * in sorted, contiguous arrays:
+ *
+ * words[w] owns the postings wordOffsets[w] to wordOffsets[w + 1], posting p is
+ * in location postingLocations[p] and owns the positions locationOffsets[p] to
+ * locationOffsets[p + 1].
+ *
+ * Location ids follow the sorted order of the location names, so the postings
+ * of a word are already in the order the map-backed index would visit them.
+ * Nothing changes after construction, so searches need no locking.
+ *
+ * The same layout is used by the binary index file written by
+ * {@link #save(Path)}. {@link #load(Path)} decodes the words and locations and
+ * memory-maps the int tables, so postings are only paged in when read.
+ *
+ * @author pcarbajal
+ */
+public class FrozenInvertedIndex extends InvertedIndex {
+
+	/**
+	 * First int of every index file
+	 */
+	public static final int MAGIC = 0x53454958;
+
+	/**
+	 * Version of the index file format written by this class
+	 */
+	public static final int VERSION = 1;
+
+	/**
+	 * Size of the index file header: magic, version, number of locations, words,
+	 * postings and positions, and the length of the string section
+	 */
+	private static final int HEADER_BYTES = 6 * Integer.BYTES + Long.BYTES;
+
+	/**
+	 * Sorted words
+	 */
+	private final String[] words;
+
+	/**
+	 * Start of the postings of each word, plus one extra entry for the end
+	 */
+	private final IntBuffer wordOffsets;
+
+	/**
+	 * Location id of each posting
+	 */
+	private final IntBuffer postingLocations;
+
+	/**
+	 * Start of the positions of each posting, plus one extra entry for the end
+	 */
+	private final IntBuffer locationOffsets;
+
+	/**
+	 * Positions of every posting, one after the other
+	 */
+	private final IntBuffer positions;
+
+	/**
+	 * Sorted locations, indexed by location id
+	 */
+	private final String[] locations;
+
+	/**
+	 * Word count of each location, indexed by location id
+	 */
+	private final int[] wordCounts;
+
+	/**
+	 * Average word count, computed once for scoring
+	 */
+	private final double averageLength;
+
+	/**
+	 * View of the tables by word and document ids
+	 */
+	private final View view;
+
+	/**
+	 * Score bounds of the words under the last scorer asked for, computed once
+	 * per scorer
+	 */
+	private volatile ScoreBounds bounds;
+
+	/**
+	 * Prefix index over the words, used by partial search
+	 */
+	private final PrefixDictionary dictionary;
+
+	/**
+	 * Copies an index into a frozen snapshot
+	 *
+	 * @param index	index to be copied
+	 */
+	public FrozenInvertedIndex(InvertedIndex index) {
+		super();
+		locations = index.getLocations().toArray(new String[0]);
+		wordCounts = new int[locations.length];
+		for (int i = 0; i < locations.length; i++) {
+			wordCounts[i] = index.getWordCount(locations[i]);
+		}
+
+		words = index.getWords().toArray(new String[0]);
+		int[] wordOffsets = new int[words.length + 1];
+		int numPositions = 0;
+		for (int w = 0; w < words.length; w++) { // first pass only counts, to size the arrays
+			Map<String, ? extends Collection<Integer>> postings = index.getPostings(words[w]);
+			for (Collection<Integer> positions : postings.values()) {
+				numPositions += positions.size();
+			}
+			wordOffsets[w + 1] = wordOffsets[w] + postings.size();
+		}
+
+		int[] postingLocations = new int[wordOffsets[words.length]];
+		int[] locationOffsets = new int[postingLocations.length + 1];
+		int[] positions = new int[numPositions];
+		int p = 0;
+		int offset = 0;
+		for (String word : words) {
+			for (Map.Entry<String, ? extends Collection<Integer>> entry : index.getPostings(word).entrySet()) {
+				postingLocations[p] = Arrays.binarySearch(locations, entry.getKey());
+				for (int position : entry.getValue()) {
+					positions[offset++] = position;
+				}
+				locationOffsets[++p] = offset;
+			}
+		}
+		this.wordOffsets = IntBuffer.wrap(wordOffsets);
+		this.postingLocations = IntBuffer.wrap(postingLocations);
+		this.locationOffsets = IntBuffer.wrap(locationOffsets);
+		this.positions = IntBuffer.wrap(positions);
+		dictionary = new PrefixDictionary(words);
+		averageLength = average(wordCounts);
+		view = new View();
+		bounds = null;
+	}
+
+	/**
+	 * Creates a snapshot from tables read back from an index file
+	 *
+	 * @param words				sorted words
+	 * @param wordOffsets		start of the postings of each word
+	 * @param postingLocations	location id of each posting
+	 * @param locationOffsets	start of the positions of each posting
+	 * @param positions			positions of every posting
+	 * @param locations			sorted locations
+	 * @param wordCounts		word count of each location
+	 */
+	private FrozenInvertedIndex(String[] words, IntBuffer wordOffsets, IntBuffer postingLocations,
+			IntBuffer locationOffsets, IntBuffer positions, String[] locations, int[] wordCounts) {
+		super();
+		this.words = words;
+		this.wordOffsets = wordOffsets;
+		this.postingLocations = postingLocations;
+		this.locationOffsets = locationOffsets;
+		this.positions = positions;
+		this.locations = locations;
+		this.wordCounts = wordCounts;
+		this.dictionary = new PrefixDictionary(words);
+		this.averageLength = average(wordCounts);
+		this.view = new View();
+		this.bounds = null;
+	}
+
+	/**
+	 * Average of the word counts
+	 *
+	 * @param wordCounts	word count of each location
+	 * @return average document length, 0 if there are no locations
+	 */
+	private static double average(int[] wordCounts) {
+		long total = 0;
+		for (int count : wordCounts) {
+			total += count;
+		}
+		return wordCounts.length == 0 ? 0 : (double) total / wordCounts.length;
+	}
+
+	/**
+	 * Writes this snapshot as a binary index file. All numbers are big-endian:
+	 * 
+	 * the header, then every location as its UTF-8 length, bytes and word count,
+	 * then every word as its UTF-8 length and bytes, padded to a multiple of four
+	 * bytes, and then the word offset, posting location, location offset and
+	 * position tables as ints.
+	 *
+	 * @param path	path of the index file
+	 * @throws IOException	throws exception
+	 */
+	public void save(Path path) throws IOException {
+		byte[][] locationBytes = encode(locations);
+		byte[][] wordBytes = encode(words);
+		long stringBytes = 0;
+		for (byte[] bytes : locationBytes) {
+			stringBytes += Integer.BYTES + bytes.length + Integer.BYTES;
+		}
+		for (byte[] bytes : wordBytes) {
+			stringBytes += Integer.BYTES + bytes.length;
+		}
+		int padding = (int) (-stringBytes & 3);
+
+		try (DataOutputStream out = new DataOutputStream(new BufferedOutputStream(Files.newOutputStream(path)))) {
+			out.writeInt(MAGIC);
+			out.writeInt(VERSION);
+			out.writeInt(locations.length);
+			out.writeInt(words.length);
+			out.writeInt(postingLocations.limit());
+			out.writeInt(positions.limit());
+			out.writeLong(stringBytes + padding);
+			for (int l = 0; l < locations.length; l++) {
+				out.writeInt(locationBytes[l].length);
+				out.write(locationBytes[l]);
+				out.writeInt(wordCounts[l]);
+			}
+			for (byte[] bytes : wordBytes) {
+				out.writeInt(bytes.length);
+				out.write(bytes);
+			}
+			out.write(new byte[padding]);
+			for (IntBuffer table : List.of(wordOffsets, postingLocations, locationOffsets, positions)) {
+				for (int i = 0; i < table.limit(); i++) {
+					out.writeInt(table.get(i));
+				}
+			}
+		}
+	}
+
+	/**
+	 * Opens a binary index file written by {@link #save(Path)}. Words and
+	 * locations are decoded right away; the int tables are memory-mapped and
+	 * read straight from the page cache.
+	 *
+	 * Every count and length is checked against the size of the file, the words
+	 * and locations must be sorted, and the offset and location tables are
+	 * checked once, so that a truncated or corrupt file fails here with an
+	 * IOException rather than later in a search. The positions are not read
+	 * until searched.
+	 *
+	 * @param path	path of the index file
+	 * @return snapshot backed by the file
+	 * @throws IOException	if the file cannot be read or is not a valid index file
+	 */
+	public static FrozenInvertedIndex load(Path path) throws IOException {
+		try (FileChannel channel = FileChannel.open(path, StandardOpenOption.READ)) {
+			long size = channel.size();
+			if (size < HEADER_BYTES) {
+				throw new IOException("Not an index file: " + path);
+			}
+			ByteBuffer header = channel.map(FileChannel.MapMode.READ_ONLY, 0, HEADER_BYTES);
+			if (header.getInt() != MAGIC) {
+				throw new IOException("Not an index file: " + path);
+			}
+			int version = header.getInt();
+			if (version != VERSION) {
+				throw new IOException("Unsupported index file version " + version + ": " + path);
+			}
+			int numLocations = header.getInt();
+			int numWords = header.getInt();
+			int numPostings = header.getInt();
+			int numPositions = header.getInt();
+			long stringBytes = header.getLong();
+			long tableBytes = (numWords + 1L + numPostings + numPostings + 1L + numPositions) * Integer.BYTES;
+			if (numLocations < 0 || numWords < 0 || numPostings < 0 || numPositions < 0 || stringBytes < 0
+					|| stringBytes > Integer.MAX_VALUE || HEADER_BYTES + stringBytes + tableBytes != size
+					|| 2L * Integer.BYTES * numLocations + (long) Integer.BYTES * numWords > stringBytes) { // lengths and word counts alone
+				throw new IOException("Truncated or corrupt index file: " + path);
+			}
+
+			ByteBuffer strings = channel.map(FileChannel.MapMode.READ_ONLY, HEADER_BYTES, stringBytes);
+			String[] locations = new String[numLocations];
+			int[] wordCounts = new int[numLocations];
+			for (int l = 0; l < numLocations; l++) {
+				locations[l] = decode(strings, path);
+				wordCounts[l] = getInt(strings, path);
+				if (wordCounts[l] < 0 || (l > 0 && locations[l - 1].compareTo(locations[l]) >= 0)) {
+					throw new IOException("Corrupt locations in index file: " + path);
+				}
+			}
+			String[] words = new String[numWords];
+			for (int w = 0; w < numWords; w++) {
+				words[w] = decode(strings, path);
+				if (w > 0 && words[w - 1].compareTo(words[w]) >= 0) {
+					throw new IOException("Corrupt words in index file: " + path);
+				}
+			}
+
+			long offset = HEADER_BYTES + stringBytes;
+			IntBuffer wordOffsets = map(channel, offset, numWords + 1);
+			offset += (numWords + 1L) * Integer.BYTES;
+			IntBuffer postingLocations = map(channel, offset, numPostings);
+			offset += (long) numPostings * Integer.BYTES;
+			IntBuffer locationOffsets = map(channel, offset, numPostings + 1);
+			offset += (numPostings + 1L) * Integer.BYTES;
+			IntBuffer positions = map(channel, offset, numPositions);
+
+			checkOffsets(wordOffsets, numPostings, path);
+			checkOffsets(locationOffsets, numPositions, path);
+			for (int w = 0; w < numWords; w++) { // location ids in range and increasing within each word
+				for (int p = wordOffsets.get(w), last = -1; p < wordOffsets.get(w + 1); p++) {
+					int location = postingLocations.get(p);
+					if (location <= last || location >= numLocations) {
+						throw new IOException("Corrupt postings in index file: " + path);
+					}
+					last = location;
+				}
+			}
+			return new FrozenInvertedIndex(words, wordOffsets, postingLocations, locationOffsets, positions,
+					locations, wordCounts);
+		}
+	}
+
+	/**
+	 * Checks that an offset table starts at 0, never decreases and ends at the
+	 * size of the table it points into
+	 *
+	 * @param offsets	offset table, with one extra entry for the end
+	 * @param end		size of the table it points into
+	 * @param path		path of the index file, for the message
+	 * @throws IOException	if the table is corrupt
+	 */
+	private static void checkOffsets(IntBuffer offsets, int end, Path path) throws IOException {
+		int last = 0;
+		for (int i = 0; i < offsets.limit(); i++) {
+			int offset = offsets.get(i);
+			if (offset < last || (i == 0 && offset != 0)) {
+				throw new IOException("Corrupt offsets in index file: " + path);
+			}
+			last = offset;
+		}
+		if (last != end) {
+			throw new IOException("Corrupt offsets in index file: " + path);
+		}
+	}
+
+	/**
+	 * Maps a table of ints. The mapping stays valid after the channel is closed.
+	 *
+	 * @param channel	open index file
+	 * @param offset	byte offset of the table
+	 * @param length	number of ints in the table
+	 * @return read-only view of the table
+	 * @throws IOException	throws exception
+	 */
+	private static IntBuffer map(FileChannel channel, long offset, int length) throws IOException {
+		if (offset + (long) length * Integer.BYTES > channel.size()) {
+			throw new IOException("Truncated or corrupt index file");
+		}
+		if ((long) length * Integer.BYTES > Integer.MAX_VALUE) { // a single mapping is limited to 2GB
+			throw new IOException("Index table of " + length + " ints is too large to map");
+		}
+		return channel.map(FileChannel.MapMode.READ_ONLY, offset, (long) length * Integer.BYTES).asIntBuffer();
+	}
+
+	/**
+	 * Encodes strings as UTF-8
+	 *
+	 * @param strings	to be encoded
+	 * @return bytes of each string
+	 */
+	private static byte[][] encode(String[] strings) {
+		byte[][] bytes = new byte[strings.length][];
+		for (int i = 0; i < strings.length; i++) {
+			bytes[i] = strings[i].getBytes(StandardCharsets.UTF_8);
+		}
+		return bytes;
+	}
+
+	/**
+	 * Decodes a length-prefixed UTF-8 string
+	 *
+	 * @param buffer	buffer positioned at the length
+	 * @param path		path of the index file, for the message
+	 * @return decoded string
+	 * @throws IOException	if the length does not fit in the buffer
+	 */
+	private static String decode(ByteBuffer buffer, Path path) throws IOException {
+		int length = getInt(buffer, path);
+		if (length < 0 || length > buffer.remaining()) {
+			throw new IOException("Truncated or corrupt index file: " + path);
+		}
+		byte[] bytes = new byte[length];
+		buffer.get(bytes);
+		return new String(bytes, StandardCharsets.UTF_8);
+	}
+
+	/**
+	 * Reads an int of the string section
+	 *
+	 * @param buffer	buffer positioned at the int
+	 * @param path		path of the index file, for the message
+	 * @return the int
+	 * @throws IOException	if the buffer ends before it
+	 */
+	private static int getInt(ByteBuffer buffer, Path path) throws IOException {
+		if (buffer.remaining() < Integer.BYTES) {
+			throw new IOException("Truncated or corrupt index file: " + path);
+		}
+		return buffer.getInt();
+	}
+
+	/**
+	 * Binary search in a range of a sorted int table
+	 *
+	 * @param table	sorted table
+	 * @param from	first index, inclusive
+	 * @param to	last index, exclusive
+	 * @param key	value to be found
+	 * @return index of the key, or negative if not found
+	 */
+	private static int binarySearch(IntBuffer table, int from, int to, int key) {
+		int low = from;
+		int high = to - 1;
+		while (low <= high) {
+			int middle = (low + high) >>> 1;
+			int value = table.get(middle);
+			if (value < key) low = middle + 1;
+			else if (value > key) high = middle - 1;
+			else return middle;
+		}
+		return -(low + 1);
+	}
+
+	/**
+	 * Finds a word
+	 *
+	 * @param word	to be looked up
+	 * @return word id, or negative if not found
+	 */
+	private int wordId(String word) {
+		return Arrays.binarySearch(words, word);
+	}
+
+	/**
+	 * Finds the posting of a word in a location
+	 *
+	 * @param word		to be looked up
+	 * @param location	to be looked up
+	 * @return posting index, or negative if not found
+	 */
+	private int posting(String word, String location) {
+		int w = wordId(word);
+		int l = Arrays.binarySearch(locations, location);
+		if (w < 0 || l < 0) {
+			return -1;
+		}
+		int p = binarySearch(postingLocations, wordOffsets.get(w), wordOffsets.get(w + 1), l);
+		return p < 0 ? -1 : p;
+	}
+
+	@Override
+	public void addEntry(String word, String location, int position) {
+		throw new UnsupportedOperationException("A frozen index is read-only");
+	}
+
+	@Override
+	public void addAll(InvertedIndex local) {
+		throw new UnsupportedOperationException("A frozen index is read-only");
+	}
+
+	@Override
+	public void removeLocations(Set<String> locations) {
+		throw new UnsupportedOperationException("A frozen index is read-only");
+	}
+
+	@Override
+	public FrozenInvertedIndex freeze() {
+		return this;
+	}
+
+	@Override
+	public boolean contains(String word) {
+		return wordId(word) >= 0;
+	}
+
+	@Override
+	public boolean contains(String word, String location) {
+		return posting(word, location) >= 0;
+	}
+
+	@Override
+	public boolean contains(String word, String location, int position) {
+		int p = posting(word, location);
+		return p >= 0 && binarySearch(positions, locationOffsets.get(p), locationOffsets.get(p + 1), position) >= 0;
+	}
+
+	@Override
+	public Set<String> getLocations() {
+		return view(0, locations.length, i -> locations[i], o -> o instanceof String && Arrays.binarySearch(locations, o) >= 0);
+	}
+
+	@Override
+	public Set<String> getWords() {
+		return view(0, words.length, i -> words[i], o -> o instanceof String && Arrays.binarySearch(words, o) >= 0);
+	}
+
+	@Override
+	public Set<String> getLocations(String word) {
+		int w = wordId(word);
+		if (w < 0) {
+			return Collections.emptySet();
+		}
+		return view(wordOffsets.get(w), wordOffsets.get(w + 1), p -> locations[postingLocations.get(p)],
+				o -> o instanceof String && contains(word, (String) o));
+	}
+
+	@Override
+	public Set<Integer> getPositions(String word, String location) {
+		int p = posting(word, location);
+		if (p < 0) {
+			return Collections.emptySet();
+		}
+		return positionsView(p);
+	}
+
+	@Override
+	public Map<String, ? extends Collection<Integer>> getPostings(String word) {
+		int w = wordId(word);
+		if (w < 0) {
+			return Collections.emptyMap();
+		}
+		Map<String, Set<Integer>> postings = new LinkedHashMap<>(); // already in sorted order
+		for (int p = wordOffsets.get(w); p < wordOffsets.get(w + 1); p++) {
+			postings.put(locations[postingLocations.get(p)], positionsView(p));
+		}
+		return Collections.unmodifiableMap(postings);
+	}
+
+	@Override
+	public int getWordCount(String location) {
+		int l = Arrays.binarySearch(locations, location);
+		return l < 0 ? 0 : wordCounts[l];
+	}
+
+	/**
+	 * Read-only view of the positions of a posting
+	 *
+	 * @param p	posting index
+	 * @return set of positions
+	 */
+	private Set<Integer> positionsView(int p) {
+		int from = locationOffsets.get(p);
+		int to = locationOffsets.get(p + 1);
+		return view(from, to, i -> positions.get(i),
+				o -> o instanceof Integer && binarySearch(positions, from, to, (Integer) o) >= 0);
+	}
+
+	/**
+	 * Read-only set view over a range of one of the sorted arrays
+	 *
+	 * @param <E>		element type
+	 * @param from		first index, inclusive
+	 * @param to		last index, exclusive
+	 * @param get		returns the element at an index
+	 * @param contains	membership test, usually a binary search
+	 * @return set view
+	 */
+	private static <E> Set<E> view(int from, int to, IntFunction<E> get, Predicate<Object> contains) {
+		return new AbstractSet<E>() {
+			@Override
+			public Iterator<E> iterator() {
+				return new Iterator<E>() {
+					private int next = from;
+
+					@Override
+					public boolean hasNext() {
+						return next < to;
+					}
+
+					@Override
+					public E next() {
+						if (!hasNext()) throw new NoSuchElementException();
+						return get.apply(next++);
+					}
+				};
+			}
+
+			@Override
+			public int size() {
+				return to - from;
+			}
+
+			@Override
+			public boolean contains(Object o) {
+				return contains.test(o);
+			}
+		};
+	}
+
+	/**
+	 * Read-only nested map view of the whole index, in the shape expected by
+	 * {@link JsonWriter#asVeryNestedObject(Map, Path)}. The postings of a word are
+	 * only put together when that word is written.
+	 *
+	 * @return map view of the index
+	 */
+	private Map<String, Map<String, ? extends Collection<Integer>>> asMap() {
+		return new AbstractMap<String, Map<String, ? extends Collection<Integer>>>() {
+			@Override
+			public Set<Map.Entry<String, Map<String, ? extends Collection<Integer>>>> entrySet() {
+				return view(0, words.length, w -> new SimpleImmutableEntry<>(words[w], getPostings(words[w])),
+						o -> o instanceof Map.Entry && containsKey(((Map.Entry<?, ?>) o).getKey()));
+			}
+
+			@Override
+			public Set<String> keySet() {
+				return getWords();
+			}
+
+			@Override
+			public boolean containsKey(Object key) {
+				return key instanceof String && contains((String) key);
+			}
+
+			@Override
+			public Map<String, ? extends Collection<Integer>> get(Object key) {
+				return containsKey(key) ? getPostings((String) key) : null;
+			}
+		};
+	}
+
+	@Override
+	public void writeIndex(Path path) throws IOException {
+		JsonWriter.asVeryNestedObject(asMap(), path);
+	}
+
+	@Override
+	public void writeCounts(Path path) throws IOException {
+		Map<String, Integer> counts = new TreeMap<>();
+		for (int l = 0; l < locations.length; l++) {
+			counts.put(locations[l], wordCounts[l]);
+		}
+		JsonWriter.asObject(counts, path);
+	}
+
+	@Override
+	public String toString() {
+		return JsonWriter.asVeryNestedObject(asMap());
+	}
+
+	@Override
+	protected List<SearchMetrics> exactMatches(Set<String> query) {
+		List<SearchMetrics> results = new ArrayList<>();
+		SearchMetrics[] lookup = new SearchMetrics[locations.length]; // lookup search results by location id
+		Scorer scorer = getScorer();
+
+		for (String word : query) {
+			int w = wordId(word);
+			if (w >= 0) {
+				searchHelper(lookup, results, w, scorer);
+			}
+		}
+		return results;
+	}
+
+	@Override
+	protected List<SearchMetrics> partialMatches(Set<String> query) {
+		List<SearchMetrics> results = new ArrayList<>();
+		SearchMetrics[] lookup = new SearchMetrics[locations.length]; // lookup search results by location id
+		Scorer scorer = getScorer();
+
+		for (String word : query) {
+			int[] range = dictionary.range(word);
+			for (int w = range[0]; w < range[1]; w++) {
+				searchHelper(lookup, results, w, scorer);
+			}
+		}
+		return results;
+	}
+
+	@Override
+	protected IndexView view() {
+		return view;
+	}
+
+	/**
+	 * View of the tables by word and document ids
+	 */
+	private class View implements IndexView {
+
+		@Override
+		public int size() {
+			return locations.length;
+		}
+
+		@Override
+		public double getAverageLength() {
+			return averageLength;
+		}
+
+		@Override
+		public String location(int d) {
+			return locations[d];
+		}
+
+		@Override
+		public int length(int d) {
+			return wordCounts[d];
+		}
+
+		@Override
+		public int numWords() {
+			return words.length;
+		}
+
+		@Override
+		public int find(String word) {
+			return wordId(word);
+		}
+
+		@Override
+		public int[] prefixed(String prefix) {
+			int[] range = dictionary.range(prefix);
+			int[] ids = new int[range[1] - range[0]];
+			for (int w = range[0]; w < range[1]; w++) {
+				ids[w - range[0]] = w;
+			}
+			return ids;
+		}
+
+		@Override
+		public Postings postings(int w) {
+			return new WordPostings(w);
+		}
+
+		@Override
+		public double upperBound(int w, Scorer scorer) {
+			ScoreBounds current = bounds;
+			if (current == null || !current.isFor(scorer)) {
+				current = new ScoreBounds(this, scorer);
+				bounds = current;
+			}
+			return current.get(w);
+		}
+	}
+
+	/**
+	 * Postings of one word read straight from the tables
+	 */
+	private class WordPostings implements Postings {
+
+		/**
+		 * First posting of the word
+		 */
+		private final int from;
+
+		/**
+		 * Number of postings of the word
+		 */
+		private final int size;
+
+		/**
+		 * Views the postings of a word
+		 *
+		 * @param w	id of the word
+		 */
+		private WordPostings(int w) {
+			from = wordOffsets.get(w);
+			size = wordOffsets.get(w + 1) - from;
+		}
+
+		@Override
+		public int size() {
+			return size;
+		}
+
+		@Override
+		public int document(int i) {
+			return postingLocations.get(from + i);
+		}
+
+		@Override
+		public int frequency(int i) {
+			return locationOffsets.get(from + i + 1) - locationOffsets.get(from + i);
+		}
+
+		@Override
+		public int position(int i, int j) {
+			return positions.get(locationOffsets.get(from + i) + j);
+		}
+	}
+
+	/**
+	 * Adds or updates the SearchMetrics of every location a word was found in
+	 *
+	 * @param lookup	search results by location id
+	 * @param results	list of SearchMetrics objects
+	 * @param w			id of the word being searched
+	 * @param scorer	ranking model of this search
+	 */
+	private void searchHelper(SearchMetrics[] lookup, List<SearchMetrics> results, int w, Scorer scorer) {
+		int from = wordOffsets.get(w);
+		int to = wordOffsets.get(w + 1);
+		double idf = scorer.idf(to - from, locations.length);
+		for (int p = from; p < to; p++) {
+			int l = postingLocations.get(p);
+			if (lookup[l] == null) {
+				lookup[l] = new SearchMetrics(locations[l], scorer);
+				results.add(lookup[l]);
+			}
+			int matches = locationOffsets.get(p + 1) - locationOffsets.get(p);
+			lookup[l].update(matches, wordCounts[l], scorer.weight(matches, wordCounts[l], idf, averageLength));
+		}
+	}
+}
@@ -0,0 +1,106 @@
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+
+/**
+ * Builds an index from the index saved by the last build and the files that
+ * changed since, instead of reading every file again. The saved index is kept
+ * with an {@link IndexManifest} of the files it was built from. Deleted and
+ * changed files are removed from the saved index, new and changed files are
+ * read, and the result is saved again with its manifest for the next build.
+ * The saved index is frozen (see {@link FrozenInvertedIndex}), so it is first
+ * copied into a map-backed index that locations can be removed from. The
+ * manifest records the CRC-32C of the index file it goes with, and an index
+ * file that does not match it is not used.
+ *
+ * @author pcarbajal
+ */
+public class IncrementalIndexBuilder {
+
+	/**
+	 * Fills an empty index with the files under a path, reading only the files
+	 * that are new or changed since the index was last saved to the given file.
+	 * Without a saved index and manifest, if either cannot be read, or if the
+	 * index is not the one the manifest was saved with, every file is read. The
+	 * index is saved back, then its manifest with the hash of the new index
+	 * file, each one replacing the old file at once. A build cut short in
+	 * between leaves the old manifest, which the next build finds does not
+	 * match the index. The index is not saved again if no file changed.
+	 *
+	 * @param index		empty index to be filled
+	 * @param input		path to be read and traversed recursively
+	 * @param saved		binary index file of the last build, and of this one
+	 * @param workQueue	workers to read the files with, or null to read them in
+	 *                  this thread
+	 * @return what changed since the last build
+	 * @throws IOException	if a file cannot be read or the index cannot be saved
+	 */
+	public static IndexManifest.Changes update(InvertedIndex index, Path input, Path saved, WorkQueue workQueue) throws IOException {
+		return update(index, input, saved, workQueue, ThreadSafeInvertedIndexBuilder.DEFAULT_CHUNK_SIZE);
+	}
+
+	/**
+	 * Fills an empty index with the files under a path like
+	 * {@link #update(InvertedIndex, Path, Path, WorkQueue)}, with the workers
+	 * splitting the files read over a chunk size
+	 *
+	 * @param index		empty index to be filled
+	 * @param input		path to be read and traversed recursively
+	 * @param saved		binary index file of the last build, and of this one
+	 * @param workQueue	workers to read the files with, or null to read them in
+	 *                  this thread
+	 * @param chunkSize	size in bytes over which a file read by the workers is
+	 *                  split into chunks
+	 * @return what changed since the last build
+	 * @throws IOException	if a file cannot be read or the index cannot be saved
+	 */
+	public static IndexManifest.Changes update(InvertedIndex index, Path input, Path saved, WorkQueue workQueue, long chunkSize) throws IOException {
+		Path manifestPath = IndexManifest.pathFor(saved);
+		IndexManifest manifest = new IndexManifest();
+		FrozenInvertedIndex previous = null;
+		if (Files.isRegularFile(saved) && Files.isRegularFile(manifestPath)) {
+			try {
+				manifest = IndexManifest.load(manifestPath);
+				if (IndexManifest.hash(saved) != manifest.getIndexHash()) {
+					throw new IOException("Index and manifest of different builds: " + saved);
+				}
+				previous = FrozenInvertedIndex.load(saved);
+			} catch (IOException e) { // start over from nothing
+				manifest = new IndexManifest();
+				previous = null;
+			}
+		}
+
+		List<Path> files = InvertedIndexBuilder.find(input);
+		IndexManifest.Changes changes = manifest.update(files);
+		if (previous != null) {
+			Set<String> stale = new HashSet<>(changes.getRemoved()); // and whatever is read again, so nothing is counted twice
+			for (Path file : changes.getAdded()) {
+				stale.add(file.toString());
+			}
+			InvertedIndex kept = InvertedIndex.copyOf(previous);
+			kept.removeLocations(stale);
+			index.addAll(kept);
+		}
+		if (workQueue != null) {
+			ThreadSafeInvertedIndexBuilder.buildInvertedIndexFromFiles((ThreadSafeInvertedIndex) index, changes.getAdded(),
+					workQueue, chunkSize);
+		} else {
+			InvertedIndexBuilder.addFiles(changes.getAdded(), index);
+		}
+
+		Path temporary = saved.resolveSibling(saved.getFileName() + ".tmp");
+		if (previous == null || !changes.getRemoved().isEmpty() || !changes.getAdded().isEmpty()) { // else the saved index is still right
+			index.freeze().save(temporary);
+			manifest.setIndexHash(IndexManifest.hash(temporary));
+			Files.move(temporary, saved, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+		}
+		manifest.save(temporary);
+		Files.move(temporary, manifestPath, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+		return changes;
+	}
+}
@@ -0,0 +1,1128 @@
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.lang.management.ManagementFactory;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.FileVisitOption;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+import java.util.Set;
+import java.util.TreeMap;
+import java.util.TreeSet;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.concurrent.locks.LockSupport;
+import java.util.stream.Stream;
+
+import opennlp.tools.stemmer.Stemmer;
+import opennlp.tools.stemmer.snowball.SnowballStemmer;
+
+/**
+ * Small command-line harness used to compare the index implementations and
+ * build strategies on a real corpus. It is not used by {@link Driver}.
+ *
+ * Usage: java IndexBenchmark [mode] [path]
+ *
+ * @author pcarbajal
+ */
+public class IndexBenchmark {
+
+	/**
+	 * Runs the benchmark given by the first argument on the path given by the
+	 * second argument
+	 *
+	 * @param args mode and input path
+	 * @throws IOException	throws exception
+	 */
+	public static void main(String[] args) throws IOException {
+		if (args.length == 1 && args[0].equals("queues")) {
+			queues();
+			return;
+		}
+		if (args.length < 2) {
+			System.out.println("Usage: java IndexBenchmark [footprint|scaling|locks|topk|scoring|phrase|maxscore|batch|stems|tokenize|spool|ingest|chunks|incremental|watch|discovery] [path] or java IndexBenchmark queues");
+			return;
+		}
+		Path path = Path.of(args[1]);
+		switch (args[0]) {
+			case "footprint":
+				footprint(path);
+				break;
+			case "scaling":
+				scaling(path);
+				break;
+			case "locks":
+				locks(path);
+				break;
+			case "topk":
+				topK(path);
+				break;
+			case "scoring":
+				scoring(path);
+				break;
+			case "phrase":
+				phrase(path);
+				break;
+			case "maxscore":
+				maxScore(path);
+				break;
+			case "batch":
+				batch(path);
+				break;
+			case "stems":
+				stems(path);
+				break;
+			case "tokenize":
+				tokenize(path);
+				break;
+			case "spool":
+				spool(path);
+				break;
+			case "ingest":
+				ingest(path);
+				break;
+			case "chunks":
+				chunks(path);
+				break;
+			case "incremental":
+				incremental(path);
+				break;
+			case "watch":
+				watch(path);
+				break;
+			case "discovery":
+				discovery(path);
+				break;
+			default:
+				System.out.println("Unknown benchmark: " + args[0]);
+		}
+	}
+
+	/**
+	 * Builds the map-backed and the dictionary-encoded index from the same path
+	 * and compares how much heap each one retains
+	 *
+	 * @param path	input path to be read and traversed recursively
+	 * @throws IOException	throws exception
+	 */
+	public static void footprint(Path path) throws IOException {
+		InvertedIndex maps = new InvertedIndex();
+		long mapBytes = retained(maps, path);
+		long postings = postings(maps);
+		String expected = maps.toString();
+		maps = null;
+
+		CompactInvertedIndex compact = new CompactInvertedIndex();
+		long compactBytes = retained(compact, path);
+
+		System.out.printf("postings:        %,d%n", postings);
+		System.out.printf("InvertedIndex:   %,d bytes (%.1f per posting)%n", mapBytes, (double) mapBytes / postings);
+		System.out.printf("Compact:         %,d bytes (%.1f per posting)%n", compactBytes, (double) compactBytes / postings);
+		System.out.printf("  encoded lists: %,d bytes (%.2f per posting)%n", compact.encodedBytes(), (double) compact.encodedBytes() / postings);
+		System.out.printf("identical output: %b%n", expected.equals(compact.toString()));
+	}
+
+	/**
+	 * Times the multithreaded build with the global write lock, in concurrent
+	 * build mode and with per-worker local indexes merged as a tree, from 1 to 32
+	 * threads. Each build runs once to warm up and is then timed as the best of
+	 * three.
+	 *
+	 * @param path	input path to be read and traversed recursively
+	 * @throws IOException	throws exception
+	 */
+	public static void scaling(Path path) throws IOException {
+		System.out.println("threads      locked  concurrent  merge tree");
+		for (int threads = 1; threads <= 32; threads *= 2) {
+			System.out.printf("%7d %9.1fms %9.1fms %9.1fms%n", threads, build(path, threads, false, false),
+					build(path, threads, true, false), build(path, threads, false, true));
+		}
+	}
+
+	/**
+	 * Times the multithreaded build with one task per file and with files over
+	 * 1 MB split into chunks, from 1 to 8 threads, and checks that both give the
+	 * same index as a single-threaded build. Meant for a path with one or a few
+	 * large files. Each build runs once to warm up and is then timed as the best
+	 * of three.
+	 *
+	 * @param path	input path to be read and traversed recursively
+	 * @throws IOException	throws exception
+	 */
+	public static void chunks(Path path) throws IOException {
+		InvertedIndex expected = new InvertedIndex();
+		InvertedIndexBuilder.buildInvertedIndex(expected, path);
+		String output = expected.toString();
+		expected = null;
+
+		System.out.println("threads    per file     chunked  identical");
+		for (int threads = 1; threads <= 8; threads *= 2) {
+			ThreadSafeInvertedIndex[] built = new ThreadSafeInvertedIndex[1];
+			double whole = build(path, threads, Long.MAX_VALUE, built);
+			double chunked = build(path, threads, 1 << 20, built);
+			System.out.printf("%7d %9.1fms %9.1fms  %b%n", threads, whole, chunked, output.equals(built[0].toString()));
+		}
+	}
+
+	/**
+	 * Compares the current read/write lock with the optimistic, writer-preferring
+	 * one under a read-heavy load: four threads call contains on the words of
+	 * the corpus while one thread keeps merging a one-word index, for two seconds
+	 * per lock
+	 *
+	 * @param path	input path to be read and traversed recursively
+	 * @throws IOException	throws exception
+	 */
+	public static void locks(Path path) throws IOException {
+		System.out.println("lock            reads/s   writes/s   avg write wait");
+		for (boolean optimistic : new boolean[] { false, true }) {
+			ThreadSafeInvertedIndex index = new ThreadSafeInvertedIndex(false, optimistic);
+			InvertedIndexBuilder.buildInvertedIndex(index, path);
+			String[] words = index.getWords().toArray(new String[0]);
+
+			AtomicBoolean running = new AtomicBoolean(true);
+			LongAdder reads = new LongAdder();
+			Thread[] readers = new Thread[4];
+			for (int t = 0; t < readers.length; t++) {
+				int seed = t;
+				readers[t] = new Thread(() -> {
+					int i = seed;
+					while (running.get()) {
+						index.contains(words[i]);
+						i = (i + 7919) % words.length;
+						reads.increment();
+					}
+				});
+				readers[t].start();
+			}
+
+			long writes = 0;
+			long waited = 0;
+			long end = System.nanoTime() + 2_000_000_000L;
+			while (System.nanoTime() < end) {
+				InvertedIndex local = new InvertedIndex();
+				local.addEntry("benchmark", "benchmark.txt", (int) writes + 1);
+				long start = System.nanoTime();
+				index.addAll(local);
+				waited += System.nanoTime() - start;
+				writes++;
+			}
+			running.set(false);
+			for (Thread reader : readers) {
+				try {
+					reader.join();
+				} catch (InterruptedException e) {
+					Thread.currentThread().interrupt();
+				}
+			}
+			System.out.printf("%-11s %,11d %,10d %14.3fms%n", optimistic ? "optimistic" : "current",
+					reads.sum() / 2, writes / 2, waited / 1e6 / Math.max(writes, 1));
+		}
+	}
+
+	/**
+	 * Times broad partial searches (every single letter as a prefix, so most
+	 * locations match) with a full sort and with the top-10 heap, on the map
+	 * backed index built from the path. Best of five after a warm-up.
+	 *
+	 * @param path	input path to be read and traversed recursively
+	 * @throws IOException	throws exception
+	 */
+	public static void topK(Path path) throws IOException {
+		InvertedIndex index = new InvertedIndex();
+		InvertedIndexBuilder.buildInvertedIndex(index, path);
+		List<Set<String>> queries = new ArrayList<>();
+		for (char letter = 'a'; letter <= 'z'; letter++) {
+			queries.add(Set.of(String.valueOf(letter)));
+		}
+
+		long full = Long.MAX_VALUE;
+		long top = Long.MAX_VALUE;
+		for (int run = 0; run < 6; run++) {
+			long start = System.nanoTime();
+			for (Set<String> query : queries) {
+				index.search(query, false);
+			}
+			long middle = System.nanoTime();
+			for (Set<String> query : queries) {
+				index.search(query, false, 10);
+			}
+			long end = System.nanoTime();
+			if (run > 0) {
+				full = Math.min(full, middle - start);
+				top = Math.min(top, end - middle);
+			}
+		}
+		System.out.printf("full sort: %9.2fms%n", full / 1e6);
+		System.out.printf("top 10:    %9.2fms%n", top / 1e6);
+	}
+
+	/**
+	 * Times the one-time copy of the scoring statistics of the map-backed index
+	 * (paid by the first search after a change) and then broad partial searches
+	 * on it and on the dictionary-encoded index built from the same path, then the
+	 * same searches on the map-backed index with each scorer. Best of five after
+	 * a warm-up.
+	 *
+	 * @param path	input path to be read and traversed recursively
+	 * @throws IOException	throws exception
+	 */
+	public static void scoring(Path path) throws IOException {
+		InvertedIndex maps = new InvertedIndex();
+		InvertedIndexBuilder.buildInvertedIndex(maps, path);
+		CompactInvertedIndex compact = new CompactInvertedIndex();
+		InvertedIndexBuilder.buildInvertedIndex(compact, path);
+		List<Set<String>> queries = new ArrayList<>();
+		for (char letter = 'a'; letter <= 'z'; letter++) {
+			queries.add(Set.of(String.valueOf(letter)));
+		}
+
+		long start = System.nanoTime();
+		maps.getStatistics();
+		long copy = System.nanoTime() - start;
+
+		long mapSearch = Long.MAX_VALUE;
+		long compactSearch = Long.MAX_VALUE;
+		for (int run = 0; run < 6; run++) {
+			start = System.nanoTime();
+			for (Set<String> query : queries) {
+				maps.search(query, false);
+			}
+			long middle = System.nanoTime();
+			for (Set<String> query : queries) {
+				compact.search(query, false);
+			}
+			long end = System.nanoTime();
+			if (run > 0) {
+				mapSearch = Math.min(mapSearch, middle - start);
+				compactSearch = Math.min(compactSearch, end - middle);
+			}
+		}
+		System.out.printf("statistics copy: %9.2fms%n", copy / 1e6);
+		System.out.printf("InvertedIndex:   %9.2fms%n", mapSearch / 1e6);
+		System.out.printf("Compact:         %9.2fms%n", compactSearch / 1e6);
+
+		for (String name : List.of("tf", "tfidf", "bm25")) {
+			maps.setScorer(Scorer.forName(name));
+			long best = Long.MAX_VALUE;
+			for (int run = 0; run < 6; run++) {
+				start = System.nanoTime();
+				for (Set<String> query : queries) {
+					maps.search(query, false);
+				}
+				if (run > 0) {
+					best = Math.min(best, System.nanoTime() - start);
+				}
+			}
+			System.out.printf("scorer %-8s %9.2fms%n", name + ":", best / 1e6);
+		}
+	}
+
+	/**
+	 * Times phrase queries pairing the most common word with 100 rare words,
+	 * against an exact search for the common word alone, on the map-backed and
+	 * the frozen index built from the path. Since the rarest word drives a phrase
+	 * query, the phrases should cost far less than the common word on its own.
+	 * Best of five after a warm-up.
+	 *
+	 * @param path	input path to be read and traversed recursively
+	 * @throws IOException	throws exception
+	 */
+	public static void phrase(Path path) throws IOException {
+		InvertedIndex maps = new InvertedIndex();
+		InvertedIndexBuilder.buildInvertedIndex(maps, path);
+		String common = null;
+		List<String> rare = new ArrayList<>();
+		for (String word : maps.getWords()) {
+			int documents = maps.getLocations(word).size();
+			if (common == null || documents > maps.getLocations(common).size()) {
+				common = word;
+			}
+			if (documents <= 2 && rare.size() < 100) {
+				rare.add(word);
+			}
+		}
+		List<List<List<String>>> phrases = new ArrayList<>();
+		for (String word : rare) {
+			phrases.add(List.of(List.of(common, word)));
+			phrases.add(List.of(List.of(word, common)));
+		}
+		System.out.printf("common word: %s (%d locations), %d phrases%n", common, maps.getLocations(common).size(), phrases.size());
+
+		for (InvertedIndex index : List.of(maps, maps.freeze())) {
+			long single = Long.MAX_VALUE;
+			long phrased = Long.MAX_VALUE;
+			for (int run = 0; run < 6; run++) {
+				long start = System.nanoTime();
+				index.search(Set.of(common), true);
+				long middle = System.nanoTime();
+				for (List<List<String>> query : phrases) {
+					index.phraseSearch(query, Integer.MAX_VALUE);
+				}
+				long end = System.nanoTime();
+				if (run > 0) {
+					single = Math.min(single, middle - start);
+					phrased = Math.min(phrased, end - middle);
+				}
+			}
+			System.out.printf("%-21s common word: %8.3fms, per phrase: %8.3fms%n", index.getClass().getSimpleName() + ":",
+					single / 1e6, phrased / 1e6 / phrases.size());
+		}
+	}
+
+	/**
+	 * Times 100 queries of four words drawn from the 200 most common ones, scoring
+	 * every matching location and keeping the top 10, against the top-10 search
+	 * that skips locations by their score bounds (see {@link MaxScore}), with the
+	 * scorers that weigh words, on the map-backed index built from the path. The
+	 * frozen index takes the same path through other postings; timing both in one
+	 * run mostly measures the JIT recompiling for the second. Five warm-up rounds,
+	 * then the best of fifteen.
+	 *
+	 * @param path	input path to be read and traversed recursively
+	 * @throws IOException	throws exception
+	 */
+	public static void maxScore(Path path) throws IOException {
+		InvertedIndex index = new InvertedIndex();
+		InvertedIndexBuilder.buildInvertedIndex(index, path);
+		List<String> words = new ArrayList<>(index.getWords());
+		words.sort((a, b) -> Integer.compare(index.getLocations(b).size(), index.getLocations(a).size()));
+		List<String> common = words.subList(0, Math.min(200, words.size()));
+		Random random = new Random(42);
+		List<Set<String>> queries = new ArrayList<>();
+		for (int q = 0; q < 100 && !common.isEmpty(); q++) {
+			Set<String> query = new TreeSet<>();
+			while (query.size() < Math.min(4, common.size())) {
+				query.add(common.get(random.nextInt(common.size())));
+			}
+			queries.add(query);
+		}
+
+		for (String name : List.of("tfidf", "bm25")) {
+			index.setScorer(Scorer.forName(name));
+			long all = Long.MAX_VALUE;
+			long pruned = Long.MAX_VALUE;
+			for (int run = 0; run < 20; run++) {
+				long start = System.nanoTime();
+				for (Set<String> query : queries) {
+					InvertedIndex.best(index.exactMatches(query), 10);
+				}
+				long middle = System.nanoTime();
+				for (Set<String> query : queries) {
+					index.search(query, true, 10);
+				}
+				long end = System.nanoTime();
+				if (run >= 5) {
+					all = Math.min(all, middle - start);
+					pruned = Math.min(pruned, end - middle);
+				}
+			}
+			System.out.printf("%-6s every location: %8.2fms, MaxScore: %8.2fms%n", name, all / 1e6, pruned / 1e6);
+		}
+	}
+
+	/**
+	 * Times a query log of 3000 partial queries, each of one to four of the 1000
+	 * most common words and now and then a two-letter prefix, searched line by
+	 * line and as one planned batch (see {@link QueryPlanner}), on the map-backed
+	 * and the dictionary-encoded index built from the path, keeping every result
+	 * and only the top 10. Best of five after a warm-up; the batch time includes
+	 * planning.
+	 *
+	 * @param path	input path to be read and traversed recursively
+	 * @throws IOException	throws exception
+	 */
+	public static void batch(Path path) throws IOException {
+		InvertedIndex maps = new InvertedIndex();
+		InvertedIndexBuilder.buildInvertedIndex(maps, path);
+		CompactInvertedIndex compact = new CompactInvertedIndex();
+		InvertedIndexBuilder.buildInvertedIndex(compact, path);
+		List<String> words = new ArrayList<>(maps.getWords());
+		words.sort((a, b) -> Integer.compare(maps.getLocations(b).size(), maps.getLocations(a).size()));
+		List<String> common = words.subList(0, Math.min(1000, words.size()));
+		Random random = new Random(42);
+		List<Set<String>> queries = new ArrayList<>();
+		for (int q = 0; q < 3000 && !common.isEmpty(); q++) {
+			Set<String> query = new TreeSet<>();
+			for (int n = 1 + random.nextInt(4); n > 0; n--) {
+				query.add(common.get(random.nextInt(common.size())));
+			}
+			if (random.nextInt(10) < 3) {
+				String word = common.get(random.nextInt(common.size()));
+				query.add(word.substring(0, Math.min(2, word.length())));
+			}
+			queries.add(query);
+		}
+
+		for (InvertedIndex index : List.of(maps, compact)) {
+			for (int k : new int[] { Integer.MAX_VALUE, 10 }) {
+				long lines = Long.MAX_VALUE;
+				long batched = Long.MAX_VALUE;
+				QueryPlanner planner = null;
+				for (int run = 0; run < 6; run++) {
+					long start = System.nanoTime();
+					for (Set<String> query : queries) {
+						index.search(query, false, k);
+					}
+					long middle = System.nanoTime();
+					planner = index.plan(queries, false);
+					for (Set<String> query : queries) {
+						planner.search(query, k);
+					}
+					long end = System.nanoTime();
+					if (run > 0) {
+						lines = Math.min(lines, middle - start);
+						batched = Math.min(batched, end - middle);
+					}
+				}
+				System.out.printf("%-21s %-7s line by line: %9.2fms, batch: %9.2fms (%d stems, %d words read)%n",
+						index.getClass().getSimpleName() + ":", k == Integer.MAX_VALUE ? "all" : "top " + k,
+						lines / 1e6, batched / 1e6, planner.numStems(), planner.numWords());
+			}
+		}
+	}
+
+	/**
+	 * Times stemming every word of the text files under the path with a Snowball
+	 * stemmer and through a new {@link StemCache} of the default size, and
+	 * prints the hit rate of the cache. Best of five after a warm-up.
+	 *
+	 * @param path	input path to be read and traversed recursively
+	 * @throws IOException	throws exception
+	 */
+	public static void stems(Path path) throws IOException {
+		List<String> words = new ArrayList<>();
+		for (Path file : InvertedIndexBuilder.find(path)) {
+			for (String line : Files.readAllLines(file, StandardCharsets.UTF_8)) {
+				words.addAll(Arrays.asList(TextParser.parse(line)));
+			}
+		}
+
+		long plain = Long.MAX_VALUE;
+		long cached = Long.MAX_VALUE;
+		StemCache cache = null;
+		for (int run = 0; run < 6; run++) {
+			Stemmer stemmer = new SnowballStemmer(TextFileStemmer.DEFAULT);
+			long start = System.nanoTime();
+			for (String word : words) {
+				stemmer.stem(word);
+			}
+			long middle = System.nanoTime();
+			cache = new StemCache(TextFileStemmer.DEFAULT, StemCache.DEFAULT_CAPACITY);
+			for (String word : words) {
+				cache.stem(word);
+			}
+			long end = System.nanoTime();
+			if (run > 0) {
+				plain = Math.min(plain, middle - start);
+				cached = Math.min(cached, end - middle);
+			}
+		}
+		System.out.printf("words:      %,d%n", words.size());
+		System.out.printf("Snowball:   %9.2fms%n", plain / 1e6);
+		System.out.printf("StemCache:  %9.2fms (%s)%n", cached / 1e6, cache);
+	}
+
+	/**
+	 * Times breaking every line of the text files under the path into words with
+	 * the regular expressions of {@link TextParser} and with a {@link Tokenizer},
+	 * and counts the lines where the two disagree. Best of five after a warm-up.
+	 *
+	 * @param path	input path to be read and traversed recursively
+	 * @throws IOException	throws exception
+	 */
+	public static void tokenize(Path path) throws IOException {
+		List<String> lines = new ArrayList<>();
+		for (Path file : InvertedIndexBuilder.find(path)) {
+			lines.addAll(Files.readAllLines(file, StandardCharsets.UTF_8));
+		}
+
+		long regex = Long.MAX_VALUE;
+		long single = Long.MAX_VALUE;
+		long words = 0;
+		Tokenizer tokenizer = new Tokenizer();
+		for (int run = 0; run < 6; run++) {
+			words = 0;
+			long start = System.nanoTime();
+			for (String line : lines) {
+				words += TextParser.split(TextParser.clean(line)).length;
+			}
+			long middle = System.nanoTime();
+			for (String line : lines) {
+				tokenizer.reset(line);
+				while (tokenizer.next()) {
+					words--;
+				}
+			}
+			long end = System.nanoTime();
+			if (run > 0) {
+				regex = Math.min(regex, middle - start);
+				single = Math.min(single, end - middle);
+			}
+		}
+
+		int mismatches = 0;
+		for (String line : lines) {
+			List<String> tokens = new ArrayList<>();
+			tokenizer.reset(line);
+			while (tokenizer.next()) {
+				tokens.add(tokenizer.toString());
+			}
+			if (!tokens.equals(Arrays.asList(TextParser.split(TextParser.clean(line))))) {
+				mismatches++;
+			}
+		}
+		System.out.printf("lines:      %,d%n", lines.size());
+		System.out.printf("regex:      %9.2fms%n", regex / 1e6);
+		System.out.printf("Tokenizer:  %9.2fms (%.1fx)%n", single / 1e6, (double) regex / single);
+		System.out.printf("mismatches: %d (word count difference %d)%n", mismatches, words);
+	}
+
+	/**
+	 * Stores the results of 20,000 random queries of one to three index words in
+	 * memory as the query parsers do and in a {@link ResultsSpool} of a tenth
+	 * of the default weight, and compares the heap each one retains, how long
+	 * searching, storing and writing the results file takes and whether the
+	 * files are the same
+	 *
+	 * @param path	input path to be read and traversed recursively
+	 * @throws IOException	throws exception
+	 */
+	public static void spool(Path path) throws IOException {
+		InvertedIndex index = new InvertedIndex();
+		InvertedIndexBuilder.buildInvertedIndex(index, path);
+		List<String> words = new ArrayList<>(index.getWords());
+		Random random = new Random(42);
+		List<Set<String>> queries = new ArrayList<>();
+		for (int q = 0; q < 20_000 && !words.isEmpty(); q++) {
+			Set<String> query = new TreeSet<>();
+			for (int n = 1 + random.nextInt(3); n > 0; n--) {
+				query.add(words.get(random.nextInt(words.size())));
+			}
+			queries.add(query);
+		}
+
+		Path expected = Files.createTempFile("expected", ".json");
+		Path actual = Files.createTempFile("actual", ".json");
+		long[] memory = storeInMemory(index, queries, expected);
+		long[] spooled = storeInSpool(index, queries, actual);
+		System.out.printf("queries:      %,d (%,d results)%n", queries.size(), memory[2]);
+		System.out.printf("in memory:    %,d bytes retained, stored and written in %.2fms%n", memory[0], memory[1] / 1e6);
+		System.out.printf("ResultsSpool: %,d bytes retained, stored and written in %.2fms (%d runs)%n", spooled[0],
+				spooled[1] / 1e6, spooled[2]);
+		System.out.printf("identical output: %b%n", Files.mismatch(expected, actual) < 0);
+		Files.delete(expected);
+		Files.delete(actual);
+	}
+
+	/**
+	 * Searches queries and keeps every result list until they are written, as
+	 * the query parsers do without a spool
+	 *
+	 * @param index		index to be searched
+	 * @param queries	stems of each query
+	 * @param output	results file
+	 * @return retained bytes once stored, nanoseconds to search, store and write,
+	 *         and the number of results
+	 * @throws IOException	throws exception
+	 */
+	private static long[] storeInMemory(InvertedIndex index, List<Set<String>> queries, Path output) throws IOException {
+		long before = usedHeap();
+		long start = System.nanoTime();
+		Map<String, List<InvertedIndex.SearchMetrics>> results = new TreeMap<>();
+		long count = 0;
+		for (Set<String> query : queries) {
+			List<InvertedIndex.SearchMetrics> found = index.search(query, false);
+			count += found.size();
+			results.put(String.join(" ", query), found);
+		}
+		long elapsed = System.nanoTime() - start;
+		long bytes = usedHeap() - before;
+		start = System.nanoTime();
+		JsonWriter.searchResultsToJson(results, output);
+		return new long[] { bytes, elapsed + System.nanoTime() - start, count };
+	}
+
+	/**
+	 * Searches queries and streams their results through a spool of a tenth of
+	 * the default weight
+	 *
+	 * @param index		index to be searched
+	 * @param queries	stems of each query
+	 * @param output	results file
+	 * @return retained bytes once stored, nanoseconds to search, store and write,
+	 *         and the number of runs
+	 * @throws IOException	throws exception
+	 */
+	private static long[] storeInSpool(InvertedIndex index, List<Set<String>> queries, Path output) throws IOException {
+		long before = usedHeap();
+		long start = System.nanoTime();
+		try (ResultsSpool spool = new ResultsSpool(ResultsSpool.DEFAULT_WEIGHT / 10)) {
+			for (Set<String> query : queries) {
+				spool.put(String.join(" ", query), index.search(query, false));
+			}
+			long elapsed = System.nanoTime() - start;
+			long bytes = usedHeap() - before;
+			long runs = spool.numRuns();
+			start = System.nanoTime();
+			spool.writeTo(output);
+			return new long[] { bytes, elapsed + System.nanoTime() - start, runs };
+		}
+	}
+
+	/**
+	 * Times building the map-backed index from the text files under the path
+	 * with every line read into a string and with the files read as bytes (see
+	 * {@link InvertedIndexBuilder#addFile(Path, InvertedIndex)}), and how many
+	 * bytes the building thread allocates each way. Best of five after a
+	 * warm-up.
+	 *
+	 * @param path	input path to be read and traversed recursively
+	 * @throws IOException	throws exception
+	 */
+	public static void ingest(Path path) throws IOException {
+		List<Path> files = InvertedIndexBuilder.find(path);
+		com.sun.management.ThreadMXBean threads = (com.sun.management.ThreadMXBean) ManagementFactory.getThreadMXBean();
+		long lines = Long.MAX_VALUE;
+		long bytes = Long.MAX_VALUE;
+		long linesAllocated = 0;
+		long bytesAllocated = 0;
+		String expected = null;
+		String actual = null;
+		for (int run = 0; run < 6; run++) {
+			InvertedIndex index = new InvertedIndex();
+			long allocated = threads.getCurrentThreadAllocatedBytes();
+			long start = System.nanoTime();
+			for (Path file : files) {
+				try (BufferedReader reader = Files.newBufferedReader(file, StandardCharsets.UTF_8)) {
+					InvertedIndexBuilder.addLines(reader, file.toString(), index);
+				}
+			}
+			long middle = System.nanoTime();
+			linesAllocated = threads.getCurrentThreadAllocatedBytes() - allocated;
+			expected = run == 0 ? index.toString() : expected;
+
+			index = new InvertedIndex();
+			allocated = threads.getCurrentThreadAllocatedBytes();
+			long restart = System.nanoTime();
+			for (Path file : files) {
+				InvertedIndexBuilder.addFile(file, index);
+			}
+			long end = System.nanoTime();
+			bytesAllocated = threads.getCurrentThreadAllocatedBytes() - allocated;
+			actual = run == 0 ? index.toString() : actual;
+			if (run > 0) {
+				lines = Math.min(lines, middle - start);
+				bytes = Math.min(bytes, end - restart);
+			}
+		}
+		System.out.printf("files:      %,d%n", files.size());
+		System.out.printf("lines:      %9.2fms, %,d bytes allocated%n", lines / 1e6, linesAllocated);
+		System.out.printf("bytes:      %9.2fms, %,d bytes allocated%n", bytes / 1e6, bytesAllocated);
+		System.out.printf("identical output: %b%n", expected.equals(actual));
+	}
+
+	/**
+	 * Compares a full build with incremental builds of a copy of the path: with
+	 * nothing changed, and after a line was appended to one file in a hundred.
+	 * Each build is the best of three, and the incremental index is checked
+	 * against a full build of the changed copy.
+	 *
+	 * @param path	input path to be read and traversed recursively
+	 * @throws IOException	throws exception
+	 */
+	public static void incremental(Path path) throws IOException {
+		Path copy = Files.createTempDirectory("incremental");
+		Path input = copy.resolve("input");
+		Path saved = copy.resolve("index.bin");
+		List<Path> files = copyTextFiles(path, input);
+
+		long full = Long.MAX_VALUE;
+		for (int run = 0; run < 3; run++) {
+			long start = System.nanoTime();
+			InvertedIndexBuilder.buildInvertedIndex(new InvertedIndex(), input);
+			full = Math.min(full, System.nanoTime() - start);
+		}
+		IncrementalIndexBuilder.update(new InvertedIndex(), input, saved, null);
+		try {
+			Thread.sleep(TimeUnit.NANOSECONDS.toMillis(IndexManifest.RACY_NANOS) + 100); // so the saved times can be trusted
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+		}
+		long unchanged = Long.MAX_VALUE;
+		for (int run = 0; run < 3; run++) {
+			long start = System.nanoTime();
+			IncrementalIndexBuilder.update(new InvertedIndex(), input, saved, null);
+			unchanged = Math.min(unchanged, System.nanoTime() - start);
+		}
+
+		long changed = Long.MAX_VALUE;
+		IndexManifest.Changes changes = null;
+		InvertedIndex updated = null;
+		for (int run = 0; run < 3; run++) {
+			for (int i = run; i < files.size(); i += 100) {
+				Files.writeString(files.get(i), "\nincremental benchmark " + run + "\n", StandardCharsets.UTF_8, StandardOpenOption.APPEND);
+			}
+			updated = new InvertedIndex();
+			long start = System.nanoTime();
+			changes = IncrementalIndexBuilder.update(updated, input, saved, null);
+			changed = Math.min(changed, System.nanoTime() - start);
+		}
+		InvertedIndex expected = new InvertedIndex();
+		InvertedIndexBuilder.buildInvertedIndex(expected, input);
+
+		System.out.printf("files:      %,d%n", files.size());
+		System.out.printf("full:       %9.2fms%n", full / 1e6);
+		System.out.printf("unchanged:  %9.2fms%n", unchanged / 1e6);
+		System.out.printf("1%% changed: %9.2fms (%s)%n", changed / 1e6, changes);
+		System.out.printf("identical output: %b%n", expected.toString().equals(updated.toString()));
+		deleteTree(copy);
+	}
+
+	/**
+	 * Measures how long a new file takes to become searchable in watch mode, on
+	 * a copy of the path, while another thread searches without pause. Twenty
+	 * files are written one after the other, each once the last one is found.
+	 *
+	 * @param path	input path to be read and traversed recursively
+	 * @throws IOException	throws exception
+	 */
+	public static void watch(Path path) throws IOException {
+		Path copy = Files.createTempDirectory("watch");
+		copyTextFiles(path, copy);
+		WorkQueue workQueue = new WorkQueue(4);
+		ThreadSafeInvertedIndex index = new ThreadSafeInvertedIndex();
+		long[] latencies = new long[20];
+		LongAdder searches = new LongAdder();
+		long elapsed;
+		String summary;
+		try (IndexWatcher watcher = new IndexWatcher(index, copy, workQueue, IndexWatcher.DEFAULT_QUIET_MILLIS,
+				IndexWatcher.DEFAULT_MAX_DELAY_MILLIS)) {
+			ThreadSafeInvertedIndexBuilder.buildInvertedIndexFromPath(index, copy, workQueue);
+			watcher.start();
+			List<String> words = new ArrayList<>(index.getWords()).subList(0, Math.min(100, index.getWords().size()));
+			AtomicBoolean done = new AtomicBoolean();
+			Thread searcher = new Thread(() -> {
+				for (int i = 0; !done.get(); i++) {
+					index.search(Set.of(words.get(i % words.size())), false);
+					searches.increment();
+				}
+			});
+			searcher.start();
+			long begin = System.nanoTime();
+			for (int i = 0; i < latencies.length; i++) {
+				Path file = copy.resolve("watched" + i + ".txt");
+				long start = System.nanoTime();
+				Files.writeString(file, "watched words " + i, StandardCharsets.UTF_8);
+				while (index.getWordCount(file.toString()) == 0 && System.nanoTime() - start < TimeUnit.SECONDS.toNanos(10)) {
+					Thread.sleep(1);
+				}
+				latencies[i] = System.nanoTime() - start;
+			}
+			elapsed = System.nanoTime() - begin;
+			done.set(true);
+			searcher.join();
+			summary = watcher.toString();
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+			return;
+		} finally {
+			workQueue.shutdown();
+			deleteTree(copy);
+		}
+		Arrays.sort(latencies);
+		System.out.printf("visible:    %9.2fms min, %9.2fms median, %9.2fms max%n", latencies[0] / 1e6,
+				latencies[latencies.length / 2] / 1e6, latencies[latencies.length - 1] / 1e6);
+		System.out.printf("bound:      %9.2fms of batching, plus reading the batch%n", (double) IndexWatcher.DEFAULT_MAX_DELAY_MILLIS);
+		System.out.printf("searches:   %,d meanwhile (%,.0f per second)%n", searches.sum(), searches.sum() / (elapsed / 1e9));
+		System.out.printf("watcher:    %s%n", summary);
+	}
+
+	/**
+	 * Compares finding the text files with {@link Files#walk(Path, FileVisitOption...)}
+	 * and a predicate that reads the attributes of every path again, as the
+	 * builders used to, with the walk that hands each file over with the
+	 * attributes it already read: how long until the first file is known, how
+	 * long until every file is, and a build with four workers that either waits
+	 * for the whole list or submits each file as it is found. Each is the best
+	 * of five runs, or three for the builds.
+	 *
+	 * @param path	input path to be read and traversed recursively
+	 * @throws IOException	throws exception
+	 */
+	public static void discovery(Path path) throws IOException {
+		long listed = Long.MAX_VALUE;
+		long walked = Long.MAX_VALUE;
+		long first = Long.MAX_VALUE;
+		List<Path> expected = null;
+		List<Path> actual = null;
+		for (int run = 0; run < 5; run++) {
+			long start = System.nanoTime();
+			try (Stream<Path> stream = Files.walk(path, Integer.MAX_VALUE, FileVisitOption.FOLLOW_LINKS)
+					.filter(InvertedIndexBuilder.IS_TEXT_FILE)) {
+				expected = stream.toList();
+			}
+			listed = Math.min(listed, System.nanoTime() - start);
+
+			List<Path> found = new ArrayList<>();
+			long[] reached = { 0 };
+			long restart = System.nanoTime();
+			InvertedIndexBuilder.forEachTextFile(path, (file, attrs) -> {
+				if (found.isEmpty()) {
+					reached[0] = System.nanoTime();
+				}
+				found.add(file);
+			});
+			walked = Math.min(walked, System.nanoTime() - restart);
+			first = Math.min(first, reached[0] - restart);
+			actual = found;
+		}
+
+		long waiting = Long.MAX_VALUE;
+		long pipelined = Long.MAX_VALUE;
+		String waited = null;
+		String streamed = null;
+		WorkQueue workQueue = new WorkQueue(4);
+		try {
+			for (int run = 0; run < 3; run++) {
+				ThreadSafeInvertedIndex index = new ThreadSafeInvertedIndex();
+				long start = System.nanoTime();
+				ThreadSafeInvertedIndexBuilder.buildInvertedIndexFromFiles(index, InvertedIndexBuilder.find(path), workQueue,
+						ThreadSafeInvertedIndexBuilder.DEFAULT_CHUNK_SIZE);
+				waiting = Math.min(waiting, System.nanoTime() - start);
+				waited = run == 0 ? index.toString() : waited;
+
+				index = new ThreadSafeInvertedIndex();
+				start = System.nanoTime();
+				ThreadSafeInvertedIndexBuilder.buildInvertedIndexFromPath(index, path, workQueue);
+				pipelined = Math.min(pipelined, System.nanoTime() - start);
+				streamed = run == 0 ? index.toString() : streamed;
+			}
+		} finally {
+			workQueue.shutdown();
+		}
+		System.out.printf("files:      %,d%n", actual.size());
+		System.out.printf("walk+stat:  %9.2fms until the first file, %9.2fms until all%n", listed / 1e6, listed / 1e6);
+		System.out.printf("visitor:    %9.2fms until the first file, %9.2fms until all%n", first / 1e6, walked / 1e6);
+		System.out.printf("build:      %9.2fms after the list, %9.2fms pipelined%n", waiting / 1e6, pipelined / 1e6);
+		System.out.printf("same files: %b, identical output: %b%n", new TreeSet<>(expected).equals(new TreeSet<>(actual)),
+				waited.equals(streamed));
+	}
+
+	/**
+	 * Copies the text files below a path into a directory, keeping their
+	 * relative paths
+	 *
+	 * @param path		input path to be read and traversed recursively
+	 * @param target	directory the files are copied into
+	 * @return the copies
+	 * @throws IOException	throws exception
+	 */
+	private static List<Path> copyTextFiles(Path path, Path target) throws IOException {
+		List<Path> copies = new ArrayList<>();
+		for (Path file : InvertedIndexBuilder.find(path)) {
+			Path copy = target.resolve(path.relativize(file).toString());
+			Files.createDirectories(copy.getParent());
+			copies.add(Files.copy(file, copy));
+		}
+		return copies;
+	}
+
+	/**
+	 * Deletes a directory with everything below it
+	 *
+	 * @param directory	directory to be deleted
+	 * @throws IOException	throws exception
+	 */
+	private static void deleteTree(Path directory) throws IOException {
+		try (Stream<Path> walk = Files.walk(directory)) {
+			for (Path file : walk.sorted(Comparator.reverseOrder()).toList()) { // children before their directory
+				Files.delete(file);
+			}
+		}
+	}
+
+	/**
+	 * Compares the throughput of the shared work queue and the work-stealing
+	 * queue on a million tiny tasks, from 1 to 32 threads. Each queue runs once
+	 * to warm up and is then timed as the best of three. Then both run bursts of
+	 * 32 tasks that sleep 100 ms on 8 threads, submitted all at once, which take
+	 * 400 ms when the burst is spread over every worker.
+	 */
+	public static void queues() {
+		System.out.println("threads   WorkQueue    stealing  (million tasks per second)");
+		for (int threads = 1; threads <= 32; threads *= 2) {
+			System.out.printf("%7d %11.2f %11.2f%n", threads, throughput(new WorkQueue(threads)),
+					throughput(new WorkStealingQueue(threads)));
+		}
+		System.out.println();
+		System.out.println("threads   WorkQueue    stealing  (ms per burst of 32 x 100 ms sleeps)");
+		System.out.printf("%7d %11.0f %11.0f%n", 8, burst(new WorkQueue(8)), burst(new WorkStealingQueue(8)));
+	}
+
+	/**
+	 * Runs a few bursts of 32 sleeping tasks on a queue, each submitted at once
+	 * after the workers went idle, then shuts it down
+	 *
+	 * @param workQueue	queue to be measured
+	 * @return slowest burst in milliseconds
+	 */
+	private static double burst(WorkQueue workQueue) {
+		try {
+			long worst = 0;
+			for (int run = 0; run < 4; run++) {
+				LockSupport.parkNanos(50_000_000); // every worker parked or waiting again
+				long start = System.nanoTime();
+				for (int i = 0; i < 32; i++) {
+					workQueue.execute(() -> LockSupport.parkNanos(100_000_000));
+				}
+				workQueue.finish();
+				worst = Math.max(worst, System.nanoTime() - start);
+			}
+			return worst / 1e6;
+		} finally {
+			workQueue.shutdown();
+		}
+	}
+
+	/**
+	 * Runs a million tiny tasks on a queue a few times, then shuts it down
+	 *
+	 * @param workQueue	queue to be measured
+	 * @return best throughput in million tasks per second
+	 */
+	private static double throughput(WorkQueue workQueue) {
+		final int tasks = 1_000_000;
+		LongAdder done = new LongAdder();
+		try {
+			long best = Long.MAX_VALUE;
+			for (int run = 0; run < 4; run++) {
+				long start = System.nanoTime();
+				for (int i = 0; i < tasks; i++) {
+					workQueue.execute(done::increment);
+				}
+				workQueue.finish();
+				if (run > 0) {
+					best = Math.min(best, System.nanoTime() - start);
+				}
+			}
+			if (done.sum() != 4L * tasks) {
+				throw new IllegalStateException("Lost tasks: " + (4L * tasks - done.sum()));
+			}
+			return tasks / (best / 1e3);
+		} finally {
+			workQueue.shutdown();
+		}
+	}
+
+	/**
+	 * Builds a thread-safe index a few times and returns the best time
+	 *
+	 * @param path			input path to be read and traversed recursively
+	 * @param threads		number of worker threads
+	 * @param concurrent	whether to use the concurrent build mode
+	 * @param mergeTree		whether to build per-worker local indexes merged as a tree
+	 * @return best build time in milliseconds
+	 * @throws IOException	throws exception
+	 */
+	private static double build(Path path, int threads, boolean concurrent, boolean mergeTree) throws IOException {
+		WorkQueue workQueue = new WorkQueue(threads);
+		try {
+			long best = Long.MAX_VALUE;
+			for (int run = 0; run < 4; run++) {
+				ThreadSafeInvertedIndex index = new ThreadSafeInvertedIndex(concurrent);
+				long start = System.nanoTime();
+				if (mergeTree) {
+					ThreadSafeInvertedIndexBuilder.buildInvertedIndexWithMergeTree(index, path, workQueue);
+				} else {
+					ThreadSafeInvertedIndexBuilder.buildInvertedIndexFromPath(index, path, workQueue);
+				}
+				if (run > 0) {
+					best = Math.min(best, System.nanoTime() - start);
+				}
+			}
+			return best / 1e6;
+		} finally {
+			workQueue.shutdown();
+		}
+	}
+
+	/**
+	 * Builds a thread-safe index a few times, splitting large files into chunks,
+	 * and returns the best time
+	 *
+	 * @param path		input path to be read and traversed recursively
+	 * @param threads	number of worker threads
+	 * @param chunkSize	size in bytes above which a file is split
+	 * @param built		where the last index built goes
+	 * @return best build time in milliseconds
+	 * @throws IOException	throws exception
+	 */
+	private static double build(Path path, int threads, long chunkSize, ThreadSafeInvertedIndex[] built) throws IOException {
+		WorkQueue workQueue = new WorkQueue(threads);
+		try {
+			long best = Long.MAX_VALUE;
+			for (int run = 0; run < 4; run++) {
+				built[0] = null;
+				ThreadSafeInvertedIndex index = new ThreadSafeInvertedIndex();
+				long start = System.nanoTime();
+				ThreadSafeInvertedIndexBuilder.buildInvertedIndexFromPath(index, path, workQueue, chunkSize);
+				if (run > 0) {
+					best = Math.min(best, System.nanoTime() - start);
+				}
+				built[0] = index;
+			}
+			return best / 1e6;
+		} finally {
+			workQueue.shutdown();
+		}
+	}
+
+	/**
+	 * Builds an index and measures the heap it retains after a full collection
+	 *
+	 * @param index	empty index to be built
+	 * @param path	input path to be read and traversed recursively
+	 * @return number of bytes retained by the index
+	 * @throws IOException	throws exception
+	 */
+	private static long retained(InvertedIndex index, Path path) throws IOException {
+		long before = usedHeap();
+		InvertedIndexBuilder.buildInvertedIndex(index, path);
+		return usedHeap() - before;
+	}
+
+	/**
+	 * Counts the number of stored positions
+	 *
+	 * @param index	index to be counted
+	 * @return number of postings
+	 */
+	private static long postings(InvertedIndex index) {
+		long total = 0;
+		for (String location : index.getLocations()) {
+			total += index.getWordCount(location);
+		}
+		return total;
+	}
+
+	/**
+	 * Heap in use after asking for a few full collections
+	 *
+	 * @return used heap in bytes
+	 */
+	private static long usedHeap() {
+		Runtime runtime = Runtime.getRuntime();
+		for (int i = 0; i < 3; i++) {
+			System.gc();
+		}
+		return runtime.totalMemory() - runtime.freeMemory();
+	}
+}
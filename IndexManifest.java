@@ -0,0 +1,344 @@
+import java.io.BufferedReader;
+import java.io.BufferedWriter;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.TreeMap;
+import java.util.concurrent.TimeUnit;
+import java.util.zip.CRC32C;
+
+/**
+ * Record of the files a saved index was built from: the size, modification
+ * time and CRC-32C of the content of each location. Kept next to the saved
+ * index, so that the next build only reads the files that are new or changed
+ * (see {@link IncrementalIndexBuilder}).
+ *
+ * A file whose size and modification time are unchanged is taken as unchanged
+ * without reading it, unless it was modified shortly before the manifest was
+ * last checked: the file system may not have had time to move the clock, so
+ * its content is hashed again. A file whose size or time changed but whose
+ * content did not is only recorded again.
+ *
+ * The manifest also records the CRC-32C of the index file it was saved with,
+ * so that an index and a manifest of different builds, as left by a build cut
+ * short between saving the one and the other, are not taken together.
+ *
+ * The manifest is a text file with one header line and then one line per
+ * location: size, time in nanoseconds, hash and location, separated by tabs.
+ *
+ * @author pcarbajal
+ */
+public class IndexManifest {
+
+	/**
+	 * First word of the header line
+	 */
+	public static final String HEADER = "index-manifest";
+
+	/**
+	 * Version of the format
+	 */
+	public static final int VERSION = 2;
+
+	/**
+	 * Files modified this close to the last check are hashed again
+	 */
+	public static final long RACY_NANOS = TimeUnit.SECONDS.toNanos(2);
+
+	/**
+	 * Recorded files by location
+	 */
+	private final TreeMap<String, Entry> entries;
+
+	/**
+	 * When the files were last checked, in nanoseconds since the epoch
+	 */
+	private long checked;
+
+	/**
+	 * CRC-32C of the index file the manifest was saved with
+	 */
+	private long indexHash;
+
+	/**
+	 * Creates an empty manifest, for an index built from nothing
+	 */
+	public IndexManifest() {
+		this.entries = new TreeMap<>();
+		this.checked = 0;
+		this.indexHash = 0;
+	}
+
+	/**
+	 * Path of the manifest kept next to a saved index
+	 *
+	 * @param index	path of the saved index
+	 * @return path of its manifest
+	 */
+	public static Path pathFor(Path index) {
+		return index.resolveSibling(index.getFileName() + ".manifest");
+	}
+
+	/**
+	 * Reads a manifest written by {@link #save(Path)}
+	 *
+	 * @param path	path of the manifest
+	 * @return the manifest
+	 * @throws IOException	if it cannot be read or is not a manifest
+	 */
+	public static IndexManifest load(Path path) throws IOException {
+		IndexManifest manifest = new IndexManifest();
+		try (BufferedReader reader = Files.newBufferedReader(path, StandardCharsets.UTF_8)) {
+			String[] header = String.valueOf(reader.readLine()).split("\t");
+			if (header.length != 4 || !header[0].equals(HEADER) || !header[1].equals(Integer.toString(VERSION))) {
+				throw new IOException("Not an index manifest: " + path);
+			}
+			try {
+				manifest.checked = Long.parseLong(header[2]);
+				manifest.indexHash = Long.parseLong(header[3], 16);
+				String line;
+				while ((line = reader.readLine()) != null) {
+					String[] fields = line.split("\t", 4);
+					if (fields.length != 4) {
+						throw new IOException("Corrupt index manifest: " + path);
+					}
+					manifest.entries.put(fields[3], new Entry(Long.parseLong(fields[0]), Long.parseLong(fields[1]),
+							Long.parseLong(fields[2], 16)));
+				}
+			} catch (NumberFormatException e) {
+				throw new IOException("Corrupt index manifest: " + path, e);
+			}
+		}
+		return manifest;
+	}
+
+	/**
+	 * Writes the manifest
+	 *
+	 * @param path	path of the manifest
+	 * @throws IOException	throws exception
+	 */
+	public void save(Path path) throws IOException {
+		try (BufferedWriter writer = Files.newBufferedWriter(path, StandardCharsets.UTF_8)) {
+			writer.write(HEADER + "\t" + VERSION + "\t" + checked + "\t" + Long.toHexString(indexHash) + "\n");
+			for (Map.Entry<String, Entry> entry : entries.entrySet()) {
+				Entry file = entry.getValue();
+				writer.write(file.size + "\t" + file.modified + "\t" + Long.toHexString(file.hash) + "\t" + entry.getKey() + "\n");
+			}
+		}
+	}
+
+	/**
+	 * Compares the files found now with the recorded ones and records the files
+	 * found now in their place
+	 *
+	 * @param files	files the index is to be built from; one that cannot be
+	 *              read counts as gone
+	 * @return what changed since the last check
+	 */
+	public Changes update(List<Path> files) {
+		long now = TimeUnit.MILLISECONDS.toNanos(System.currentTimeMillis());
+		Changes changes = new Changes();
+		Set<String> found = new HashSet<>();
+		for (Path file : files) {
+			String location = file.toString();
+			long size;
+			long modified;
+			long hash;
+			Entry recorded = entries.get(location);
+			try {
+				size = Files.size(file);
+				modified = Files.getLastModifiedTime(file).to(TimeUnit.NANOSECONDS);
+				if (recorded != null && recorded.size == size && recorded.modified == modified
+						&& modified < checked - RACY_NANOS) {
+					found.add(location);
+					changes.unchanged++;
+					continue;
+				}
+				hash = hash(file);
+			} catch (IOException e) {
+				continue;
+			}
+			found.add(location);
+			if (recorded != null && recorded.size == size && recorded.hash == hash) { // only touched
+				changes.unchanged++;
+			} else if (recorded != null) {
+				changes.removed.add(location);
+				changes.added.add(file);
+			} else {
+				changes.added.add(file);
+			}
+			entries.put(location, new Entry(size, modified, hash));
+		}
+		for (String location : new ArrayList<>(entries.keySet())) {
+			if (!found.contains(location)) {
+				changes.removed.add(location);
+				entries.remove(location);
+				changes.deleted++;
+			}
+		}
+		checked = now;
+		return changes;
+	}
+
+	/**
+	 * Getter of the CRC-32C of the index file the manifest belongs to
+	 *
+	 * @return hash of the index file, 0 for a new manifest
+	 */
+	public long getIndexHash() {
+		return indexHash;
+	}
+
+	/**
+	 * Records the index file the manifest belongs to
+	 *
+	 * @param indexHash	CRC-32C of the index file (see {@link #hash(Path)})
+	 */
+	public void setIndexHash(long indexHash) {
+		this.indexHash = indexHash;
+	}
+
+	/**
+	 * Number of recorded files
+	 *
+	 * @return number of locations
+	 */
+	public int size() {
+		return entries.size();
+	}
+
+	/**
+	 * Computes the CRC-32C of the content of a file
+	 *
+	 * @param file	file to be read
+	 * @return hash of its bytes
+	 * @throws IOException	throws exception
+	 */
+	public static long hash(Path file) throws IOException {
+		CRC32C crc = new CRC32C();
+		ByteBuffer buffer = ByteBuffer.allocateDirect(1 << 16);
+		try (FileChannel channel = FileChannel.open(file, StandardOpenOption.READ)) {
+			while (channel.read(buffer) >= 0) {
+				buffer.flip();
+				crc.update(buffer);
+				buffer.clear();
+			}
+		}
+		return crc.getValue();
+	}
+
+	/**
+	 * What changed in the files since the last check
+	 */
+	public static class Changes {
+
+		/**
+		 * Locations whose postings are out of date: deleted or changed files
+		 */
+		private final Set<String> removed;
+
+		/**
+		 * Files to be read: new or changed files
+		 */
+		private final List<Path> added;
+
+		/**
+		 * Number of files that are the same as before
+		 */
+		private int unchanged;
+
+		/**
+		 * Number of files that are gone
+		 */
+		private int deleted;
+
+		/**
+		 * Creates an empty set of changes
+		 */
+		private Changes() {
+			this.removed = new HashSet<>();
+			this.added = new ArrayList<>();
+			this.unchanged = 0;
+			this.deleted = 0;
+		}
+
+		/**
+		 * Locations to be removed from the index
+		 *
+		 * @return deleted and changed locations
+		 */
+		public Set<String> getRemoved() {
+			return Collections.unmodifiableSet(removed);
+		}
+
+		/**
+		 * Files to be added to the index
+		 *
+		 * @return new and changed files
+		 */
+		public List<Path> getAdded() {
+			return Collections.unmodifiableList(added);
+		}
+
+		/**
+		 * Number of files that do not need to be read
+		 *
+		 * @return unchanged count
+		 */
+		public int getUnchanged() {
+			return unchanged;
+		}
+
+		@Override
+		public String toString() {
+			int changed = removed.size() - deleted;
+			return String.format("%d unchanged, %d new, %d changed, %d deleted", unchanged, added.size() - changed,
+					changed, deleted);
+		}
+	}
+
+	/**
+	 * Size, modification time and hash of a file
+	 */
+	private static class Entry {
+
+		/**
+		 * Size in bytes
+		 */
+		private final long size;
+
+		/**
+		 * Modification time in nanoseconds since the epoch
+		 */
+		private final long modified;
+
+		/**
+		 * CRC-32C of the content
+		 */
+		private final long hash;
+
+		/**
+		 * Creates an entry
+		 *
+		 * @param size		size in bytes
+		 * @param modified	modification time in nanoseconds
+		 * @param hash		CRC-32C of the content
+		 */
+		private Entry(long size, long modified, long hash) {
+			this.size = size;
+			this.modified = modified;
+			this.hash = hash;
+		}
+	}
+}
@@ -0,0 +1,83 @@
+/**
+ * Read-only view of an index by word and document ids, shared by the searches
+ * that walk postings document by document: phrase queries, boolean queries and
+ * pruned top-k searches. Each index type provides its own view (see
+ * {@link InvertedIndex#view()}).
+ *
+ * @author pcarbajal
+ */
+public interface IndexView {
+
+	/**
+	 * Number of documents
+	 *
+	 * @return number of documents
+	 */
+	int size();
+
+	/**
+	 * Average number of words per document
+	 *
+	 * @return average document length
+	 */
+	double getAverageLength();
+
+	/**
+	 * Location of a document
+	 *
+	 * @param d	document id
+	 * @return location
+	 */
+	String location(int d);
+
+	/**
+	 * Number of words in a document
+	 *
+	 * @param d	document id
+	 * @return document length
+	 */
+	int length(int d);
+
+	/**
+	 * Number of words; word ids are below it
+	 *
+	 * @return number of words
+	 */
+	int numWords();
+
+	/**
+	 * Finds a word
+	 *
+	 * @param word	to be looked up
+	 * @return word id, or negative if not found
+	 */
+	int find(String word);
+
+	/**
+	 * Finds the words starting with a prefix
+	 *
+	 * @param prefix	to be looked up
+	 * @return ids of the words starting with the prefix, in word order
+	 */
+	int[] prefixed(String prefix);
+
+	/**
+	 * Postings of a word
+	 *
+	 * @param w	word id
+	 * @return sorted postings of the word
+	 */
+	Postings postings(int w);
+
+	/**
+	 * Highest weight a word can add to the score of any document, see
+	 * {@link ScoreBounds}
+	 *
+	 * @param w			word id
+	 * @param scorer	ranking model
+	 * @return upper bound of {@link Scorer#weight(int, int, double, double)} over the postings of the word
+	 */
+	default double upperBound(int w, Scorer scorer) {
+		return ScoreBounds.compute(this, w, scorer);
+	}
+}
@@ -0,0 +1,409 @@
+import java.io.Closeable;
+import java.io.IOException;
+import java.nio.file.ClosedWatchServiceException;
+import java.nio.file.FileVisitOption;
+import java.nio.file.FileVisitResult;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.SimpleFileVisitor;
+import java.nio.file.StandardWatchEventKinds;
+import java.nio.file.WatchEvent;
+import java.nio.file.WatchKey;
+import java.nio.file.WatchService;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.EnumSet;
+import java.util.HashSet;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.Logger;
+
+/**
+ * Keeps a thread-safe index current with the directory tree it was built from
+ * while it serves searches. Every directory of the tree is registered with a
+ * {@link WatchService}, and so is every directory created later.
+ *
+ * Events are gathered into batches: a batch is closed once no event came for
+ * the quiet time, or once the maximum delay has passed since its first event,
+ * so that a file written in several steps is read once. Each new or changed
+ * text file of a batch is read into a local index by the work queue, as when
+ * building, and the batch is applied with
+ * {@link ThreadSafeInvertedIndex#replaceLocations(Set, InvertedIndex)}: the
+ * changed and deleted locations go and the local indexes come in under one
+ * write lock. A change is therefore searchable at most the maximum delay plus
+ * the time to read its batch after it happened; the latency of every batch,
+ * from its first event until it is visible, is measured.
+ *
+ * If events were lost, the whole tree is read again in one batch.
+ *
+ * @author pcarbajal
+ */
+public class IndexWatcher implements Closeable {
+
+	/**
+	 * Default time without events that closes a batch, in milliseconds
+	 */
+	public static final long DEFAULT_QUIET_MILLIS = 50;
+
+	/**
+	 * Default longest time a batch is kept open, in milliseconds
+	 */
+	public static final long DEFAULT_MAX_DELAY_MILLIS = 500;
+
+	/**
+	 * Logger
+	 */
+	private static final Logger log = LogManager.getLogger();
+
+	/**
+	 * Index kept current
+	 */
+	private final ThreadSafeInvertedIndex index;
+
+	/**
+	 * Root of the watched tree
+	 */
+	private final Path root;
+
+	/**
+	 * Workers the changed files are read by
+	 */
+	private final WorkQueue workQueue;
+
+	/**
+	 * Service the directories are registered with
+	 */
+	private final WatchService watchService;
+
+	/**
+	 * Registered directories by their key
+	 */
+	private final Map<WatchKey, Path> directories;
+
+	/**
+	 * Time without events that closes a batch
+	 */
+	private final long quietNanos;
+
+	/**
+	 * Longest time a batch is kept open
+	 */
+	private final long maxDelayNanos;
+
+	/**
+	 * Thread gathering and applying the batches
+	 */
+	private final Thread thread;
+
+	/**
+	 * Number of batches applied
+	 */
+	private volatile long batches;
+
+	/**
+	 * Number of changed paths applied
+	 */
+	private volatile long changes;
+
+	/**
+	 * Latency of the last batch, in nanoseconds
+	 */
+	private volatile long lastLatency;
+
+	/**
+	 * Highest latency of a batch, in nanoseconds
+	 */
+	private volatile long maxLatency;
+
+	/**
+	 * Registers every directory of a tree. Events are kept from then on, but are
+	 * only applied once the watcher is started, so it can be created before the
+	 * index is built without missing a change.
+	 *
+	 * @param index			index built from the tree
+	 * @param root			root of the tree
+	 * @param workQueue		workers to read changed files with
+	 * @param quietMillis	time without events that closes a batch
+	 * @param maxDelayMillis	longest time a batch is kept open
+	 * @throws IOException	if the tree cannot be registered
+	 */
+	public IndexWatcher(ThreadSafeInvertedIndex index, Path root, WorkQueue workQueue, long quietMillis,
+			long maxDelayMillis) throws IOException {
+		this.index = index;
+		this.root = root;
+		this.workQueue = workQueue;
+		this.watchService = root.getFileSystem().newWatchService();
+		this.directories = new ConcurrentHashMap<>();
+		this.quietNanos = TimeUnit.MILLISECONDS.toNanos(quietMillis);
+		this.maxDelayNanos = TimeUnit.MILLISECONDS.toNanos(maxDelayMillis);
+		this.thread = new Thread(this::watch, "index-watcher");
+		this.thread.setDaemon(true);
+		this.batches = 0;
+		this.changes = 0;
+		this.lastLatency = 0;
+		this.maxLatency = 0;
+		try {
+			register(root);
+		} catch (IOException e) {
+			watchService.close();
+			throw e;
+		}
+	}
+
+	/**
+	 * Starts applying changes, in a thread of its own
+	 */
+	public void start() {
+		thread.start();
+	}
+
+	/**
+	 * Stops watching, after the batch being applied if any
+	 *
+	 * @throws IOException	throws exception
+	 */
+	@Override
+	public void close() throws IOException {
+		watchService.close();
+		try {
+			thread.join();
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+		}
+	}
+
+	/**
+	 * Registers a directory and every directory below it
+	 *
+	 * @param start	directory to be registered
+	 * @throws IOException	throws exception
+	 */
+	private void register(Path start) throws IOException {
+		Files.walkFileTree(start, EnumSet.of(FileVisitOption.FOLLOW_LINKS), Integer.MAX_VALUE, new SimpleFileVisitor<>() {
+			@Override
+			public FileVisitResult preVisitDirectory(Path directory, BasicFileAttributes attrs) throws IOException {
+				WatchKey key = directory.register(watchService, StandardWatchEventKinds.ENTRY_CREATE,
+						StandardWatchEventKinds.ENTRY_DELETE, StandardWatchEventKinds.ENTRY_MODIFY);
+				directories.put(key, directory);
+				return FileVisitResult.CONTINUE;
+			}
+
+			@Override
+			public FileVisitResult visitFileFailed(Path file, IOException e) {
+				return FileVisitResult.CONTINUE;
+			}
+		});
+	}
+
+	/**
+	 * Gathers events into batches and applies them until closed
+	 */
+	private void watch() {
+		try {
+			while (true) {
+				WatchKey key = watchService.take();
+				long first = System.nanoTime();
+				Set<Path> changed = new LinkedHashSet<>();
+				boolean overflow = gather(key, changed);
+				while (true) {
+					long wait = Math.min(quietNanos, first + maxDelayNanos - System.nanoTime());
+					if (wait <= 0 || (key = watchService.poll(wait, TimeUnit.NANOSECONDS)) == null) {
+						break;
+					}
+					overflow |= gather(key, changed);
+				}
+				apply(changed, overflow, first);
+			}
+		} catch (InterruptedException | ClosedWatchServiceException e) { // closed
+		}
+	}
+
+	/**
+	 * Adds the paths of the events of a key to a batch
+	 *
+	 * @param key		signalled key
+	 * @param changed	paths of the batch
+	 * @return true if events were lost
+	 */
+	private boolean gather(WatchKey key, Set<Path> changed) {
+		Path directory = directories.get(key);
+		boolean overflow = false;
+		for (WatchEvent<?> event : key.pollEvents()) {
+			if (event.kind() == StandardWatchEventKinds.OVERFLOW || directory == null) {
+				overflow = true;
+				continue;
+			}
+			Path path = directory.resolve((Path) event.context());
+			if (event.kind() == StandardWatchEventKinds.ENTRY_MODIFY && Files.isDirectory(path)) {
+				continue; // its own files are watched
+			}
+			changed.add(path);
+		}
+		if (!key.reset()) { // the directory is gone
+			directories.remove(key);
+		}
+		return overflow;
+	}
+
+	/**
+	 * Reads the new and changed files of a batch and applies it to the index
+	 *
+	 * @param changed	paths that were created, changed or deleted
+	 * @param overflow	whether events were lost, so the whole tree is read
+	 * @param first		time of the first event of the batch
+	 * @throws InterruptedException	if stopped while the files are read
+	 */
+	private void apply(Set<Path> changed, boolean overflow, long first) throws InterruptedException {
+		Set<String> removed = new HashSet<>();
+		Set<String> gone = new HashSet<>(); // deleted or directories, with files below them maybe
+		Set<Path> files = new LinkedHashSet<>();
+		if (overflow) {
+			changed = Collections.singleton(root);
+		}
+		String separator = root.getFileSystem().getSeparator();
+		for (Path path : changed) {
+			String location = path.toString();
+			removed.add(location);
+			if (!Files.isRegularFile(path)) {
+				gone.add(location);
+			}
+			try {
+				if (Files.isDirectory(path)) {
+					register(path);
+					files.addAll(ThreadSafeInvertedIndexBuilder.find(path));
+				} else if (ThreadSafeInvertedIndexBuilder.IS_TEXT_FILE.test(path)) {
+					files.add(path);
+				}
+			} catch (IOException e) { // gone again meanwhile
+				log.debug("unable to watch " + path);
+			}
+		}
+		Set<String> locations = index.getLocations(); // a copy, the index may change meanwhile
+		if (!gone.isEmpty()) {
+			for (String indexed : locations) { // every file below a deleted or replaced directory
+				for (int i = indexed.lastIndexOf(separator); i > 0; i = indexed.lastIndexOf(separator, i - 1)) {
+					if (gone.contains(indexed.substring(0, i))) {
+						removed.add(indexed);
+						break;
+					}
+				}
+			}
+		}
+		removed.retainAll(locations);
+
+		List<InvertedIndex> locals = Collections.synchronizedList(new ArrayList<>());
+		CountDownLatch read = new CountDownLatch(files.size());
+		for (Path file : files) {
+			workQueue.execute(new ReadTask(file, locals, read));
+		}
+		read.await();
+		InvertedIndex batch = new InvertedIndex();
+		for (InvertedIndex local : locals) {
+			batch.addAll(local);
+		}
+		index.replaceLocations(removed, batch);
+
+		long latency = System.nanoTime() - first;
+		lastLatency = latency;
+		maxLatency = Math.max(maxLatency, latency);
+		changes += changed.size();
+		batches++;
+		log.info("applied {} changed paths ({} files read) in {} ms", changed.size(), files.size(),
+				TimeUnit.NANOSECONDS.toMillis(latency));
+	}
+
+	/**
+	 * Number of batches applied so far
+	 *
+	 * @return batch count
+	 */
+	public long getBatches() {
+		return batches;
+	}
+
+	/**
+	 * Number of changed paths applied so far
+	 *
+	 * @return change count
+	 */
+	public long getChanges() {
+		return changes;
+	}
+
+	/**
+	 * Time from the first event of the last batch until it was searchable
+	 *
+	 * @return latency in nanoseconds, 0 before any batch
+	 */
+	public long getLastLatency() {
+		return lastLatency;
+	}
+
+	/**
+	 * Highest time from the first event of a batch until it was searchable
+	 *
+	 * @return latency in nanoseconds, 0 before any batch
+	 */
+	public long getMaxLatency() {
+		return maxLatency;
+	}
+
+	@Override
+	public String toString() {
+		return String.format("%d changes in %d batches, %.1f ms last latency, %.1f ms max latency", getChanges(),
+				getBatches(), getLastLatency() / 1e6, getMaxLatency() / 1e6);
+	}
+
+	/**
+	 * Reads a changed file into a local index
+	 */
+	private static class ReadTask implements Runnable {
+
+		/**
+		 * File to be read
+		 */
+		private final Path file;
+
+		/**
+		 * Local indexes of the batch
+		 */
+		private final List<InvertedIndex> locals;
+
+		/**
+		 * Counted down once the file is read
+		 */
+		private final CountDownLatch read;
+
+		/**
+		 * @param file		file to be read
+		 * @param locals	local indexes of the batch, synchronized
+		 * @param read		counted down once the file is read
+		 */
+		private ReadTask(Path file, List<InvertedIndex> locals, CountDownLatch read) {
+			this.file = file;
+			this.locals = locals;
+			this.read = read;
+		}
+
+		@Override
+		public void run() {
+			try {
+				InvertedIndex local = new InvertedIndex();
+				InvertedIndexBuilder.addFile(file, local);
+				locals.add(local);
+			} catch (IOException e) { // deleted or rewritten meanwhile, a later event brings it back
+				log.debug("unable to index " + file);
+			} finally {
+				read.countDown();
+			}
+		}
+	}
+}
@@ -1,14 +1,27 @@
 import java.io.IOException;
 import java.nio.file.Path;
+import java.util.AbstractMap;
+import java.util.AbstractMap.SimpleImmutableEntry;
+import java.util.AbstractSet;
 import java.util.ArrayList;
+import java.util.Collection;
 import java.util.Collections;
-import java.util.HashMap;
+import java.util.Comparator;
+import java.util.Iterator;
 import java.util.Map;
+import java.util.NavigableMap;
+import java.util.NavigableSet;
+import java.util.NoSuchElementException;
+import java.util.PriorityQueue;
 import java.util.Set;
 import java.util.SortedMap;
 import java.util.TreeMap;
 import java.util.TreeSet;
 import java.util.List;
+import java.util.concurrent.ConcurrentSkipListMap;
+import java.util.concurrent.ConcurrentSkipListSet;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.BinaryOperator;
 
 /**
  * Class that defines the structure of my inverted index
@@ -24,13 +37,35 @@ public class InvertedIndex {
 	/**
 	 * Declaring type of inverted index
 	 */
-	private final TreeMap<String, TreeMap<String, TreeSet<Integer>>> invertedIndex;
+	private final NavigableMap<String, NavigableMap<String, NavigableSet<Integer>>> invertedIndex;
 
 	/**
 	 * Declaring wordCounts map
 	 */
-	private final TreeMap<String, Integer> wordCounts;
+	private final NavigableMap<String, Integer> wordCounts;
+
+	/**
+	 * Whether the maps are concurrent skip lists instead of tree maps
+	 */
+	private final boolean concurrent;
 	
+	/**
+	 * Number of changes made to the index, so that cached search results can
+	 * tell they are out of date
+	 */
+	private final LongAdder modifications;
+
+	/**
+	 * Flat statistics used for scoring, copied out of the maps when first needed
+	 * after a change
+	 */
+	private volatile DocumentStatistics statistics;
+
+	/**
+	 * Ranking model used to score search results
+	 */
+	private volatile Scorer scorer;
+
 	/**
 	 * Declaring queryParser variable
 	 */
@@ -40,8 +75,23 @@ public class InvertedIndex {
 	 * Instantiating my inverted index
 	 */
 	public InvertedIndex() {
-		invertedIndex = new TreeMap<>();
-		wordCounts = new TreeMap<>();
+		this(false);
+	}
+
+	/**
+	 * Instantiating my inverted index, optionally backed by concurrent skip lists.
+	 * Concurrent maps let several threads add and merge different words at the
+	 * same time without any lock, at the cost of more memory per entry.
+	 * 
+	 * @param concurrent whether to use concurrent skip lists instead of tree maps
+	 */
+	protected InvertedIndex(boolean concurrent) {
+		this.concurrent = concurrent;
+		invertedIndex = concurrent ? new ConcurrentSkipListMap<>() : new TreeMap<>();
+		wordCounts = concurrent ? new ConcurrentSkipListMap<>() : new TreeMap<>();
+		modifications = new LongAdder();
+		statistics = null;
+		scorer = new TermFrequencyScorer();
 		queryParser = new QueryParser(this);
 	}
 
@@ -53,21 +103,77 @@ public class InvertedIndex {
 	 * @param position (index) in which the file was found
 	 */
 	public void addEntry(String word, String location, int position) {
-		invertedIndex.putIfAbsent(word, new TreeMap<String, TreeSet<Integer>>());
-		invertedIndex.get(word).putIfAbsent(location, new TreeSet<Integer>());
-		boolean result = invertedIndex.get(word).get(location).add(position);
+		boolean result = invertedIndex.computeIfAbsent(word, w -> newLocations())
+				.computeIfAbsent(location, l -> newPositions())
+				.add(position);
 		if (result) {
 			incrementWordCount(location);
+			modified();
 		}
 	}
 
+	/**
+	 * Records that the index has been changed
+	 */
+	protected void modified() {
+		modifications.increment();
+	}
+
+	/**
+	 * Getter of the ranking model used to score search results
+	 * 
+	 * @return the scorer, {@link TermFrequencyScorer} unless changed
+	 */
+	public Scorer getScorer() {
+		return scorer;
+	}
+
+	/**
+	 * Changes the ranking model. Counts as a change of the index, so that cached
+	 * search results are dropped.
+	 * 
+	 * @param scorer	the new scorer
+	 */
+	public void setScorer(Scorer scorer) {
+		this.scorer = scorer;
+		modified();
+	}
+
+	/**
+	 * Getter of the number of changes made to the index so far. The number only
+	 * grows, so a different value means the index has been changed.
+	 * 
+	 * @return modification count
+	 */
+	public long getModifications() {
+		return modifications.sum();
+	}
+
 	/**
 	 * Increments word count
 	 *
 	 * @param location of of which is counted
 	 */
 	protected void incrementWordCount(String location) {
-		wordCounts.put(location, wordCounts.getOrDefault(location, 0) + 1);
+		wordCounts.merge(location, 1, Integer::sum);
+	}
+
+	/**
+	 * Creates the map of locations of a new word
+	 * 
+	 * @return empty map of the same kind as the index
+	 */
+	private NavigableMap<String, NavigableSet<Integer>> newLocations() {
+		return concurrent ? new ConcurrentSkipListMap<>() : new TreeMap<>();
+	}
+
+	/**
+	 * Creates the set of positions of a new word and location
+	 * 
+	 * @return empty set of the same kind as the index
+	 */
+	private NavigableSet<Integer> newPositions() {
+		return concurrent ? new ConcurrentSkipListSet<>() : new TreeSet<>();
 	}
 
 	/**
@@ -111,7 +217,103 @@ public class InvertedIndex {
 	public Set<String> getLocations() {
 		return Collections.unmodifiableSet(wordCounts.keySet());
 	}
+
+	/**
+	 * Getter of all words in the inverted index, in sorted order
+	 * 
+	 * @return unmodifiable collection to ensure data integrity
+	 */
+	public Set<String> getWords() {
+		return Collections.unmodifiableSet(invertedIndex.keySet());
+	}
+
+	/**
+	 * Getter of the locations a word was found in, in sorted order
+	 * 
+	 * @param word to be looked up
+	 * @return unmodifiable collection, empty if the word is not in the index
+	 */
+	public Set<String> getLocations(String word) {
+		if (!contains(word)) {
+			return Collections.emptySet();
+		}
+		return Collections.unmodifiableSet(invertedIndex.get(word).keySet());
+	}
+
+	/**
+	 * Getter of the positions a word was found at in a location, in sorted order
+	 * 
+	 * @param word     to be looked up
+	 * @param location of word in a file
+	 * @return unmodifiable collection, empty if the word is not in that location
+	 */
+	public Set<Integer> getPositions(String word, String location) {
+		if (!contains(word, location)) {
+			return Collections.emptySet();
+		}
+		return Collections.unmodifiableSet(invertedIndex.get(word).get(location));
+	}
+
+	/**
+	 * Getter of every location a word was found in mapped to its positions, in
+	 * sorted order
+	 * 
+	 * @param word to be looked up
+	 * @return unmodifiable map, empty if the word is not in the index
+	 */
+	public Map<String, ? extends Collection<Integer>> getPostings(String word) {
+		if (!contains(word)) {
+			return Collections.emptyMap();
+		}
+		return Collections.unmodifiableMap(invertedIndex.get(word));
+	}
+
+	/**
+	 * Getter of the number of words stored for a location
+	 * 
+	 * @param location of which is counted
+	 * @return word count, 0 if the location is not in the index
+	 */
+	public int getWordCount(String location) {
+		return wordCounts.getOrDefault(location, 0);
+	}
 	
+	/**
+	 * Copies any index, such as a frozen or compact one, into a new map-backed
+	 * index that can be changed. The positions are copied a word and location
+	 * at a time rather than one entry at a time.
+	 * 
+	 * @param index	index to be copied
+	 * @return map-backed copy
+	 */
+	public static InvertedIndex copyOf(InvertedIndex index) {
+		InvertedIndex copy = new InvertedIndex();
+		for (String word : index.getWords()) {
+			NavigableMap<String, NavigableSet<Integer>> locations = copy.newLocations();
+			for (Map.Entry<String, ? extends Collection<Integer>> location : index.getPostings(word).entrySet()) {
+				NavigableSet<Integer> positions = copy.newPositions();
+				positions.addAll(location.getValue());
+				locations.put(location.getKey(), positions);
+			}
+			copy.invertedIndex.put(word, locations);
+		}
+		for (String location : index.getLocations()) {
+			copy.wordCounts.put(location, index.getWordCount(location));
+		}
+		copy.modified();
+		return copy;
+	}
+
+	/**
+	 * Creates an immutable, array-backed snapshot of this index for query
+	 * serving. Later changes to this index are not seen by the snapshot.
+	 * 
+	 * @return frozen copy of this index
+	 */
+	public FrozenInvertedIndex freeze() {
+		return new FrozenInvertedIndex(this);
+	}
+
 	/**
 	 * Writes the inverted index as pretty JSON to the specified file path
 	 *
@@ -164,6 +366,71 @@ public class InvertedIndex {
 		return exact ? exactSearch(queries) : partialSearch(queries);
 	}
 	
+	/**
+	 * Top-k search: only the k best results are kept, in a bounded heap, instead
+	 * of sorting every location that matched. With a scorer that weighs words,
+	 * locations that cannot reach the k best are skipped without being scored
+	 * (see {@link MaxScore}); plain term frequency gives common and rare words
+	 * alike bounds, so too little would be skipped to pay for it.
+	 * 
+	 * @param queries 	query to be processed
+	 * @param exact 	whether to search exactly or by prefix
+	 * @param k			maximum number of results
+	 * @return the first k results of {@link #search(Set, boolean)}, in the same order
+	 */
+	public List<SearchMetrics> search(Set<String> queries, boolean exact, int k) {
+		IndexView view = view();
+		Scorer scorer = getScorer();
+		if (k >= view.size() || !scorer.weighted()) { // every location is kept anyway, or little is skipped
+			return best(exact ? exactMatches(queries) : partialMatches(queries), k);
+		}
+		return MaxScore.search(this, view, scorer, queries, exact, k);
+	}
+
+	/**
+	 * Plans a batch of plain queries, so that each distinct stem is expanded and
+	 * each index word read only once for the whole batch (see {@link QueryPlanner})
+	 * 
+	 * @param queries	stems of each query
+	 * @param exact		whether to search exactly or by prefix
+	 * @return plan to search the queries with
+	 */
+	public QueryPlanner plan(Collection<Set<String>> queries, boolean exact) {
+		return new QueryPlanner(this, view(), getScorer(), queries, exact);
+	}
+
+	/**
+	 * Phrase search: only locations where the words of every phrase appear one
+	 * right after the other match, and the count of a location is the number of
+	 * times the phrases were found there. Phrase words are matched exactly.
+	 * 
+	 * @param phrases	stems of each phrase, in phrase order
+	 * @param k			maximum number of results
+	 * @return the k best results, sorted like {@link #search(Set, boolean)}
+	 */
+	public List<SearchMetrics> phraseSearch(List<List<String>> phrases, int k) {
+		return best(phraseMatches(phrases), k);
+	}
+
+	/**
+	 * Boolean search: locations are matched by the AND, OR and NOT operators of
+	 * the query, and the count of a location adds up the query words that were
+	 * found there and not excluded. A query that only ORs words together is a
+	 * plain query, and is searched as one.
+	 * 
+	 * @param query	parsed query
+	 * @param exact	whether to search exactly or by prefix
+	 * @param k		maximum number of results
+	 * @return the k best results, sorted like {@link #search(Set, boolean)}
+	 */
+	public List<SearchMetrics> booleanSearch(BooleanQuery query, boolean exact, int k) {
+		Set<String> words = query.disjunction();
+		if (words != null) {
+			return search(words, exact, k);
+		}
+		return best(booleanMatches(query, exact), k);
+	}
+
 	/**
 	 * exact search
 	 * 
@@ -172,66 +439,276 @@ public class InvertedIndex {
 	 * 	results sorted by SearchMetrics score
 	 */
 	public List<SearchMetrics> exactSearch(Set<String> query) {
-		List<SearchMetrics> results = new ArrayList<>(); // (we need this to sort and store mutable objects)
-		Map<String, SearchMetrics> lookup = new HashMap<>(); //lookup search results by location
-		
-		for (String word : query) {
-			if (contains(word)) {
-				searchHelper(lookup, results, word);
-			}
-		}
+		List<SearchMetrics> results = exactMatches(query);
 		Collections.sort(results);
 		return results;
 	}
-	
-	
+
 	/**
 	 * Partial search of query and returns a list of relevant SearchMetrics
 	 * 
 	 * @param query (set of words in a query line)
 	 * @return list of search results, containing a result for each page (location) where a query word was found
 	 * 	results sorted by SearchMetrics score
-	 * Inner class in compliance with Professor Engle's code review
+	 */
+	public List<SearchMetrics> partialSearch(Set<String> query) {
+		List<SearchMetrics> results = partialMatches(query);
+		Collections.sort(results);
+		return results;
+	}
+	
+	/**
+	 * Unsorted exact search
 	 * 
+	 * @param query (set of words in a query line)
+	 * @return list of search results, one for each location where a query word was found
 	 */
+	protected List<SearchMetrics> exactMatches(Set<String> query) {
+		DocumentStatistics statistics = getStatistics();
+		Accumulator accumulator = new Accumulator(statistics);
+		for (String word : query) {
+			int w = statistics.find(word);
+			if (w >= 0) {
+				accumulator.add(w);
+			}
+		}
+		return accumulator.results();
+	}
+
 	/**
-	 * Partial search of query and returns a list of relevant SearchMetrics
+	 * Unsorted partial search
 	 * 
 	 * @param query (set of words in a query line)
-	 * @return list of search results, containing a result for each page (location) where a query word was found
-	 * 	results sorted by SearchMetrics score
+	 * @return list of search results, one for each location where a word starting with a query word was found
 	 */
-	public List<SearchMetrics> partialSearch(Set<String> query) {
-		List<SearchMetrics> results = new ArrayList<>(); // (we need this to sort and store mutable objects)
-		Map<String, SearchMetrics> lookup = new HashMap<>(); //lookup search results by location
-		
+	protected List<SearchMetrics> partialMatches(Set<String> query) {
+		DocumentStatistics statistics = getStatistics();
+		Accumulator accumulator = new Accumulator(statistics);
 		for (String word : query) {
-			SortedMap<String, TreeMap<String, TreeSet<Integer>>> partialMatchingInvertedIndex = invertedIndex.tailMap(word);
-			for (String partialMatchingWord : partialMatchingInvertedIndex.keySet()) {
-				if (!partialMatchingWord.startsWith(word)) break;
-				searchHelper(lookup, results, partialMatchingWord);
+			for (int w = statistics.first(word); w < statistics.numWords() && statistics.word(w).startsWith(word); w++) {
+				accumulator.add(w);
 			}
-		}	
-		Collections.sort(results);
+		}
+		return accumulator.results();
+	}
+
+	/**
+	 * Unsorted phrase search
+	 * 
+	 * @param phrases	stems of each phrase, in phrase order
+	 * @return list of search results, one for each location where every phrase was found, in location order
+	 */
+	protected List<SearchMetrics> phraseMatches(List<List<String>> phrases) {
+		IndexView view = view();
+		List<Postings[]> postings = new ArrayList<>();
+		for (List<String> phrase : phrases) {
+			Postings[] words = new Postings[phrase.size()];
+			for (int i = 0; i < words.length; i++) {
+				int w = view.find(phrase.get(i));
+				words[i] = w >= 0 ? view.postings(w) : null;
+			}
+			postings.add(words);
+		}
+
+		Map<Integer, Integer> found = PhraseMatcher.matchAll(postings);
+		Scorer scorer = getScorer();
+		double idf = scorer.idf(found.size(), view.size());
+		List<SearchMetrics> results = new ArrayList<>(found.size());
+		for (Map.Entry<Integer, Integer> entry : found.entrySet()) {
+			int d = entry.getKey();
+			SearchMetrics metrics = new SearchMetrics(view.location(d), scorer);
+			int length = view.length(d);
+			metrics.update(entry.getValue(), length, scorer.weight(entry.getValue(), length, idf, view.getAverageLength()));
+			results.add(metrics);
+		}
+		results.sort(Comparator.comparing(SearchMetrics::getWhere)); // document ids need not be in location order
 		return results;
 	}
-	
+
+	/**
+	 * Unsorted boolean search
+	 * 
+	 * @param query	parsed query
+	 * @param exact	whether to search exactly or by prefix
+	 * @return list of search results, one for each location the query matched, in location order
+	 */
+	protected List<SearchMetrics> booleanMatches(BooleanQuery query, boolean exact) {
+		IndexView view = view();
+		Scorer scorer = getScorer();
+		BooleanQuery.Cursor cursor = query.cursor(view, exact, scorer);
+		BooleanQuery.Match match = new BooleanQuery.Match();
+		List<SearchMetrics> results = new ArrayList<>();
+		for (int d = cursor.advance(0); d != BooleanQuery.END; d = cursor.advance(d + 1)) {
+			int length = view.length(d);
+			match.reset(length);
+			cursor.collect(match);
+			SearchMetrics metrics = new SearchMetrics(view.location(d), scorer);
+			metrics.update(match.getCount(), length, match.getWeights());
+			results.add(metrics);
+		}
+		results.sort(Comparator.comparing(SearchMetrics::getWhere));
+		return results;
+	}
+
+	/**
+	 * View of the index by word and document ids, for the searches that walk
+	 * postings document by document
+	 * 
+	 * @return view of the index as it is now
+	 */
+	protected IndexView view() {
+		return getStatistics();
+	}
+
 	/**
-	 * Helper method to streamline the adding and updating of SearchMetrics
+	 * Getter of the flat statistics used for scoring, copied out of the maps the
+	 * first time they are needed after a change
 	 * 
-	 * @param lookup 	Object that holds query and SearchMetric object
-	 * @param results	list of SearchMetrics objects with data member metrics
-	 * @param word used in the outer map as declared by the inverted index
+	 * @return statistics of the index as it is now
 	 */
-	protected void searchHelper(Map<String, SearchMetrics> lookup, List<SearchMetrics> results,
-			String word) {
-		for (String location : invertedIndex.get(word).keySet()) {
-			if (!lookup.containsKey(location)) {
-				SearchMetrics metrics = new SearchMetrics(location);
-				lookup.put(location, metrics);
+	protected DocumentStatistics getStatistics() {
+		DocumentStatistics current = statistics;
+		long modified = getModifications();
+		if (current == null || current.getModifications() != modified) {
+			synchronized (invertedIndex) {
+				current = statistics;
+				modified = getModifications();
+				if (current == null || current.getModifications() != modified) {
+					current = new DocumentStatistics(invertedIndex, wordCounts, modified);
+					statistics = current;
+				}
+			}
+		}
+		return current;
+	}
+
+	/**
+	 * Picks the k best search results with a bounded heap whose head is the worst
+	 * result kept so far. Results that compare equal keep their order in the
+	 * list, as they would in a (stable) full sort.
+	 * 
+	 * @param results	unsorted search results
+	 * @param k			maximum number of results
+	 * @return sorted list of at most k results
+	 */
+	protected static List<SearchMetrics> best(List<SearchMetrics> results, int k) {
+		if (k >= results.size()) {
+			Collections.sort(results);
+			return results;
+		}
+		Comparator<Integer> order = (a, b) -> {
+			int compare = results.get(a).compareTo(results.get(b));
+			return compare != 0 ? compare : Integer.compare(a, b);
+		};
+		PriorityQueue<Integer> heap = new PriorityQueue<>(k + 1, order.reversed());
+		for (int i = 0; i < results.size() && k > 0; i++) {
+			if (heap.size() < k) {
+				heap.add(i);
+			} else if (order.compare(i, heap.peek()) < 0) {
+				heap.poll();
+				heap.add(i);
+			}
+		}
+		List<Integer> kept = new ArrayList<>(heap);
+		kept.sort(order);
+		List<SearchMetrics> best = new ArrayList<>(kept.size());
+		for (int i : kept) {
+			best.add(results.get(i));
+		}
+		return best;
+	}
+	
+	/**
+	 * Adds up the matches of a query per document in a plain array, and makes
+	 * search results only for the documents that were hit, in the order they
+	 * were first hit
+	 */
+	private class Accumulator {
+
+		/**
+		 * Statistics being searched
+		 */
+		private final DocumentStatistics statistics;
+
+		/**
+		 * Matches found so far in each document
+		 */
+		private final int[] counts;
+
+		/**
+		 * Summed weights of the words matched in each document, null if the
+		 * scorer does not use them
+		 */
+		private final double[] weights;
+
+		/**
+		 * Ranking model of this search
+		 */
+		private final Scorer scorer;
+
+		/**
+		 * Documents hit so far, in the order they were first hit
+		 */
+		private final int[] hits;
+
+		/**
+		 * Number of documents hit so far
+		 */
+		private int size;
+
+		/**
+		 * Initializes an empty accumulator
+		 * 
+		 * @param statistics	statistics to be searched
+		 */
+		private Accumulator(DocumentStatistics statistics) {
+			this.statistics = statistics;
+			this.scorer = getScorer();
+			this.counts = new int[statistics.size()];
+			this.weights = scorer.weighted() ? new double[statistics.size()] : null;
+			this.hits = new int[statistics.size()];
+			this.size = 0;
+		}
+
+		/**
+		 * Adds the matches of one word of the index
+		 * 
+		 * @param w	word id
+		 */
+		private void add(int w) {
+			int[] documents = statistics.documents(w);
+			int[] offsets = statistics.offsets(w);
+			for (int i = 0; i < documents.length; i++) {
+				int d = documents[i];
+				if (counts[d] == 0) {
+					hits[size++] = d;
+				}
+				counts[d] += offsets[i + 1] - offsets[i];
+			}
+			if (weights != null) {
+				double idf = scorer.idf(documents.length, statistics.size());
+				double averageLength = statistics.getAverageLength();
+				for (int i = 0; i < documents.length; i++) {
+					int d = documents[i];
+					weights[d] += scorer.weight(offsets[i + 1] - offsets[i], statistics.length(d), idf, averageLength);
+				}
+			}
+		}
+
+		/**
+		 * Makes the search results of the documents hit
+		 * 
+		 * @return unsorted list of search results
+		 */
+		private List<SearchMetrics> results() {
+			List<SearchMetrics> results = new ArrayList<>(size);
+			for (int i = 0; i < size; i++) {
+				int d = hits[i];
+				SearchMetrics metrics = new SearchMetrics(statistics.location(d), scorer);
+				metrics.update(counts[d], statistics.length(d), weights == null ? 0 : weights[d]);
 				results.add(metrics);
 			}
-			lookup.get(location).update(word);
+			return results;
 		}
 	}
 	
@@ -239,30 +716,289 @@ public class InvertedIndex {
 	 * @param local is an InvertedIndex representing only one "location" (file)
 	 */
 	public void addAll(InvertedIndex local) {
-		for (String word : local.invertedIndex.keySet()) {
-			if (!this.invertedIndex.containsKey(word)) {
-				this.invertedIndex.put(word, local.invertedIndex.get(word));
+		/*
+		 * Written with putIfAbsent/merge only, so that on concurrent skip lists
+		 * several threads can merge at once: whoever loses a putIfAbsent race
+		 * merges into the winner's map or set instead.
+		 */
+		for (Map.Entry<String, NavigableMap<String, NavigableSet<Integer>>> word : local.invertedIndex.entrySet()) {
+			NavigableMap<String, NavigableSet<Integer>> locations = this.invertedIndex.get(word.getKey());
+			if (locations == null) {
+				locations = this.invertedIndex.putIfAbsent(word.getKey(), adopt(word.getValue()));
+				if (locations == null) continue;
+			}
+			//A, location doesn't exist in global index? put inner set
+			//B, location does exist in global index? [global-position-set].addAll([local-position-set])
+			for (Map.Entry<String, NavigableSet<Integer>> location : word.getValue().entrySet()) {
+				NavigableSet<Integer> positions = locations.get(location.getKey());
+				if (positions == null) {
+					positions = locations.putIfAbsent(location.getKey(), adopt(location.getValue())); //Case A
+					if (positions == null) continue;
+				}
+				positions.addAll(location.getValue()); //Case B
+			}
+		}
+		for (Map.Entry<String, Integer> location : local.wordCounts.entrySet()) {
+			this.wordCounts.merge(location.getKey(), location.getValue(), Integer::sum);
+		}
+		modified();
+	}
+
+	/**
+	 * Adds an index built from a chunk of a file, whose positions start over at
+	 * 1, moving them past the words of the file before the chunk. The local
+	 * index is changed and is not usable afterward.
+	 * 
+	 * @param local		index built from the chunk alone
+	 * @param offset	number of words of the file before the chunk
+	 */
+	public void addAll(InvertedIndex local, int offset) {
+		if (offset != 0) {
+			for (NavigableMap<String, NavigableSet<Integer>> locations : local.invertedIndex.values()) {
+				locations.replaceAll((location, positions) -> {
+					NavigableSet<Integer> shifted = local.newPositions();
+					for (int position : positions) {
+						shifted.add(position + offset);
+					}
+					return shifted;
+				});
+			}
+		}
+		addAll(local);
+	}
+
+	/**
+	 * Removes every position and the word count of some locations, such as files
+	 * that were deleted or are about to be read again, and the words left
+	 * without any location. Makes a single pass over the words.
+	 * 
+	 * @param locations	locations to be removed
+	 */
+	public void removeLocations(Set<String> locations) {
+		if (locations.isEmpty()) {
+			return;
+		}
+		Iterator<NavigableMap<String, NavigableSet<Integer>>> words = invertedIndex.values().iterator();
+		while (words.hasNext()) {
+			NavigableMap<String, NavigableSet<Integer>> found = words.next();
+			if (found.size() < locations.size()) {
+				found.keySet().removeIf(locations::contains);
+			} else {
+				for (String location : locations) {
+					found.remove(location);
+				}
+			}
+			if (found.isEmpty()) {
+				words.remove();
+			}
+		}
+		for (String location : locations) {
+			wordCounts.remove(location);
+		}
+		modified();
+	}
+
+	/**
+	 * Removes some locations and adds an index built from files in their place,
+	 * such as files that changed on disk
+	 * 
+	 * @param locations	locations to be removed
+	 * @param local		index to be added, read from the files as they are now
+	 * @see #removeLocations(Set)
+	 * @see #addAll(InvertedIndex)
+	 */
+	public void replaceLocations(Set<String> locations, InvertedIndex local) {
+		removeLocations(locations);
+		addAll(local);
+	}
+
+	/**
+	 * Merges two indexes built from different files into a new index by walking
+	 * the sorted words of both side by side, instead of looking up every word of
+	 * one in the other. Words found in only one of them keep their location maps
+	 * as is; words found in both merge their locations the same way. The merged
+	 * entries come out in ascending order, so the trees of the merged index are
+	 * built from them in one linear pass rather than one insertion per word.
+	 * 
+	 * Both indexes must be private to the caller and are not usable afterward,
+	 * since their maps end up in the merged index.
+	 * 
+	 * @param left	index to be merged
+	 * @param right	index to be merged
+	 * @return index with the words, locations and counts of both
+	 */
+	protected static InvertedIndex mergeSorted(InvertedIndex left, InvertedIndex right) {
+		InvertedIndex merged = new InvertedIndex();
+		merged.invertedIndex.putAll(mergeSorted(left.invertedIndex, right.invertedIndex, (a, b) -> {
+			return new TreeMap<>(mergeSorted(a, b, (positionsA, positionsB) -> {
+				positionsA.addAll(positionsB); // same location on both sides, not expected for different files
+				return positionsA;
+			}));
+		}));
+		merged.wordCounts.putAll(mergeSorted(left.wordCounts, right.wordCounts, Integer::sum)); // linear, the tree is empty
+		return merged;
+	}
+
+	/**
+	 * Merges two sorted maps in a single pass over both
+	 * 
+	 * @param <V>		value type
+	 * @param left		sorted map to be merged
+	 * @param right		sorted map to be merged
+	 * @param combine	combines the values of a key found in both maps
+	 * @return sorted entries of both maps, for a tree map to be built from
+	 */
+	private static <V> SortedMap<String, V> mergeSorted(NavigableMap<String, V> left, NavigableMap<String, V> right,
+			BinaryOperator<V> combine) {
+		List<Map.Entry<String, V>> merged = new ArrayList<>(left.size() + right.size());
+		Iterator<Map.Entry<String, V>> leftEntries = left.entrySet().iterator();
+		Iterator<Map.Entry<String, V>> rightEntries = right.entrySet().iterator();
+		Map.Entry<String, V> a = leftEntries.hasNext() ? leftEntries.next() : null;
+		Map.Entry<String, V> b = rightEntries.hasNext() ? rightEntries.next() : null;
+		while (a != null || b != null) {
+			int compare = a == null ? 1 : b == null ? -1 : a.getKey().compareTo(b.getKey());
+			if (compare < 0) {
+				merged.add(a);
+			} else if (compare > 0) {
+				merged.add(b);
+			} else {
+				merged.add(new SimpleImmutableEntry<>(a.getKey(), combine.apply(a.getValue(), b.getValue())));
 			}
-			else {
-			  /*
-			   * TODO 
-			   * For each location in the other index
-			   * If the word exists but the location doesn't, can put the entire inner set
-			   * Else if the word and location exist, you have 2 different position sets you can combine using set.addAll
-			   */
-				//A, location doesn't exist in global index? put inner set
-				//B, location does exist in global index? [global-position-set].addAll([local-position-set])
-			  
-				for (String location : local.invertedIndex.get(word).keySet()) {
-					if(!this.invertedIndex.get(word).containsKey(location)) this.invertedIndex.get(word).put(location, local.invertedIndex.get(word).get(location)); //Case A
-					else this.invertedIndex.get(word).get(location).addAll(local.invertedIndex.get(word).get(location));
+			if (compare <= 0) {
+				a = leftEntries.hasNext() ? leftEntries.next() : null;
+			}
+			if (compare >= 0) {
+				b = rightEntries.hasNext() ? rightEntries.next() : null;
+			}
+		}
+		return new SortedEntries<>(merged);
+	}
+
+	/**
+	 * Read-only sorted map over a list of entries already in ascending order of
+	 * their keys. A tree map constructed from it, or an empty one filled by
+	 * putAll, is built straight from the entries in linear time.
+	 * 
+	 * @param <V>	value type
+	 */
+	private static class SortedEntries<V> extends AbstractMap<String, V> implements SortedMap<String, V> {
+
+		/**
+		 * Entries in ascending order of their keys
+		 */
+		private final List<Map.Entry<String, V>> entries;
+
+		/**
+		 * Wraps a list of entries in ascending order of their keys
+		 * 
+		 * @param entries	sorted entries, not copied
+		 */
+		private SortedEntries(List<Map.Entry<String, V>> entries) {
+			this.entries = entries;
+		}
+
+		@Override
+		public Set<Map.Entry<String, V>> entrySet() {
+			return new AbstractSet<>() {
+				@Override
+				public Iterator<Map.Entry<String, V>> iterator() {
+					return Collections.unmodifiableList(entries).iterator();
+				}
+
+				@Override
+				public int size() {
+					return entries.size();
 				}
+			};
+		}
+
+		@Override
+		public Comparator<? super String> comparator() {
+			return null; // natural order, same as the tree maps of the index
+		}
+
+		@Override
+		public SortedMap<String, V> subMap(String fromKey, String toKey) {
+			if (fromKey.compareTo(toKey) > 0) {
+				throw new IllegalArgumentException("fromKey > toKey");
 			}
+			return new SortedEntries<>(entries.subList(indexOf(fromKey), indexOf(toKey)));
 		}
-		for(String location : local.wordCounts.keySet()) {
-			this.wordCounts.putIfAbsent(location,0);
-			this.wordCounts.put(location,this.wordCounts.get(location)+local.wordCounts.get(location));
+
+		@Override
+		public SortedMap<String, V> headMap(String toKey) {
+			return new SortedEntries<>(entries.subList(0, indexOf(toKey)));
 		}
+
+		@Override
+		public SortedMap<String, V> tailMap(String fromKey) {
+			return new SortedEntries<>(entries.subList(indexOf(fromKey), entries.size()));
+		}
+
+		@Override
+		public String firstKey() {
+			if (entries.isEmpty()) {
+				throw new NoSuchElementException();
+			}
+			return entries.get(0).getKey();
+		}
+
+		@Override
+		public String lastKey() {
+			if (entries.isEmpty()) {
+				throw new NoSuchElementException();
+			}
+			return entries.get(entries.size() - 1).getKey();
+		}
+
+		/**
+		 * Binary search for the first entry whose key is not less than a key
+		 * 
+		 * @param key	key to look for
+		 * @return index of the first entry at or after the key
+		 */
+		private int indexOf(String key) {
+			int low = 0;
+			int high = entries.size();
+			while (low < high) {
+				int middle = (low + high) >>> 1;
+				if (entries.get(middle).getKey().compareTo(key) < 0) {
+					low = middle + 1;
+				} else {
+					high = middle;
+				}
+			}
+			return low;
+		}
+	}
+
+	/**
+	 * Takes over the locations of a word from a merged index. A tree map is
+	 * reused as is; a concurrent index needs its own concurrent copy.
+	 * 
+	 * @param locations map of locations from the merged index
+	 * @return map to be put in this index
+	 */
+	private NavigableMap<String, NavigableSet<Integer>> adopt(NavigableMap<String, NavigableSet<Integer>> locations) {
+		if (!concurrent) {
+			return locations;
+		}
+		NavigableMap<String, NavigableSet<Integer>> copy = newLocations();
+		for (Map.Entry<String, NavigableSet<Integer>> location : locations.entrySet()) {
+			copy.put(location.getKey(), adopt(location.getValue()));
+		}
+		return copy;
+	}
+
+	/**
+	 * Takes over the positions of a word and location from a merged index
+	 * 
+	 * @param positions set of positions from the merged index
+	 * @return set to be put in this index
+	 * @see #adopt(NavigableMap)
+	 */
+	private NavigableSet<Integer> adopt(NavigableSet<Integer> positions) {
+		return concurrent ? new ConcurrentSkipListSet<>(positions) : positions;
 	}
 	
 	
@@ -288,6 +1024,16 @@ public class InvertedIndex {
 		 * where variable definition
 		 */
 		protected final String where;
+
+		/**
+		 * Summed weights of the words matched, see {@link Scorer}
+		 */
+		protected double weights;
+
+		/**
+		 * Ranking model that computes the score
+		 */
+		private final Scorer scorer;
 		
 		/**
 		 * Initializes SearchMetrics object
@@ -295,9 +1041,21 @@ public class InvertedIndex {
 		 * @param where location that the SearchMetrics object describes
 		 * */
 		public SearchMetrics(String where) {
+			this(where, getScorer());
+		}
+
+		/**
+		 * Initializes SearchMetrics object scored by a given ranking model
+		 * 
+		 * @param where 	location that the SearchMetrics object describes
+		 * @param scorer	ranking model that computes the score
+		 */
+		public SearchMetrics(String where, Scorer scorer) {
 			super();
 			this.where = where;
 			this.count = 0;
+			this.weights = 0;
+			this.scorer = scorer;
 		}
 
 		/**
@@ -345,14 +1103,17 @@ public class InvertedIndex {
 		 */
 		
 		/**
-		 * Looks up a query word in the inverted index and computes relevant data 
-		 * for the search result based on frequency of the query word in the 
-		 * SearchMetrics's file (see @location)
-		 * @param word String coming from a query
+		 * Adds matches found in the SearchMetrics's file and recomputes the score,
+		 * used by indexes that already know the counts (see {@link CompactInvertedIndex})
+		 * 
+		 * @param matches	number of new matches in this location
+		 * @param total		total number of words in this location
+		 * @param weight	weight of the new matches, see {@link Scorer}
 		 */
-		protected void update(String word) {
-			this.count += invertedIndex.get(word).get(where).size();
-			this.score = (double)this.count / wordCounts.get(where);
+		protected void update(int matches, int total, double weight) {
+			this.count += matches;
+			this.weights += weight;
+			this.score = scorer.score(this.weights, this.count, total);
 		}
 		 
 		/**
@@ -1,18 +1,24 @@
 import java.io.BufferedReader;
 
 import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.CharsetDecoder;
 import java.nio.charset.StandardCharsets;
 import java.nio.file.FileVisitOption;
+import java.nio.file.FileVisitResult;
 import java.nio.file.Files;
 import java.nio.file.Path;
+import java.nio.file.SimpleFileVisitor;
+import java.nio.file.StandardOpenOption;
 import java.nio.file.attribute.BasicFileAttributes;
+import java.util.ArrayList;
+import java.util.EnumSet;
 import java.util.List;
+import java.util.function.BiConsumer;
 import java.util.function.Predicate;
-import java.util.stream.Collectors;
-import java.util.stream.Stream;
 
 import opennlp.tools.stemmer.Stemmer;
-import opennlp.tools.stemmer.snowball.SnowballStemmer;
 
 /**
  * 
@@ -24,36 +30,73 @@ import opennlp.tools.stemmer.snowball.SnowballStemmer;
  */
 public class InvertedIndexBuilder {
 
-	/**
-	 * Stemmer DEFAULT setup
-	 */
-	private static final SnowballStemmer.ALGORITHM DEFAULT = SnowballStemmer.ALGORITHM.ENGLISH;
-
 	/**
 	 * Checks if the path given is a text file
 	 */
 	public static final Predicate<Path> IS_TEXT_FILE = (Path p) -> {
 		try {
-			BasicFileAttributes basicAttr = Files.readAttributes(p, BasicFileAttributes.class);
-			String pathStr = p.toString().toLowerCase();
-			return ((pathStr.endsWith(".txt") || pathStr.endsWith(".text")) && basicAttr.isRegularFile());
+			return isTextFile(p, Files.readAttributes(p, BasicFileAttributes.class));
 		} catch (IOException e) {
 			return false;
 		}
 	};
 
+	/**
+	 * Checks if a path is a text file, from attributes already read
+	 * 
+	 * @param path	path to be checked
+	 * @param attrs	attributes of the path
+	 * @return true for a regular file ending with .txt or .text
+	 */
+	public static boolean isTextFile(Path path, BasicFileAttributes attrs) {
+		String pathStr = path.toString().toLowerCase();
+		return ((pathStr.endsWith(".txt") || pathStr.endsWith(".text")) && attrs.isRegularFile());
+	}
+
+	/**
+	 * Files at least this large are memory-mapped, smaller ones are read into a
+	 * buffer of the thread
+	 */
+	public static final int MAP_THRESHOLD = 1 << 20;
+
+	/**
+	 * Reusable buffer of each thread for files below the threshold
+	 */
+	private static final ThreadLocal<ByteBuffer> BUFFERS = ThreadLocal.withInitial(() -> ByteBuffer.allocateDirect(1 << 16));
+
 	/**
 	 * Traverses a path for a file or directory
 	 * 
 	 * @param start argument to be traversed
-	 * @return Stream<Path> open stream to process file
+	 * @return text files found, in the order of the walk
 	 * @throws IOException	throws exception
 	 */
 	public static List<Path> find(Path start) throws IOException {
-		try (Stream<Path> stream = Files.walk(start, Integer.MAX_VALUE, FileVisitOption.FOLLOW_LINKS)
-				.filter(IS_TEXT_FILE)) {
-			return stream.collect(Collectors.toList());
-		}
+		List<Path> files = new ArrayList<>();
+		forEachTextFile(start, (file, attrs) -> files.add(file));
+		return files;
+	}
+
+	/**
+	 * Walks a path and hands each text file over as soon as the walk reaches it,
+	 * with the attributes the walk read for it, so that the files can be read
+	 * while the walk goes on and are not looked up a second time. Links are
+	 * followed, as with {@link Files#walk(Path, FileVisitOption...)}.
+	 * 
+	 * @param start		path to be traversed
+	 * @param action	takes each text file and its attributes
+	 * @throws IOException	if a directory cannot be read
+	 */
+	public static void forEachTextFile(Path start, BiConsumer<Path, BasicFileAttributes> action) throws IOException {
+		Files.walkFileTree(start, EnumSet.of(FileVisitOption.FOLLOW_LINKS), Integer.MAX_VALUE, new SimpleFileVisitor<>() {
+			@Override
+			public FileVisitResult visitFile(Path file, BasicFileAttributes attrs) {
+				if (isTextFile(file, attrs)) {
+					action.accept(file, attrs);
+				}
+				return FileVisitResult.CONTINUE;
+			}
+		});
 	}
 
 	/**
@@ -64,30 +107,163 @@ public class InvertedIndexBuilder {
 	 * @throws IOException	throws exception
 	 */
 	public static void buildInvertedIndex(InvertedIndex invertedIndex, Path path) throws IOException {
-		List<Path> files = find(path);
+		addFiles(find(path), invertedIndex);
+	}
+
+	/**
+	 * Adds the stemmed words of some files into the inverted index, one file
+	 * after the other
+	 * 
+	 * @param files	files to be added
+	 * @param index	Data Structure Object
+	 * @throws IOException	throws exception
+	 */
+	public static void addFiles(List<Path> files, InvertedIndex index) throws IOException {
 		for (Path file : files) {
-			addFile(file, invertedIndex);
+			addFile(file, index);
 		}
 	}
 
 	/**
 	 * Adds stemmed word into the inverted index with a file directory and its word
-	 * position
+	 * position. The file is read as bytes, memory-mapped if it is large, and
+	 * only lines that are not ASCII are decoded (see
+	 * {@link #addBytes(ByteBuffer, String, InvertedIndex)}); a file too large for
+	 * one buffer is read line by line.
 	 * 
 	 * @param file  Path of which to add
 	 * @param index Data Structure Object
 	 * @throws IOException	throws exception
 	 */
 	public static void addFile(Path file, InvertedIndex index) throws IOException {
-		int wordPosition = 0;
-		Stemmer stemmer = new SnowballStemmer(DEFAULT);
-		String fileStr = file.toString();
-		try (BufferedReader br = Files.newBufferedReader(file, StandardCharsets.UTF_8)) {
-			String line;
-			while ((line = br.readLine()) != null) {
-				for (String word : TextParser.parse(line)) {
-					index.addEntry(toStem(word, stemmer), fileStr, ++wordPosition);
+		try (FileChannel channel = FileChannel.open(file, StandardOpenOption.READ)) {
+			long size = channel.size();
+			if (size > Integer.MAX_VALUE) {
+				try (BufferedReader br = Files.newBufferedReader(file, StandardCharsets.UTF_8)) {
+					addLines(br, file.toString(), index);
+				}
+				return;
+			}
+			ByteBuffer bytes;
+			if (size >= MAP_THRESHOLD) {
+				bytes = channel.map(FileChannel.MapMode.READ_ONLY, 0, size);
+			} else {
+				bytes = buffer((int) size);
+				while (bytes.hasRemaining() && channel.read(bytes) >= 0) {
+					// until full or the end of the file
 				}
+				bytes.flip();
+			}
+			addBytes(bytes, file.toString(), index);
+		}
+	}
+
+	/**
+	 * Reads a whole file into a buffer of its own, memory-mapped and loaded
+	 * into memory at or above {@link #MAP_THRESHOLD}, so that the file is read
+	 * now and can be tokenized later with
+	 * {@link #addBytes(ByteBuffer, String, InvertedIndex)}. Used by virtual
+	 * threads (see {@link VirtualThreadQueue}), which read while holding no CPU
+	 * permit and are too many to each keep a buffer.
+	 * 
+	 * @param file	file to be read
+	 * @return the bytes of the file, between position 0 and the limit
+	 * @throws IOException	if the file cannot be read or is too large for one buffer
+	 */
+	public static ByteBuffer readFile(Path file) throws IOException {
+		try (FileChannel channel = FileChannel.open(file, StandardOpenOption.READ)) {
+			long size = channel.size();
+			if (size > Integer.MAX_VALUE) {
+				throw new IOException(file + " is too large for one buffer");
+			}
+			if (size >= MAP_THRESHOLD) {
+				return channel.map(FileChannel.MapMode.READ_ONLY, 0, size).load();
+			}
+			ByteBuffer bytes = ByteBuffer.allocate((int) size);
+			while (bytes.hasRemaining() && channel.read(bytes) >= 0) {
+				// until full or the end of the file
+			}
+			return bytes.flip();
+		}
+	}
+
+	/**
+	 * Gives the buffer of the calling thread, grown if needed and cleared
+	 * 
+	 * @param size	number of bytes needed
+	 * @return buffer with room for exactly that many bytes
+	 */
+	private static ByteBuffer buffer(int size) {
+		ByteBuffer buffer = BUFFERS.get();
+		if (buffer.capacity() < size) {
+			buffer = ByteBuffer.allocateDirect(Math.max(size, Math.min(buffer.capacity() * 2, MAP_THRESHOLD)));
+			BUFFERS.set(buffer);
+		}
+		buffer.clear().limit(size);
+		return buffer;
+	}
+
+	/**
+	 * Adds the stemmed words of UTF-8 text into the inverted index, splitting it
+	 * into lines as {@link BufferedReader#readLine()} does. An ASCII line, or
+	 * one with only Latin-1 letters besides, is tokenized straight from the
+	 * bytes; any other line is decoded, failing on malformed input like the
+	 * reader.
+	 * 
+	 * @param bytes		text between the position and the limit of the buffer
+	 * @param location	location the text came from
+	 * @param index		Data Structure Object
+	 * @throws IOException	throws exception
+	 */
+	public static void addBytes(ByteBuffer bytes, String location, InvertedIndex index) throws IOException {
+		int wordPosition = 0;
+		Stemmer stemmer = StemCache.ENGLISH;
+		Tokenizer tokenizer = new Tokenizer();
+		CharsetDecoder decoder = StandardCharsets.UTF_8.newDecoder();
+		int start = bytes.position();
+		int end = bytes.limit();
+		while (start < end) {
+			int stop = start;
+			boolean ascii = true;
+			byte b;
+			while ((b = bytes.get(stop)) != '\n' && b != '\r') {
+				ascii &= b >= 0;
+				if (++stop == end) break;
+			}
+			if (ascii || Tokenizer.isSimple(bytes, start, stop)) {
+				tokenizer.reset(bytes, start, stop);
+			} else {
+				tokenizer.reset(decoder.decode(bytes.slice(start, stop - start)).toString());
+			}
+			while (tokenizer.next()) {
+				index.addEntry(stemmer.stem(tokenizer).toString(), location, ++wordPosition);
+			}
+			start = stop + 1;
+			if (b == '\r' && start < end && bytes.get(start) == '\n') {
+				start++;
+			}
+		}
+	}
+
+	/**
+	 * Adds the stemmed words of every line of a reader into the inverted index,
+	 * used for files too large for one buffer (see
+	 * {@link #addFile(Path, InvertedIndex)})
+	 * 
+	 * @param br		lines to be added
+	 * @param location	location the lines came from
+	 * @param index		Data Structure Object
+	 * @throws IOException	throws exception
+	 */
+	public static void addLines(BufferedReader br, String location, InvertedIndex index) throws IOException {
+		int wordPosition = 0;
+		Stemmer stemmer = StemCache.ENGLISH;
+		Tokenizer tokenizer = new Tokenizer();
+		String line;
+		while ((line = br.readLine()) != null) {
+			tokenizer.reset(line);
+			while (tokenizer.next()) { // stemmed straight from the tokenizer's buffer
+				index.addEntry(stemmer.stem(tokenizer).toString(), location, ++wordPosition);
 			}
 		}
 	}
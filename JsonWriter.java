@@ -430,7 +430,8 @@ public class JsonWriter {
 	}
 
 	/**
-	 * Writes the element surrounded by {@code " "} quotation marks.
+	 * Writes the element surrounded by {@code " "} quotation marks, escaping any
+	 * quotation marks and backslashes in it (phrase queries are quoted).
 	 *
 	 * @param element the element to write
 	 * @param writer  the writer to use
@@ -438,7 +439,17 @@ public class JsonWriter {
 	 */
 	public static void quote(String element, Writer writer) throws IOException {
 		writer.write('"');
-		writer.write(element);
+		if (element.indexOf('"') < 0 && element.indexOf('\\') < 0) {
+			writer.write(element);
+		} else {
+			for (int i = 0; i < element.length(); i++) {
+				char c = element.charAt(i);
+				if (c == '"' || c == '\\') {
+					writer.write('\\');
+				}
+				writer.write(c);
+			}
+		}
 		writer.write('"');
 	}
 
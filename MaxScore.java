@@ -0,0 +1,283 @@
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.List;
+import java.util.PriorityQueue;
+import java.util.Set;
+
+/**
+ * Top-k search of a query (the union of its words) that skips documents which
+ * cannot make it into the results, after the MaxScore algorithm.
+ *
+ * Every index word matched by the query gets the highest weight it can add to
+ * a score (see {@link ScoreBounds}). The words are sorted by that bound; once k
+ * results are kept, the words whose bounds add up to less than the worst kept
+ * score are non-essential: a document found only by them cannot be better, so
+ * documents are only taken from the postings of the other, essential words,
+ * document by document. The non-essential words are then looked up in the
+ * candidate by galloping search, best bound first, and the candidate is dropped
+ * as soon as its score so far plus the bounds still to look up falls short.
+ *
+ * The results are the same, in the same order, as
+ * {@link InvertedIndex#search(Set, boolean)} cut to k: scores are recomputed
+ * exactly, adding up the words in the order that search does.
+ *
+ * @author pcarbajal
+ */
+public class MaxScore {
+
+	/**
+	 * Relative margin below the worst kept score before a document is skipped,
+	 * so that rounding in the bounds never skips a document that would tie
+	 */
+	private static final double SLACK = 1e-9;
+
+	/**
+	 * Utility class, not to be instantiated
+	 */
+	private MaxScore() {
+	}
+
+	/**
+	 * Searches for the k best results of a query
+	 *
+	 * @param index		index the results are made for
+	 * @param view		view of the index
+	 * @param scorer	ranking model
+	 * @param queries	stems of the query
+	 * @param exact		whether to search exactly or by prefix
+	 * @param k			maximum number of results
+	 * @return sorted list of at most k results
+	 */
+	public static List<InvertedIndex.SearchMetrics> search(InvertedIndex index, IndexView view, Scorer scorer,
+			Set<String> queries, boolean exact, int k) {
+		int[] words = new int[16]; // matched index words, in the order the full search adds them up
+		int n = 0;
+		for (String query : queries) {
+			int[] found;
+			if (exact) {
+				int w = view.find(query);
+				found = w >= 0 ? new int[] { w } : new int[0];
+			} else {
+				found = view.prefixed(query);
+			}
+			for (int w : found) {
+				if (n == words.length) {
+					words = Arrays.copyOf(words, n * 2);
+				}
+				words[n++] = w;
+			}
+		}
+		List<InvertedIndex.SearchMetrics> results = new ArrayList<>();
+		if (n == 0 || k <= 0) return results;
+
+		Postings[] postings = new Postings[n];
+		double[] idfs = new double[n];
+		double[] bounds = new double[n];
+		for (int t = 0; t < n; t++) {
+			postings[t] = view.postings(words[t]);
+			idfs[t] = scorer.idf(postings[t].size(), view.size());
+			bounds[t] = view.upperBound(words[t], scorer);
+		}
+		Integer[] order = new Integer[n]; // words by bound, lowest first
+		for (int t = 0; t < n; t++) {
+			order[t] = t;
+		}
+		Arrays.sort(order, Comparator.comparingDouble(t -> bounds[t]));
+		double[] prefix = new double[n + 1]; // sum of the i lowest bounds
+		for (int i = 0; i < n; i++) {
+			prefix[i + 1] = prefix[i] + bounds[order[i]];
+		}
+
+		int[] cursors = new int[n];
+		int[] docs = new int[n]; // current document of each word
+		int[] heap = new int[n]; // essential words, by current document
+		int heapSize = 0;
+		for (int t = 0; t < n; t++) {
+			if (postings[t].size() > 0) {
+				docs[t] = postings[t].document(0);
+				heap[heapSize] = t;
+				siftUp(heap, heapSize++, docs);
+			}
+		}
+
+		Comparator<Candidate> ranking = Candidate.ORDER;
+		PriorityQueue<Candidate> kept = new PriorityQueue<>(k + 1, ranking.reversed()); // worst kept result first
+		double threshold = Double.NEGATIVE_INFINITY;
+		int nonEssential = 0;
+		double averageLength = view.getAverageLength();
+		int[] matched = new int[n];
+		int[] frequencies = new int[n];
+		double[] weights = new double[n];
+		while (heapSize > 0) {
+			int d = docs[heap[0]];
+			int length = view.length(d);
+			int size = 0;
+			double estimate = 0;
+			while (heapSize > 0 && docs[heap[0]] == d) {
+				int t = heap[0];
+				matched[size++] = t;
+				frequencies[t] = postings[t].frequency(cursors[t]);
+				weights[t] = scorer.weight(frequencies[t], length, idfs[t], averageLength);
+				estimate += weights[t];
+				if (++cursors[t] < postings[t].size()) {
+					docs[t] = postings[t].document(cursors[t]);
+				} else {
+					heap[0] = heap[--heapSize];
+				}
+				siftDown(heap, 0, heapSize, docs);
+			}
+
+			boolean skipped = false;
+			for (int j = nonEssential - 1; j >= 0; j--) {
+				if (below(estimate + prefix[j + 1], threshold)) {
+					skipped = true;
+					break;
+				}
+				int t = order[j];
+				int i = postings[t].seek(cursors[t], d);
+				cursors[t] = i;
+				if (i < postings[t].size() && postings[t].document(i) == d) {
+					matched[size++] = t;
+					frequencies[t] = postings[t].frequency(i);
+					weights[t] = scorer.weight(frequencies[t], length, idfs[t], averageLength);
+					estimate += weights[t];
+				}
+			}
+			if (skipped) continue;
+
+			Arrays.sort(matched, 0, size); // exact score, added up like the full search
+			int count = 0;
+			double sum = 0;
+			for (int m = 0; m < size; m++) {
+				count += frequencies[matched[m]];
+				sum += weights[matched[m]];
+			}
+			if (kept.size() == k && scorer.score(sum, count, length) < threshold) continue; // worse than every kept result
+			InvertedIndex.SearchMetrics metrics = index.new SearchMetrics(view.location(d), scorer);
+			metrics.update(count, length, sum);
+			Candidate candidate = new Candidate(metrics, matched[0]);
+			if (kept.size() < k) {
+				kept.add(candidate);
+			} else if (ranking.compare(candidate, kept.peek()) < 0) {
+				kept.poll();
+				kept.add(candidate);
+			} else {
+				continue;
+			}
+			if (kept.size() == k) {
+				threshold = kept.peek().metrics.getScore();
+				while (nonEssential < n && below(prefix[nonEssential + 1], threshold)) {
+					int t = order[nonEssential++]; // only looked up from now on
+					for (int h = 0; h < heapSize; h++) {
+						if (heap[h] == t) {
+							heap[h] = heap[--heapSize];
+							siftDown(heap, h, heapSize, docs);
+							siftUp(heap, h, docs);
+							break;
+						}
+					}
+				}
+			}
+		}
+
+		List<Candidate> best = new ArrayList<>(kept);
+		best.sort(ranking);
+		for (Candidate candidate : best) {
+			results.add(candidate.metrics);
+		}
+		return results;
+	}
+
+	/**
+	 * Moves a word of the heap towards the top while its document is smaller
+	 *
+	 * @param heap	words, by current document
+	 * @param h		place of the word in the heap
+	 * @param docs	current document of each word
+	 */
+	private static void siftUp(int[] heap, int h, int[] docs) {
+		int t = heap[h];
+		while (h > 0) {
+			int parent = (h - 1) >>> 1;
+			if (docs[heap[parent]] <= docs[t]) break;
+			heap[h] = heap[parent];
+			h = parent;
+		}
+		heap[h] = t;
+	}
+
+	/**
+	 * Moves a word of the heap towards the bottom while its document is larger
+	 *
+	 * @param heap	words, by current document
+	 * @param h		place of the word in the heap
+	 * @param size	number of words in the heap
+	 * @param docs	current document of each word
+	 */
+	private static void siftDown(int[] heap, int h, int size, int[] docs) {
+		if (h >= size) return;
+		int t = heap[h];
+		while (true) {
+			int child = 2 * h + 1;
+			if (child >= size) break;
+			if (child + 1 < size && docs[heap[child + 1]] < docs[heap[child]]) {
+				child++;
+			}
+			if (docs[heap[child]] >= docs[t]) break;
+			heap[h] = heap[child];
+			h = child;
+		}
+		heap[h] = t;
+	}
+
+	/**
+	 * Checks if a bound is clearly below the worst kept score
+	 *
+	 * @param bound		highest score a document can still reach
+	 * @param threshold	score of the worst kept result, or negative infinity
+	 * @return true if the document can be skipped
+	 */
+	private static boolean below(double bound, double threshold) {
+		return bound < threshold * (1 - SLACK);
+	}
+
+	/**
+	 * A result with the first word that matched it, which decides its place
+	 * among equal results in the full search
+	 */
+	private static class Candidate {
+
+		/**
+		 * Results in the order of the full search: by SearchMetrics, then in the
+		 * order they were first found
+		 */
+		private static final Comparator<Candidate> ORDER = (a, b) -> {
+			int compare = a.metrics.compareTo(b.metrics);
+			if (compare != 0) return compare;
+			if (a.first != b.first) return Integer.compare(a.first, b.first);
+			return a.metrics.getWhere().compareTo(b.metrics.getWhere());
+		};
+
+		/**
+		 * The result
+		 */
+		private final InvertedIndex.SearchMetrics metrics;
+
+		/**
+		 * First matched word, in the order the full search adds them up
+		 */
+		private final int first;
+
+		/**
+		 * Wraps a result
+		 *
+		 * @param metrics	the result
+		 * @param first		first matched word
+		 */
+		private Candidate(InvertedIndex.SearchMetrics metrics, int first) {
+			this.metrics = metrics;
+			this.first = first;
+		}
+	}
+}
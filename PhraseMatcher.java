@@ -0,0 +1,170 @@
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+
+/**
+ * Finds where the words of a phrase appear one right after the other, using the
+ * positions the index keeps for every word.
+ *
+ * The rarest word of a phrase drives the search: only the documents it was
+ * found in are candidates, and the other words are checked in order of how
+ * rare they are, so a phrase with a very common word costs about as much as
+ * its rarest word. Both the documents of the other words and their positions
+ * within a candidate are found by galloping search (doubling steps, then a
+ * binary search), always moving forward from where the previous lookup stopped.
+ *
+ * @author pcarbajal
+ */
+public class PhraseMatcher {
+
+	/**
+	 * Utility class, not to be instantiated
+	 */
+	private PhraseMatcher() {
+	}
+
+	/**
+	 * Finds the documents containing every phrase
+	 *
+	 * @param phrases	postings of the words of each phrase, in phrase order; a
+	 * null entry is a word that is not in the index
+	 * @return documents containing every phrase, ascending, mapped to the total
+	 * number of times the phrases were found in them
+	 */
+	public static TreeMap<Integer, Integer> matchAll(List<Postings[]> phrases) {
+		TreeMap<Integer, Integer> found = null;
+		for (Postings[] phrase : phrases) {
+			TreeMap<Integer, Integer> matches = match(phrase);
+			if (found == null) {
+				found = matches;
+			} else {
+				Iterator<Map.Entry<Integer, Integer>> it = found.entrySet().iterator();
+				while (it.hasNext()) {
+					Map.Entry<Integer, Integer> entry = it.next();
+					Integer more = matches.get(entry.getKey());
+					if (more == null) {
+						it.remove();
+					} else {
+						entry.setValue(entry.getValue() + more);
+					}
+				}
+			}
+			if (found.isEmpty()) break;
+		}
+		return found == null ? new TreeMap<>() : found;
+	}
+
+	/**
+	 * Finds the documents containing a phrase
+	 *
+	 * @param phrase	postings of the words of the phrase, in phrase order; a null
+	 * entry is a word that is not in the index
+	 * @return documents containing the phrase, ascending, mapped to the number
+	 * of times it was found in them
+	 */
+	public static TreeMap<Integer, Integer> match(Postings[] phrase) {
+		TreeMap<Integer, Integer> found = new TreeMap<>();
+		if (phrase.length == 0) return found;
+		for (Postings postings : phrase) {
+			if (postings == null) return found;
+		}
+
+		Integer[] order = new Integer[phrase.length]; // offsets in the phrase, rarest word first
+		for (int t = 0; t < order.length; t++) {
+			order[t] = t;
+		}
+		Arrays.sort(order, Comparator.comparingInt(t -> phrase[t].size()));
+
+		Postings rarest = phrase[order[0]];
+		int[] cursors = new int[phrase.length]; // next posting of each word to look at
+		int[] postings = new int[phrase.length]; // posting of each word in the candidate
+		candidates:
+		for (int c = 0; c < rarest.size(); c++) {
+			int document = rarest.document(c);
+			postings[order[0]] = c;
+			for (int o = 1; o < order.length; o++) {
+				int t = order[o];
+				int i = phrase[t].seek(cursors[t], document);
+				cursors[t] = i;
+				if (i == phrase[t].size()) break candidates; // no later candidate can match either
+				if (phrase[t].document(i) != document) continue candidates;
+				postings[t] = i;
+			}
+			int count = occurrences(phrase, order, postings);
+			if (count > 0) {
+				found.put(document, count);
+			}
+		}
+		return found;
+	}
+
+	/**
+	 * Counts the occurrences of a phrase in a document all its words were found
+	 * in. The word with the fewest positions there proposes where the phrase
+	 * starts; the other words confirm it.
+	 *
+	 * @param phrase	postings of the words of the phrase
+	 * @param order		offsets in the phrase, rarest word first
+	 * @param postings	posting of each word in the document
+	 * @return number of occurrences
+	 */
+	private static int occurrences(Postings[] phrase, Integer[] order, int[] postings) {
+		int driver = 0;
+		for (int t = 1; t < phrase.length; t++) {
+			if (phrase[t].frequency(postings[t]) < phrase[driver].frequency(postings[driver])) {
+				driver = t;
+			}
+		}
+
+		int count = 0;
+		int[] cursors = new int[phrase.length];
+		proposals:
+		for (int j = 0; j < phrase[driver].frequency(postings[driver]); j++) {
+			int start = phrase[driver].position(postings[driver], j) - driver;
+			for (int t : order) {
+				if (t == driver) continue;
+				int k = gallopPositions(phrase[t], postings[t], cursors[t], start + t);
+				cursors[t] = k;
+				if (k == phrase[t].frequency(postings[t])) break proposals;
+				if (phrase[t].position(postings[t], k) != start + t) continue proposals;
+			}
+			count++;
+		}
+		return count;
+	}
+
+	/**
+	 * First position of a posting at or after a cursor that is not smaller than a
+	 * target
+	 *
+	 * @param postings	postings to be searched
+	 * @param i			posting
+	 * @param from		cursor
+	 * @param target	position to be found
+	 * @return index of the position, or the frequency if there is none
+	 */
+	private static int gallopPositions(Postings postings, int i, int from, int target) {
+		int size = postings.frequency(i);
+		int step = 1;
+		int low = from;
+		int high = from;
+		while (high < size && postings.position(i, high) < target) {
+			low = high + 1;
+			high = from + step;
+			step <<= 1;
+		}
+		high = Math.min(high, size);
+		while (low < high) {
+			int middle = (low + high) >>> 1;
+			if (postings.position(i, middle) < target) {
+				low = middle + 1;
+			} else {
+				high = middle;
+			}
+		}
+		return low;
+	}
+}
@@ -0,0 +1,73 @@
+/**
+ * Sorted postings of one word: the documents it was found in, ascending, and
+ * for each of them its positions, ascending. Document ids only need to be
+ * comparable between the words of one index. Read by phrase, boolean and
+ * pruned top-k searches.
+ *
+ * @author pcarbajal
+ */
+public interface Postings {
+
+	/**
+	 * Number of documents the word was found in
+	 *
+	 * @return document frequency
+	 */
+	int size();
+
+	/**
+	 * Document of a posting, ascending with i
+	 *
+	 * @param i	posting
+	 * @return document id
+	 */
+	int document(int i);
+
+	/**
+	 * Number of positions of a posting
+	 *
+	 * @param i	posting
+	 * @return number of times the word was found in the document
+	 */
+	int frequency(int i);
+
+	/**
+	 * Position of a posting, ascending with j
+	 *
+	 * @param i	posting
+	 * @param j	index of the position, less than {@link #frequency(int)}
+	 * @return position in the document
+	 */
+	int position(int i, int j);
+
+	/**
+	 * First posting at or after a cursor whose document is not smaller than a
+	 * target, found by galloping search: steps that double until past the target,
+	 * then a binary search
+	 *
+	 * @param from		cursor
+	 * @param target	document to be found
+	 * @return index of the posting, or the size if there is none
+	 */
+	default int seek(int from, int target) {
+		int size = size();
+		int step = 1;
+		int low = from;
+		int high = from;
+		while (high < size && document(high) < target) { // double the step until past the target
+			low = high + 1;
+			high = from + step;
+			step <<= 1;
+		}
+		high = Math.min(high, size);
+		while (low < high) {
+			int middle = (low + high) >>> 1;
+			if (document(middle) < target) {
+				low = middle + 1;
+			} else {
+				high = middle;
+			}
+		}
+		return low;
+	}
+}
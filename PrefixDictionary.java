@@ -0,0 +1,211 @@
+import java.util.Arrays;
+
+/**
+ * Prefix index over a sorted array of words, used for partial search. Every
+ * prefix of a sorted array covers one contiguous range of it, so the dictionary
+ * is a trie whose nodes only store that range.
+ *
+ * Nodes are stored breadth-first in flat arrays, with the children of a node
+ * next to each other and sorted by their character. The trie stops at
+ * {@link #DEPTH} characters to bound its size; longer prefixes finish with a
+ * binary search inside the (small) range of the deepest node.
+ *
+ * Finding the words of a prefix costs O(prefix length), independent of the
+ * number of words in the dictionary.
+ *
+ * @author pcarbajal
+ */
+public class PrefixDictionary {
+
+	/**
+	 * Maximum depth of the trie
+	 */
+	public static final int DEPTH = 6;
+
+	/**
+	 * Sorted words the ranges refer to
+	 */
+	private final String[] words;
+
+	/**
+	 * Character that leads to each node from its parent
+	 */
+	private char[] labels;
+
+	/**
+	 * First word with the prefix of each node
+	 */
+	private int[] starts;
+
+	/**
+	 * Word after the last one with the prefix of each node
+	 */
+	private int[] ends;
+
+	/**
+	 * First child of each node
+	 */
+	private int[] firstChild;
+
+	/**
+	 * Number of children of each node
+	 */
+	private int[] numChildren;
+
+	/**
+	 * Number of nodes stored
+	 */
+	private int size;
+
+	/**
+	 * Builds the trie over a sorted array of unique words
+	 *
+	 * @param words	sorted words, not copied
+	 */
+	public PrefixDictionary(String[] words) {
+		this.words = words;
+		int capacity = Math.max(16, words.length);
+		labels = new char[capacity];
+		starts = new int[capacity];
+		ends = new int[capacity];
+		firstChild = new int[capacity];
+		numChildren = new int[capacity];
+		size = 0;
+
+		addNode('\0', 0, words.length);
+		for (int node = 0, depth = 0, levelEnd = 1; node < size; node++) { // breadth-first, one level at a time
+			if (node == levelEnd) {
+				depth++;
+				levelEnd = size;
+			}
+			firstChild[node] = size;
+			if (depth < DEPTH) {
+				addChildren(node, depth);
+			}
+			numChildren[node] = size - firstChild[node];
+		}
+		trim();
+	}
+
+	/**
+	 * Adds one child per distinct character at a depth, for the words of a node
+	 *
+	 * @param node	parent node
+	 * @param depth	depth of the parent, the index of the character to split on
+	 */
+	private void addChildren(int node, int depth) {
+		int i = starts[node];
+		if (i < ends[node] && words[i].length() == depth) { // the prefix itself is a word, it sorts first
+			i++;
+		}
+		while (i < ends[node]) {
+			char c = words[i].charAt(depth);
+			int start = i;
+			while (i < ends[node] && words[i].charAt(depth) == c) {
+				i++;
+			}
+			addNode(c, start, i);
+		}
+	}
+
+	/**
+	 * Appends a node, growing the arrays if needed
+	 *
+	 * @param label	character leading to the node
+	 * @param start	first word with the prefix of the node
+	 * @param end	word after the last one with the prefix of the node
+	 */
+	private void addNode(char label, int start, int end) {
+		if (size == labels.length) {
+			int capacity = size * 2;
+			labels = Arrays.copyOf(labels, capacity);
+			starts = Arrays.copyOf(starts, capacity);
+			ends = Arrays.copyOf(ends, capacity);
+			firstChild = Arrays.copyOf(firstChild, capacity);
+			numChildren = Arrays.copyOf(numChildren, capacity);
+		}
+		labels[size] = label;
+		starts[size] = start;
+		ends[size] = end;
+		size++;
+	}
+
+	/**
+	 * Releases the unused capacity once the trie is built
+	 */
+	private void trim() {
+		labels = Arrays.copyOf(labels, size);
+		starts = Arrays.copyOf(starts, size);
+		ends = Arrays.copyOf(ends, size);
+		firstChild = Arrays.copyOf(firstChild, size);
+		numChildren = Arrays.copyOf(numChildren, size);
+	}
+
+	/**
+	 * Finds the child of a node reached by a character
+	 *
+	 * @param node	parent node
+	 * @param c		character to follow
+	 * @return child node, or -1 if there is none
+	 */
+	private int child(int node, char c) {
+		int low = firstChild[node];
+		int high = low + numChildren[node] - 1;
+		while (low <= high) {
+			int middle = (low + high) >>> 1;
+			if (labels[middle] < c) low = middle + 1;
+			else if (labels[middle] > c) high = middle - 1;
+			else return middle;
+		}
+		return -1;
+	}
+
+	/**
+	 * Finds the range of words that start with a prefix
+	 *
+	 * @param prefix	to be looked up
+	 * @return array of the first word and the word after the last one, equal
+	 *         if no word has the prefix
+	 */
+	public int[] range(String prefix) {
+		int node = 0;
+		int depth = Math.min(prefix.length(), DEPTH);
+		for (int i = 0; i < depth; i++) {
+			node = child(node, prefix.charAt(i));
+			if (node < 0) {
+				return new int[] { 0, 0 };
+			}
+		}
+		if (prefix.length() == depth) {
+			return new int[] { starts[node], ends[node] };
+		}
+
+		int start = Arrays.binarySearch(words, starts[node], ends[node], prefix);
+		start = start < 0 ? -(start + 1) : start;
+		int end = start;
+		while (end < ends[node] && words[end].startsWith(prefix)) {
+			end++;
+		}
+		return new int[] { start, end };
+	}
+
+	/**
+	 * Number of words that start with a prefix
+	 *
+	 * @param prefix	to be looked up
+	 * @return number of words
+	 */
+	public int count(String prefix) {
+		int[] range = range(prefix);
+		return range[1] - range[0];
+	}
+
+	/**
+	 * Number of trie nodes, to keep an eye on memory use
+	 *
+	 * @return number of nodes
+	 */
+	public int size() {
+		return size;
+	}
+}
@@ -0,0 +1,302 @@
+import java.util.Collections;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Set;
+import java.util.TreeSet;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.Supplier;
+
+/**
+ * Bounded cache of search results in front of an inverted index, meant to be
+ * shared by every query parser (and every query file) searching that index.
+ *
+ * Results are keyed by the sorted set of query stems (or the sorted phrases of
+ * a phrase query), whether the search is exact and how many results were asked
+ * for. The cache is bounded by weight, one plus the number of results of
+ * each entry, and evicts the least recently used entries first. Whenever the
+ * index has been changed since the last lookup, the whole cache is dropped.
+ *
+ * @author pcarbajal
+ */
+public class QueryCache {
+
+	/**
+	 * Default maximum total weight, roughly the number of results kept
+	 */
+	public static final int DEFAULT_WEIGHT = 100_000;
+
+	/**
+	 * Index being searched
+	 */
+	private final InvertedIndex index;
+
+	/**
+	 * Cached results in access order, least recently used first
+	 */
+	private final LinkedHashMap<String, List<InvertedIndex.SearchMetrics>> results;
+
+	/**
+	 * Maximum total weight of the cached results
+	 */
+	private final long maxWeight;
+
+	/**
+	 * Total weight of the cached results
+	 */
+	private long weight;
+
+	/**
+	 * Modification count of the index the cached results were computed on
+	 */
+	private long modifications;
+
+	/**
+	 * Lookups answered from the cache
+	 */
+	private final LongAdder hits;
+
+	/**
+	 * Lookups that had to search the index
+	 */
+	private final LongAdder misses;
+
+	/**
+	 * Entries evicted to stay under the maximum weight
+	 */
+	private final LongAdder evictions;
+
+	/**
+	 * Creates an empty cache with the default maximum weight
+	 *
+	 * @param index	index to be searched
+	 */
+	public QueryCache(InvertedIndex index) {
+		this(index, DEFAULT_WEIGHT);
+	}
+
+	/**
+	 * Creates an empty cache
+	 *
+	 * @param index		index to be searched
+	 * @param maxWeight	maximum total weight of the cached results
+	 */
+	public QueryCache(InvertedIndex index, long maxWeight) {
+		this.index = index;
+		this.results = new LinkedHashMap<>(16, 0.75f, true);
+		this.maxWeight = maxWeight;
+		this.weight = 0;
+		this.modifications = index.getModifications();
+		this.hits = new LongAdder();
+		this.misses = new LongAdder();
+		this.evictions = new LongAdder();
+	}
+
+	/**
+	 * Returns the results of a query from the cache, or searches the index and
+	 * caches them
+	 *
+	 * @param queries	stems of the query
+	 * @param exact		whether to search exactly or by prefix
+	 * @return unmodifiable list of search results
+	 */
+	public List<InvertedIndex.SearchMetrics> search(Set<String> queries, boolean exact) {
+		return search(queries, exact, Integer.MAX_VALUE);
+	}
+
+	/**
+	 * Returns the k best results of a query from the cache, or searches the
+	 * index and caches them
+	 *
+	 * @param queries	stems of the query
+	 * @param exact		whether to search exactly or by prefix
+	 * @param k			maximum number of results
+	 * @return unmodifiable list of search results
+	 */
+	public List<InvertedIndex.SearchMetrics> search(Set<String> queries, boolean exact, int k) {
+		return lookup(key(queries, exact, k), () -> index.search(queries, exact, k));
+	}
+
+	/**
+	 * Returns the k best results of a phrase query from the cache, or searches
+	 * the index and caches them
+	 *
+	 * @param phrases	stems of each phrase, in phrase order
+	 * @param k			maximum number of results
+	 * @return unmodifiable list of search results
+	 */
+	public List<InvertedIndex.SearchMetrics> phraseSearch(List<List<String>> phrases, int k) {
+		return lookup(phraseKey(phrases, k), () -> index.phraseSearch(phrases, k));
+	}
+
+	/**
+	 * Returns the k best results of a boolean query from the cache, or searches
+	 * the index and caches them
+	 *
+	 * @param query	parsed query
+	 * @param exact	whether to search exactly or by prefix
+	 * @param k		maximum number of results
+	 * @return unmodifiable list of search results
+	 */
+	public List<InvertedIndex.SearchMetrics> booleanSearch(BooleanQuery query, boolean exact, int k) {
+		String limit = k == Integer.MAX_VALUE ? "" : "top " + k + " ";
+		String key = "boolean " + (exact ? "exact " : "partial ") + limit + query;
+		return lookup(key, () -> index.booleanSearch(query, exact, k));
+	}
+
+	/**
+	 * Returns cached results, or runs a search and caches its results
+	 *
+	 * @param key		normalized query
+	 * @param search	search of the index
+	 * @return unmodifiable list of search results
+	 */
+	private List<InvertedIndex.SearchMetrics> lookup(String key, Supplier<List<InvertedIndex.SearchMetrics>> search) {
+		synchronized (results) {
+			long current = index.getModifications();
+			if (current != modifications) { // computed on an older index
+				clear();
+				modifications = current;
+			}
+			List<InvertedIndex.SearchMetrics> cached = results.get(key);
+			if (cached != null) {
+				hits.increment();
+				return cached;
+			}
+		}
+
+		misses.increment();
+		long before = index.getModifications();
+		List<InvertedIndex.SearchMetrics> found = Collections.unmodifiableList(search.get());
+		synchronized (results) {
+			if (before == modifications && before == index.getModifications() && !results.containsKey(key)) { // not if the index changed meanwhile
+				results.put(key, found);
+				weight += weight(found);
+				evict();
+			}
+		}
+		return found;
+	}
+
+	/**
+	 * Drops every cached result, for when the index is changed
+	 */
+	public void invalidate() {
+		synchronized (results) {
+			clear();
+		}
+	}
+
+	/**
+	 * Drops every cached result while holding the lock
+	 */
+	private void clear() {
+		results.clear();
+		weight = 0;
+	}
+
+	/**
+	 * Evicts the least recently used results until the cache fits again
+	 */
+	private void evict() {
+		Iterator<List<InvertedIndex.SearchMetrics>> it = results.values().iterator();
+		while (weight > maxWeight && it.hasNext()) {
+			weight -= weight(it.next());
+			it.remove();
+			evictions.increment();
+		}
+	}
+
+	/**
+	 * Normalizes a query into a cache key
+	 *
+	 * @param queries	stems of the query
+	 * @param exact		whether to search exactly or by prefix
+	 * @param k			maximum number of results
+	 * @return key of the query
+	 */
+	private static String key(Set<String> queries, boolean exact, int k) {
+		String limit = k == Integer.MAX_VALUE ? "" : "top " + k + " ";
+		return (exact ? "exact " : "partial ") + limit + String.join(" ", new TreeSet<>(queries));
+	}
+
+	/**
+	 * Normalizes a phrase query into a cache key. The phrases must all match, so
+	 * their order does not matter.
+	 *
+	 * @param phrases	stems of each phrase, in phrase order
+	 * @param k			maximum number of results
+	 * @return key of the query
+	 */
+	private static String phraseKey(List<List<String>> phrases, int k) {
+		String limit = k == Integer.MAX_VALUE ? "" : "top " + k + " ";
+		return "phrase " + limit + QueryParser.join(phrases);
+	}
+
+	/**
+	 * Weight of a cached result list
+	 *
+	 * @param found	results of a query
+	 * @return one plus the number of results
+	 */
+	private static long weight(List<InvertedIndex.SearchMetrics> found) {
+		return 1L + found.size();
+	}
+
+	/**
+	 * Number of lookups answered from the cache
+	 *
+	 * @return hit count
+	 */
+	public long getHits() {
+		return hits.sum();
+	}
+
+	/**
+	 * Number of lookups that had to search the index
+	 *
+	 * @return miss count
+	 */
+	public long getMisses() {
+		return misses.sum();
+	}
+
+	/**
+	 * Number of entries evicted to stay under the maximum weight
+	 *
+	 * @return eviction count
+	 */
+	public long getEvictions() {
+		return evictions.sum();
+	}
+
+	/**
+	 * Number of cached queries
+	 *
+	 * @return number of entries
+	 */
+	public int size() {
+		synchronized (results) {
+			return results.size();
+		}
+	}
+
+	/**
+	 * Total weight of the cached results
+	 *
+	 * @return current weight
+	 */
+	public long getWeight() {
+		synchronized (results) {
+			return weight;
+		}
+	}
+
+	@Override
+	public String toString() {
+		long lookups = getHits() + getMisses();
+		return String.format("%d queries cached (weight %d of %d), %d hits, %d misses (%.1f%% hit rate), %d evictions",
+				size(), getWeight(), maxWeight, getHits(), getMisses(), lookups == 0 ? 0.0 : 100.0 * getHits() / lookups,
+				getEvictions());
+	}
+}
@@ -1,18 +1,20 @@
 import java.io.BufferedReader;
 import java.io.IOException;
+import java.io.UncheckedIOException;
 import java.nio.charset.StandardCharsets;
 import java.nio.file.Files;
 import java.nio.file.Path;
+import java.util.ArrayList;
 import java.util.Map;
 import java.util.Set;
 import java.util.TreeMap;
+import java.util.TreeSet;
 
 
 
 import java.util.List;
 
 import opennlp.tools.stemmer.Stemmer;
-import opennlp.tools.stemmer.snowball.SnowballStemmer;
 
 /**
  * Put it as a class of its own as suggested by Professor
@@ -29,6 +31,29 @@ public class QueryParser {
 	 * Declaring inverted index
 	 */
 	private final InvertedIndex index;
+
+	/**
+	 * Cache of search results shared with other parsers, may be null
+	 */
+	private final QueryCache cache;
+
+	/**
+	 * Maximum number of results kept per query
+	 */
+	private final int limit;
+
+	/**
+	 * Bounded store the results are written out from, null to keep them all in
+	 * memory
+	 */
+	private final ResultsSpool spool;
+
+	/**
+	 * Whether query lines with double quotes are parsed as phrase queries, and
+	 * lines with AND, OR, NOT or parentheses as boolean queries, instead of
+	 * plain ones
+	 */
+	private final boolean syntax;
 	
 	/**
 	 * Setting up class and data structure
@@ -36,7 +61,62 @@ public class QueryParser {
 	 * @param invertedIndex	invertedIndex access
 	 */
 	public QueryParser(InvertedIndex invertedIndex) {
+		this(invertedIndex, null);
+	}
+
+	/**
+	 * Setting up class and data structure, searching through a shared cache of
+	 * search results
+	 * 
+	 * @param invertedIndex	invertedIndex access
+	 * @param cache			cache of search results, or null to always search the index
+	 */
+	public QueryParser(InvertedIndex invertedIndex, QueryCache cache) {
+		this(invertedIndex, cache, Integer.MAX_VALUE);
+	}
+
+	/**
+	 * Setting up class and data structure, keeping only the best results of each
+	 * query
+	 * 
+	 * @param invertedIndex	invertedIndex access
+	 * @param cache			cache of search results, or null to always search the index
+	 * @param limit			maximum number of results per query
+	 */
+	public QueryParser(InvertedIndex invertedIndex, QueryCache cache, int limit) {
+		this(invertedIndex, cache, limit, null);
+	}
+
+	/**
+	 * Setting up class and data structure, streaming the results through a
+	 * bounded spool instead of keeping them all until they are written
+	 * 
+	 * @param invertedIndex	invertedIndex access
+	 * @param cache			cache of search results, or null to always search the index
+	 * @param limit			maximum number of results per query
+	 * @param spool			bounded store of the results, or null to keep them in memory
+	 */
+	public QueryParser(InvertedIndex invertedIndex, QueryCache cache, int limit, ResultsSpool spool) {
+		this(invertedIndex, cache, limit, spool, false);
+	}
+
+	/**
+	 * Setting up class and data structure, optionally parsing the phrase and
+	 * boolean query syntax (see {@link #phrases(String, Stemmer)} and
+	 * {@link BooleanQuery})
+	 * 
+	 * @param invertedIndex	invertedIndex access
+	 * @param cache			cache of search results, or null to always search the index
+	 * @param limit			maximum number of results per query
+	 * @param spool			bounded store of the results, or null to keep them in memory
+	 * @param syntax		whether phrases and boolean operators are parsed
+	 */
+	public QueryParser(InvertedIndex invertedIndex, QueryCache cache, int limit, ResultsSpool spool, boolean syntax) {
 		this.index = invertedIndex;
+		this.cache = cache;
+		this.limit = limit;
+		this.spool = spool;
+		this.syntax = syntax;
 		allQueryResults = new TreeMap<>();
 	}
 		
@@ -53,9 +133,52 @@ public class QueryParser {
 			while((line = br.readLine()) != null) {
 				performSearch(line, exact);
 			}
+		} catch (UncheckedIOException e) { // a spilled run could not be written
+			throw e.getCause();
 		}
 	}
 	
+	/**
+	 * Searches a whole query file as one batch: the plain queries are collected
+	 * first, then planned together so that queries sharing stems or prefixes
+	 * share the work (see {@link QueryPlanner}). Phrase and boolean queries are
+	 * searched line by line as usual. The batch does not go through the cache.
+	 * 
+	 * @param path	path to be read in
+	 * @param exact	flag to check exact or partial search
+	 * @throws IOException	throws exception
+	 */
+	public void performBatchSearch(Path path, boolean exact) throws IOException {
+		Stemmer stemmer = StemCache.ENGLISH;
+		Map<String, Set<String>> batch = new TreeMap<>();
+		try (BufferedReader br = Files.newBufferedReader(path, StandardCharsets.UTF_8)) {
+			String line;
+			while((line = br.readLine()) != null) {
+				if (syntax && (isPhraseQuery(line) || BooleanQuery.isBooleanQuery(line))) {
+					performSearch(line, exact);
+					continue;
+				}
+				Set<String> query = TextFileStemmer.uniqueStems(line, stemmer);
+				if (!query.isEmpty()) {
+					batch.putIfAbsent(String.join(" ", query), query);
+				}
+			}
+		} catch (UncheckedIOException e) {
+			throw e.getCause();
+		}
+
+		QueryPlanner planner = index.plan(batch.values(), exact);
+		try {
+			for (Map.Entry<String, Set<String>> query : batch.entrySet()) {
+				if (!searched(query.getKey())) {
+					store(query.getKey(), planner.search(query.getValue(), limit));
+				}
+			}
+		} catch (UncheckedIOException e) {
+			throw e.getCause();
+		}
+	}
+
 	/**
 	 * Breaks and cleans the line into queries
 	 * Conducts search and stores them 
@@ -64,20 +187,123 @@ public class QueryParser {
 	 * @param exact	flag to check if exact or partial
 	 */
 	public void performSearch(String line, boolean exact) {
-		Stemmer stemmer = new SnowballStemmer(TextFileStemmer.DEFAULT);
-		Set<String> query = TextFileStemmer.uniqueStems(line, stemmer);
+		Stemmer stemmer = StemCache.ENGLISH;
+		if (syntax && isPhraseQuery(line)) {
+			List<List<String>> phrases = phrases(line, stemmer);
+			if (phrases.isEmpty()) {
+				return;
+			}
+			String joined = join(phrases);
+			if (!searched(joined)) {
+				store(joined, cache != null ? cache.phraseSearch(phrases, limit) : index.phraseSearch(phrases, limit));
+			}
+			return;
+		}
+		Set<String> query;
+		if (syntax && BooleanQuery.isBooleanQuery(line)) {
+			BooleanQuery booleanQuery = BooleanQuery.parse(line, stemmer);
+			if (booleanQuery == null) {
+				return;
+			}
+			query = booleanQuery.disjunction();
+			if (query == null) {
+				String joined = booleanQuery.toString();
+				if (!searched(joined)) {
+					store(joined, cache != null ? cache.booleanSearch(booleanQuery, exact, limit) : index.booleanSearch(booleanQuery, exact, limit));
+				}
+				return;
+			} // words only ORed together are the plain query of those words
+		} else {
+			query = TextFileStemmer.uniqueStems(line, stemmer);
+		}
 		if (query.isEmpty()) {
 			return;
 		}
 		String joined = String.join(" ", query);
 		 
-		if (allQueryResults.containsKey(joined)) {
+		if (searched(joined)) {
 			return;
 		}
 		
-		allQueryResults.put(joined, index.search(query, exact));
+		store(joined, cache != null ? cache.search(query, exact, limit) : index.search(query, exact, limit));
+	}
+
+	/**
+	 * Checks if a query has been searched already
+	 * 
+	 * @param joined	text the query is reported under
+	 * @return true if its results are kept (a spooled query may be searched again)
+	 */
+	private boolean searched(String joined) {
+		return spool != null ? spool.contains(joined) : allQueryResults.containsKey(joined);
+	}
+
+	/**
+	 * Keeps the results of a query, in memory or in the spool
+	 * 
+	 * @param joined	text the query is reported under
+	 * @param results	results of the query
+	 */
+	private void store(String joined, List<InvertedIndex.SearchMetrics> results) {
+		if (spool != null) {
+			spool.put(joined, results);
+		} else {
+			allQueryResults.put(joined, results);
+		}
 	}
 	
+	/**
+	 * Checks if a query line has quoted phrases
+	 * 
+	 * @param line	text line of a query
+	 * @return true if the line has a double quote
+	 */
+	public static boolean isPhraseQuery(String line) {
+		return line.indexOf('"') >= 0;
+	}
+
+	/**
+	 * Breaks a query line into phrases: the stems between each pair of double
+	 * quotes form one phrase, and every stem outside quotes is a phrase of its
+	 * own. An unclosed quote runs to the end of the line.
+	 * 
+	 * @param line		text line of a query
+	 * @param stemmer	stemmer to stem the words
+	 * @return stems of each phrase, in phrase order, without empty phrases
+	 */
+	public static List<List<String>> phrases(String line, Stemmer stemmer) {
+		List<List<String>> phrases = new ArrayList<>();
+		String[] parts = line.split("\"", -1);
+		for (int i = 0; i < parts.length; i++) {
+			List<String> stems = TextFileStemmer.listStems(parts[i], stemmer);
+			if (i % 2 == 1) { // between quotes
+				if (!stems.isEmpty()) {
+					phrases.add(stems);
+				}
+			} else {
+				for (String stem : stems) {
+					phrases.add(List.of(stem));
+				}
+			}
+		}
+		return phrases;
+	}
+
+	/**
+	 * Joins phrases into the text a phrase query is reported under: each distinct
+	 * phrase in double quotes, sorted, since every phrase must match anyway
+	 * 
+	 * @param phrases	stems of each phrase
+	 * @return the phrases joined by spaces
+	 */
+	public static String join(List<List<String>> phrases) {
+		Set<String> quoted = new TreeSet<>();
+		for (List<String> phrase : phrases) {
+			quoted.add('"' + String.join(" ", phrase) + '"');
+		}
+		return String.join(" ", quoted);
+	}
+
 	/**
 	 * Writing search results to Json format
 	 * 
@@ -85,6 +311,10 @@ public class QueryParser {
 	 * @throws IOException	throws exception
 	 */
 	public void writeSearchResults(Path resultsPath) throws IOException {
+		if (spool != null) {
+			spool.writeTo(resultsPath);
+			return;
+		}
 		JsonWriter.searchResultsToJson(allQueryResults,resultsPath);
 	}
 }
\ No newline at end of file
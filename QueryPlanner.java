@@ -0,0 +1,276 @@
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * Plans the plain queries of a whole query file at once. Every distinct stem is
+ * expanded (looked up exactly, or every index word it is a prefix of) only
+ * once, and every index word it expands to has its postings read and weighed
+ * only once, however many queries share it. Each query is then put together
+ * from those prepared lists.
+ *
+ * When the scorer ignores weights, or a stem expands to a single word, the
+ * lists of a stem are merged into one, so a broad prefix costs a query no more
+ * than one list of documents. Otherwise the words of a stem are kept apart,
+ * so that weights are added up in the same order as a single search and the
+ * results are exactly the same.
+ *
+ * A plan is a snapshot of the index: it does not follow later changes.
+ *
+ * @author pcarbajal
+ */
+public class QueryPlanner {
+
+	/**
+	 * Index the results are made for
+	 */
+	private final InvertedIndex index;
+
+	/**
+	 * View of the index the plan was made from
+	 */
+	private final IndexView view;
+
+	/**
+	 * Ranking model
+	 */
+	private final Scorer scorer;
+
+	/**
+	 * Prepared lists of each distinct stem
+	 */
+	private final Map<String, Part[]> stems;
+
+	/**
+	 * Number of index words read
+	 */
+	private final int words;
+
+	/**
+	 * Plans a batch of queries
+	 *
+	 * @param index		index the results are made for
+	 * @param view		view of the index
+	 * @param scorer	ranking model
+	 * @param queries	stems of each query
+	 * @param exact		whether to search exactly or by prefix
+	 */
+	QueryPlanner(InvertedIndex index, IndexView view, Scorer scorer, Collection<Set<String>> queries, boolean exact) {
+		this.index = index;
+		this.view = view;
+		this.scorer = scorer;
+		this.stems = new HashMap<>();
+		Map<Integer, Part> fetched = new HashMap<>(); // index words read so far
+		for (Set<String> query : queries) {
+			for (String stem : query) {
+				if (stems.containsKey(stem)) continue;
+				int[] ids;
+				if (exact) {
+					int w = view.find(stem);
+					ids = w >= 0 ? new int[] { w } : new int[0];
+				} else {
+					ids = view.prefixed(stem);
+				}
+				Part[] parts = new Part[ids.length];
+				for (int i = 0; i < ids.length; i++) {
+					parts[i] = fetched.computeIfAbsent(ids[i], this::fetch);
+				}
+				if (parts.length > 1 && !scorer.weighted()) {
+					parts = new Part[] { merge(parts) };
+				}
+				stems.put(stem, parts);
+			}
+		}
+		this.words = fetched.size();
+	}
+
+	/**
+	 * Searches for a query of the batch
+	 *
+	 * @param query	stems of the query, all part of the plan
+	 * @param k		maximum number of results
+	 * @return the same results as {@link InvertedIndex#search(Set, boolean, int)}
+	 */
+	public List<InvertedIndex.SearchMetrics> search(Set<String> query, int k) {
+		int[] counts = new int[view.size()];
+		double[] weights = scorer.weighted() ? new double[view.size()] : null;
+		int[] hits = new int[view.size()];
+		int size = 0;
+		for (String stem : query) {
+			for (Part part : stems.get(stem)) {
+				for (int i = 0; i < part.documents.length; i++) {
+					int d = part.documents[i];
+					if (counts[d] == 0) {
+						hits[size++] = d;
+					}
+					counts[d] += part.counts[i];
+					if (weights != null) {
+						weights[d] += part.weights[i];
+					}
+				}
+			}
+		}
+
+		double threshold = Double.NEGATIVE_INFINITY;
+		double[] scores = null;
+		if (k < size) { // only results scoring at least the k-th best can be kept
+			scores = new double[size];
+			for (int i = 0; i < size; i++) {
+				int d = hits[i];
+				scores[i] = scorer.score(weights == null ? 0 : weights[d], counts[d], view.length(d));
+			}
+			threshold = kthLargest(scores, k);
+		}
+
+		List<InvertedIndex.SearchMetrics> results = new ArrayList<>(Math.min(size, k));
+		for (int i = 0; i < size; i++) {
+			if (scores != null && scores[i] < threshold) continue;
+			int d = hits[i];
+			InvertedIndex.SearchMetrics metrics = index.new SearchMetrics(view.location(d), scorer);
+			metrics.update(counts[d], view.length(d), weights == null ? 0 : weights[d]);
+			results.add(metrics);
+		}
+		return InvertedIndex.best(results, k);
+	}
+
+	/**
+	 * Finds the k-th largest of some scores with a bounded heap
+	 *
+	 * @param scores	scores, more than k
+	 * @param k			rank to be found, at least 1
+	 * @return k-th largest score
+	 */
+	private static double kthLargest(double[] scores, int k) {
+		double[] heap = new double[k]; // the k largest so far, smallest first
+		for (int i = 0; i < k; i++) {
+			int h = i;
+			while (h > 0 && heap[(h - 1) >>> 1] > scores[i]) {
+				heap[h] = heap[(h - 1) >>> 1];
+				h = (h - 1) >>> 1;
+			}
+			heap[h] = scores[i];
+		}
+		for (int i = k; i < scores.length; i++) {
+			if (scores[i] <= heap[0]) continue;
+			int h = 0;
+			while (true) {
+				int child = 2 * h + 1;
+				if (child >= k) break;
+				if (child + 1 < k && heap[child + 1] < heap[child]) {
+					child++;
+				}
+				if (heap[child] >= scores[i]) break;
+				heap[h] = heap[child];
+				h = child;
+			}
+			heap[h] = scores[i];
+		}
+		return heap[0];
+	}
+
+	/**
+	 * Number of distinct stems in the plan
+	 *
+	 * @return number of stems
+	 */
+	public int numStems() {
+		return stems.size();
+	}
+
+	/**
+	 * Number of index words the stems expanded to, each read once
+	 *
+	 * @return number of words
+	 */
+	public int numWords() {
+		return words;
+	}
+
+	/**
+	 * Reads the postings of an index word and weighs them
+	 *
+	 * @param w	word id
+	 * @return documents, counts and weights of the word
+	 */
+	private Part fetch(int w) {
+		Postings postings = view.postings(w);
+		int[] documents = new int[postings.size()];
+		int[] counts = new int[documents.length];
+		double[] weights = scorer.weighted() ? new double[documents.length] : null;
+		double idf = scorer.idf(documents.length, view.size());
+		for (int i = 0; i < documents.length; i++) {
+			documents[i] = postings.document(i);
+			counts[i] = postings.frequency(i);
+			if (weights != null) {
+				weights[i] = scorer.weight(counts[i], view.length(documents[i]), idf, view.getAverageLength());
+			}
+		}
+		return new Part(documents, counts, weights);
+	}
+
+	/**
+	 * Merges the lists of the words of a stem, without weights, keeping the
+	 * documents in the order a search would first find them
+	 *
+	 * @param parts	lists of the words, in word order
+	 * @return one list with the summed counts
+	 */
+	private Part merge(Part[] parts) {
+		int[] counts = new int[view.size()];
+		int[] hits = new int[view.size()];
+		int size = 0;
+		for (Part part : parts) {
+			for (int i = 0; i < part.documents.length; i++) {
+				int d = part.documents[i];
+				if (counts[d] == 0) {
+					hits[size++] = d;
+				}
+				counts[d] += part.counts[i];
+			}
+		}
+		int[] documents = new int[size];
+		int[] merged = new int[size];
+		for (int i = 0; i < size; i++) {
+			documents[i] = hits[i];
+			merged[i] = counts[hits[i]];
+		}
+		return new Part(documents, merged, null);
+	}
+
+	/**
+	 * Documents of a list with their counts and weights
+	 */
+	private static class Part {
+
+		/**
+		 * Documents, in the order a search finds them
+		 */
+		private final int[] documents;
+
+		/**
+		 * Matches in each document
+		 */
+		private final int[] counts;
+
+		/**
+		 * Weight in each document, null if the scorer ignores weights
+		 */
+		private final double[] weights;
+
+		/**
+		 * Creates a list
+		 *
+		 * @param documents	documents
+		 * @param counts	matches in each document
+		 * @param weights	weight in each document, or null
+		 */
+		private Part(int[] documents, int[] counts, double[] weights) {
+			this.documents = documents;
+			this.counts = counts;
+			this.weights = weights;
+		}
+	}
+}
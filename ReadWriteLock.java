@@ -100,18 +100,18 @@ public class ReadWriteLock {
 		 * increase the number of active readers.
 		 */
 		@Override
-		public synchronized void lock() {
-			//synchronized (monitor) {
+		public void lock() {
+			synchronized (monitor) {
 				while(numWriterThreads > 0) {
 					try {
-						this.wait();
+						monitor.wait();
 					} catch(InterruptedException e) {
 						// log and re-interrupt
 						log.error(e.getMessage() + " interrupted while trying to acquire read lock");
 					}
 				}
 				numReaderThreads++;
-			//}
+			}
 		}
 
 		/**
@@ -119,13 +119,11 @@ public class ReadWriteLock {
 		 * necessary.
 		 */
 		@Override
-		public synchronized void unlock() {
-			//synchronized (monitor) {
+		public void unlock() {
+			synchronized (monitor) {
 				numReaderThreads--;
-			//}
-			//if (currentWriterThread != Thread.currentThread()) {
-				notifyAll();
-			//}
+				monitor.notifyAll();
+			}
 		}
 	}
 
@@ -140,19 +138,21 @@ public class ReadWriteLock {
 		 * holds the write lock.
 		 */
 		@Override
-		public synchronized void lock() {
-			while (numWriterThreads > 0 || numReaderThreads > 0) {
-				try {
-					this.wait();
-				} catch (InterruptedException e) {
-					//re interrupt
-					log.error(e.getMessage() + " exceptio while trying to acquire write lock");
-					Thread.currentThread().interrupt();
+		public void lock() {
+			synchronized (monitor) {
+				while (numWriterThreads > 0 || numReaderThreads > 0) {
+					try {
+						monitor.wait();
+					} catch (InterruptedException e) {
+						//re interrupt
+						log.error(e.getMessage() + " exceptio while trying to acquire write lock");
+						Thread.currentThread().interrupt();
+					}
 				}
+				currentWriterThread = Thread.currentThread();
+				numWriterThreads++;
+				log.debug("Locking {}, numWriterThreads {}", Thread.currentThread().getName(), numWriterThreads);
 			}
-			currentWriterThread = Thread.currentThread();
-			numWriterThreads++;
-			log.debug("Locking {}, numWriterThreads {}", Thread.currentThread().getName(), numWriterThreads);
 		}
 
 		/**
@@ -166,38 +166,17 @@ public class ReadWriteLock {
 		 * calling lock or if unlock is called by a thread that does not hold the write lock
 		 */
 		@Override
-		public synchronized void unlock() throws ConcurrentModificationException {
-			if (numWriterThreads < 1 || !sameThread(currentWriterThread)) {
-				log.fatal("wrong thread is calling unlock or lock has not yet been called {}", Thread.currentThread().getName());
-				throw new ConcurrentModificationException();
+		public void unlock() throws ConcurrentModificationException {
+			synchronized (monitor) {
+				if (numWriterThreads < 1 || !sameThread(currentWriterThread)) {
+					log.fatal("wrong thread is calling unlock or lock has not yet been called {}", Thread.currentThread().getName());
+					throw new ConcurrentModificationException();
+				}
+				currentWriterThread = null;
+				numWriterThreads--;
+				log.debug("Unlocking {}, num writer threads %{}", Thread.currentThread().getName(), numWriterThreads);
+				monitor.notifyAll();
 			}
-			currentWriterThread = null;
-			numWriterThreads--;
-			log.debug("Unlocking {}, num writer threads %{}", Thread.currentThread().getName(), numWriterThreads);
-			notifyAll();		
 		}
 	}
 }
-
-/**
- * A simple lock used for conditional synchronization as an alternative to using
- * a {@code synchronized} block.
- *
- */
-interface SimpleLock { // TODO Make a public interface?
-
-	// NOTE: DO NOT MODIFY THIS CLASS
-
-	/**
-	 * Acquires the lock. If the lock is not available then the current thread
-	 * becomes disabled for thread scheduling purposes and lies dormant until the
-	 * lock has been acquired.
-	 */
-	public void lock();
-
-	/**
-	 * Releases the lock.
-	 */
-	public void unlock();
-
-}
\ No newline at end of file
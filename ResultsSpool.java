@@ -0,0 +1,448 @@
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.BufferedWriter;
+import java.io.Closeable;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.io.StringWriter;
+import java.io.UncheckedIOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.PriorityQueue;
+import java.util.TreeMap;
+
+/**
+ * Holds the search results of a query file in bounded memory until they are
+ * written out, for query files too large to keep every result list around.
+ *
+ * Results are turned into their JSON text as soon as they are stored, so they
+ * no longer hold on to the index, and kept sorted by query. Once the buffered
+ * results weigh more than the maximum, one plus the number of results of each
+ * query as in {@link QueryCache}, they are spilled to a temporary file as a
+ * sorted run and the buffer starts over. The results file is written by
+ * merging the runs and what is left in the buffer, so it is the same as
+ * {@link JsonWriter#searchResultsToJson(Map, Path)} of every result at once.
+ * A query stored again after it was spilled is only written once.
+ *
+ * Storing is thread-safe; the JSON text is made before taking the lock.
+ *
+ * @author pcarbajal
+ */
+public class ResultsSpool implements Closeable {
+
+	/**
+	 * Default maximum weight of the buffered results, roughly their number
+	 */
+	public static final int DEFAULT_WEIGHT = 100_000;
+
+	/**
+	 * Most runs merged at once, larger numbers of runs are merged in passes
+	 */
+	public static final int MERGE_FACTOR = 32;
+
+	/**
+	 * Buffered results as JSON arrays, by query
+	 */
+	private final TreeMap<String, String> buffer;
+
+	/**
+	 * Maximum weight of the buffered results
+	 */
+	private final long maxWeight;
+
+	/**
+	 * Weight of the buffered results
+	 */
+	private long weight;
+
+	/**
+	 * Sorted runs spilled so far
+	 */
+	private final List<Path> runs;
+
+	/**
+	 * Number of queries spilled so far
+	 */
+	private long spilled;
+
+	/**
+	 * Creates an empty spool
+	 *
+	 * @param maxWeight	maximum weight of the buffered results
+	 */
+	public ResultsSpool(long maxWeight) {
+		this.buffer = new TreeMap<>();
+		this.maxWeight = maxWeight;
+		this.weight = 0;
+		this.runs = new ArrayList<>();
+		this.spilled = 0;
+	}
+
+	/**
+	 * Checks if the results of a query are still buffered, so that searching it
+	 * again can be skipped. A query that has been spilled is not found.
+	 *
+	 * @param query	query the results are stored under
+	 * @return true if they are buffered
+	 */
+	public synchronized boolean contains(String query) {
+		return buffer.containsKey(query);
+	}
+
+	/**
+	 * Stores the results of a query, spilling the buffer to a run if it has
+	 * grown too heavy
+	 *
+	 * @param query		query the results are stored under
+	 * @param results	results of the query
+	 * @throws UncheckedIOException	if a run cannot be written
+	 */
+	public void put(String query, Collection<InvertedIndex.SearchMetrics> results) {
+		StringWriter json = new StringWriter();
+		try {
+			JsonWriter.asSearchResultsArray(results, json, 1);
+		} catch (IOException e) {
+			throw new UncheckedIOException(e); // not thrown by a StringWriter
+		}
+		synchronized (this) {
+			if (buffer.putIfAbsent(query, json.toString()) != null) {
+				return;
+			}
+			weight += 1L + results.size();
+			if (weight > maxWeight) {
+				try {
+					spill();
+				} catch (IOException e) {
+					throw new UncheckedIOException("Unable to spill search results", e);
+				}
+			}
+		}
+	}
+
+	/**
+	 * Writes the buffer to a new run and empties it
+	 *
+	 * @throws IOException	throws exception
+	 */
+	private void spill() throws IOException {
+		Path run = Files.createTempFile("results", ".run");
+		try (RunWriter writer = new RunWriter(run)) {
+			for (Map.Entry<String, String> entry : buffer.entrySet()) {
+				writer.write(entry.getKey(), entry.getValue());
+			}
+		}
+		runs.add(run);
+		spilled += buffer.size();
+		buffer.clear();
+		weight = 0;
+	}
+
+	/**
+	 * Writes every stored result to a file as a JSON object sorted by query
+	 *
+	 * @param path	path of the results file
+	 * @throws IOException	throws exception
+	 */
+	public synchronized void writeTo(Path path) throws IOException {
+		while (runs.size() > MERGE_FACTOR) { // merge the oldest runs into one until the rest fit in a single pass
+			List<Path> group = new ArrayList<>(runs.subList(0, MERGE_FACTOR));
+			Path merged = Files.createTempFile("results", ".run");
+			try (RunWriter writer = new RunWriter(merged)) {
+				merge(open(group, false), writer::write);
+			}
+			for (Path run : group) {
+				Files.delete(run);
+			}
+			runs.subList(0, MERGE_FACTOR).clear();
+			runs.add(merged);
+		}
+
+		try (BufferedWriter writer = Files.newBufferedWriter(path, StandardCharsets.UTF_8)) {
+			writer.write("{\n");
+			boolean[] first = { true };
+			merge(open(runs, true), (query, json) -> {
+				if (!first[0]) {
+					writer.write(",\n");
+				}
+				first[0] = false;
+				JsonWriter.quote(query, writer, 1);
+				writer.write(": ");
+				writer.write(json);
+			});
+			writer.write("\n");
+			JsonWriter.indent(writer, 1);
+			writer.write("}");
+		}
+	}
+
+	/**
+	 * Opens a cursor over each of some runs, and over the buffer if asked
+	 *
+	 * @param paths		runs to be read
+	 * @param buffered	whether to read the buffer too
+	 * @return cursors, not yet started
+	 * @throws IOException	throws exception
+	 */
+	private List<Cursor> open(List<Path> paths, boolean buffered) throws IOException {
+		List<Cursor> cursors = new ArrayList<>();
+		try {
+			for (Path run : paths) {
+				cursors.add(new RunCursor(run));
+			}
+		} catch (IOException e) {
+			for (Cursor cursor : cursors) {
+				cursor.close();
+			}
+			throw e;
+		}
+		if (buffered) {
+			cursors.add(new BufferCursor(buffer.entrySet().iterator()));
+		}
+		return cursors;
+	}
+
+	/**
+	 * Merges sorted cursors, giving each query once, then closes them
+	 *
+	 * @param cursors	cursors to be merged
+	 * @param output	where the merged entries go
+	 * @throws IOException	throws exception
+	 */
+	private static void merge(List<Cursor> cursors, Output output) throws IOException {
+		PriorityQueue<Cursor> queue = new PriorityQueue<>((a, b) -> a.query.compareTo(b.query));
+		try {
+			for (Cursor cursor : cursors) {
+				if (cursor.next()) {
+					queue.add(cursor);
+				}
+			}
+			String last = null;
+			while (!queue.isEmpty()) {
+				Cursor cursor = queue.poll();
+				if (!cursor.query.equals(last)) { // the same query gives the same results
+					output.write(cursor.query, cursor.json);
+					last = cursor.query;
+				}
+				if (cursor.next()) {
+					queue.add(cursor);
+				}
+			}
+		} finally {
+			for (Cursor cursor : cursors) {
+				cursor.close();
+			}
+		}
+	}
+
+	/**
+	 * Number of runs spilled so far and not yet merged
+	 *
+	 * @return number of runs
+	 */
+	public synchronized int numRuns() {
+		return runs.size();
+	}
+
+	/**
+	 * Number of queries spilled so far
+	 *
+	 * @return number of spilled queries
+	 */
+	public synchronized long numSpilled() {
+		return spilled;
+	}
+
+	/**
+	 * Deletes the runs and empties the buffer
+	 *
+	 * @throws IOException	throws exception
+	 */
+	@Override
+	public synchronized void close() throws IOException {
+		for (Path run : runs) {
+			Files.deleteIfExists(run);
+		}
+		runs.clear();
+		buffer.clear();
+		weight = 0;
+	}
+
+	/**
+	 * Receives the merged entries
+	 */
+	private interface Output {
+
+		/**
+		 * Takes an entry
+		 *
+		 * @param query	query of the entry
+		 * @param json	results of the query as a JSON array
+		 * @throws IOException	throws exception
+		 */
+		void write(String query, String json) throws IOException;
+	}
+
+	/**
+	 * Entries of a sorted source, one at a time
+	 */
+	private abstract static class Cursor implements Closeable {
+
+		/**
+		 * Query of the current entry
+		 */
+		protected String query;
+
+		/**
+		 * Results of the current entry as a JSON array
+		 */
+		protected String json;
+
+		/**
+		 * Moves to the next entry
+		 *
+		 * @return true if there is one
+		 * @throws IOException	throws exception
+		 */
+		protected abstract boolean next() throws IOException;
+
+		@Override
+		public void close() throws IOException {
+		}
+	}
+
+	/**
+	 * Entries of the buffer
+	 */
+	private static class BufferCursor extends Cursor {
+
+		/**
+		 * Entries left
+		 */
+		private final Iterator<Map.Entry<String, String>> entries;
+
+		/**
+		 * @param entries	entries of the buffer
+		 */
+		private BufferCursor(Iterator<Map.Entry<String, String>> entries) {
+			this.entries = entries;
+		}
+
+		@Override
+		protected boolean next() {
+			if (!entries.hasNext()) {
+				return false;
+			}
+			Map.Entry<String, String> entry = entries.next();
+			query = entry.getKey();
+			json = entry.getValue();
+			return true;
+		}
+	}
+
+	/**
+	 * Entries of a run file: each one is a query and its JSON text, as lengths
+	 * followed by UTF-8 bytes, and the run ends with a negative length
+	 */
+	private static class RunCursor extends Cursor {
+
+		/**
+		 * Run being read
+		 */
+		private final DataInputStream in;
+
+		/**
+		 * @param run	run to be read
+		 * @throws IOException	throws exception
+		 */
+		private RunCursor(Path run) throws IOException {
+			this.in = new DataInputStream(new BufferedInputStream(Files.newInputStream(run)));
+		}
+
+		@Override
+		protected boolean next() throws IOException {
+			query = read();
+			if (query == null) {
+				return false;
+			}
+			json = read();
+			return true;
+		}
+
+		/**
+		 * Reads a string
+		 *
+		 * @return the string, or null at the end of the run
+		 * @throws IOException	throws exception
+		 */
+		private String read() throws IOException {
+			int length = in.readInt();
+			if (length < 0) {
+				return null;
+			}
+			byte[] bytes = new byte[length];
+			in.readFully(bytes);
+			return new String(bytes, StandardCharsets.UTF_8);
+		}
+
+		@Override
+		public void close() throws IOException {
+			in.close();
+		}
+	}
+
+	/**
+	 * Writes a run file, read back by {@link RunCursor}
+	 */
+	private static class RunWriter implements Closeable {
+
+		/**
+		 * Run being written
+		 */
+		private final DataOutputStream out;
+
+		/**
+		 * @param run	run to be written
+		 * @throws IOException	throws exception
+		 */
+		private RunWriter(Path run) throws IOException {
+			this.out = new DataOutputStream(new BufferedOutputStream(Files.newOutputStream(run)));
+		}
+
+		/**
+		 * Writes an entry
+		 *
+		 * @param query	query of the entry
+		 * @param json	results of the query as a JSON array
+		 * @throws IOException	throws exception
+		 */
+		private void write(String query, String json) throws IOException {
+			write(query);
+			write(json);
+		}
+
+		/**
+		 * Writes a string
+		 *
+		 * @param text	string to be written
+		 * @throws IOException	throws exception
+		 */
+		private void write(String text) throws IOException {
+			byte[] bytes = text.getBytes(StandardCharsets.UTF_8);
+			out.writeInt(bytes.length);
+			out.write(bytes);
+		}
+
+		@Override
+		public void close() throws IOException {
+			out.writeInt(-1);
+			out.close();
+		}
+	}
+}
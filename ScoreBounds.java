@@ -0,0 +1,77 @@
+/**
+ * Highest weight each word of an index can add to the score of a document,
+ * under one scorer. Pruned top-k searches (see {@link MaxScore}) skip the
+ * documents whose best possible score cannot reach the results kept so far.
+ *
+ * Computing the bounds reads every posting once, so they are kept with the
+ * index statistics and only computed again for another scorer or another
+ * snapshot.
+ *
+ * @author pcarbajal
+ */
+public class ScoreBounds {
+
+	/**
+	 * Ranking model the bounds were computed for
+	 */
+	private final Scorer scorer;
+
+	/**
+	 * Bound of each word
+	 */
+	private final double[] bounds;
+
+	/**
+	 * Computes the bounds of every word of a view
+	 *
+	 * @param view		view of the index
+	 * @param scorer	ranking model
+	 */
+	public ScoreBounds(IndexView view, Scorer scorer) {
+		this.scorer = scorer;
+		this.bounds = new double[view.numWords()];
+		for (int w = 0; w < bounds.length; w++) {
+			bounds[w] = compute(view, w, scorer);
+		}
+	}
+
+	/**
+	 * Whether these bounds were computed for a scorer
+	 *
+	 * @param scorer	ranking model
+	 * @return true if they were
+	 */
+	public boolean isFor(Scorer scorer) {
+		return this.scorer == scorer;
+	}
+
+	/**
+	 * Bound of a word
+	 *
+	 * @param w	word id
+	 * @return highest weight the word can add to a score
+	 */
+	public double get(int w) {
+		return bounds[w];
+	}
+
+	/**
+	 * Computes the bound of one word by reading its postings
+	 *
+	 * @param view		view of the index
+	 * @param w			word id
+	 * @param scorer	ranking model
+	 * @return highest weight the word adds to the score of any of its documents
+	 */
+	public static double compute(IndexView view, int w, Scorer scorer) {
+		Postings postings = view.postings(w);
+		double idf = scorer.idf(postings.size(), view.size());
+		double averageLength = view.getAverageLength();
+		double bound = 0;
+		for (int i = 0; i < postings.size(); i++) {
+			int d = postings.document(i);
+			bound = Math.max(bound, scorer.weight(postings.frequency(i), view.length(d), idf, averageLength));
+		}
+		return bound;
+	}
+}
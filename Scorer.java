@@ -0,0 +1,77 @@
+/**
+ * Ranking model used to score search results. A result is scored in three
+ * steps: once per matched index word from how many documents contain it, once
+ * per document that word was found in, and once more from the summed weights.
+ * The statistics of the whole index (number of documents, average document
+ * length) are kept by the index when it is built or frozen, so that switching
+ * models costs nothing extra per query.
+ *
+ * The score of a document must be the sum of the weights of the words matched
+ * in it (up to rounding), since pruned top-k searches bound scores by summing
+ * the highest weight of each word (see {@link MaxScore}).
+ *
+ * @author pcarbajal
+ */
+public interface Scorer {
+
+	/**
+	 * Weight of an index word that does not depend on the document, such as an
+	 * inverse document frequency
+	 *
+	 * @param documentFrequency	number of documents the word was found in
+	 * @param documents			number of documents in the index
+	 * @return weight of the word
+	 */
+	double idf(int documentFrequency, int documents);
+
+	/**
+	 * Weight of an index word in one document
+	 *
+	 * @param frequency		number of times the word was found in the document
+	 * @param length		number of words in the document
+	 * @param idf			weight of the word, see {@link #idf(int, int)}
+	 * @param averageLength	average number of words per document
+	 * @return weight of the word in the document
+	 */
+	double weight(int frequency, int length, double idf, double averageLength);
+
+	/**
+	 * Score of a document
+	 *
+	 * @param weights	sum of the weights of the words matched in the document
+	 * @param count		number of matches in the document
+	 * @param length	number of words in the document
+	 * @return score of the document, higher is better
+	 */
+	double score(double weights, int count, int length);
+
+	/**
+	 * Whether {@link #score(double, int, int)} uses the weights at all. If not,
+	 * searches skip computing them.
+	 *
+	 * @return true unless the score depends on the counts only
+	 */
+	default boolean weighted() {
+		return true;
+	}
+
+	/**
+	 * Returns the scorer with a name
+	 *
+	 * @param name	tf, tfidf or bm25
+	 * @return the scorer, or null if there is none with that name
+	 */
+	static Scorer forName(String name) {
+		if (name == null) return null;
+		switch (name.toLowerCase()) {
+			case "tf":
+				return new TermFrequencyScorer();
+			case "tfidf":
+				return new TfIdfScorer();
+			case "bm25":
+				return new Bm25Scorer();
+			default:
+				return null;
+		}
+	}
+}
@@ -0,0 +1,176 @@
+import java.util.concurrent.atomic.LongAdder;
+
+import opennlp.tools.stemmer.Stemmer;
+import opennlp.tools.stemmer.snowball.SnowballStemmer;
+
+/**
+ * Bounded cache of stems in front of a Snowball stemmer, shared by every thread
+ * that indexes or searches. Word frequencies are skewed, so most words seen
+ * have been stemmed before.
+ *
+ * The cache is a fixed table where each word can only go in one slot, picked
+ * by its hash; a word stemmed later takes the slot over. A lookup reads one
+ * slot without locking and a hit allocates nothing. A miss stems the word with
+ * a stemmer of the calling thread, since Snowball stemmers cannot be shared,
+ * and publishes an immutable entry. Threads may race for a slot; the loser's
+ * entry is simply not kept.
+ *
+ * @author pcarbajal
+ */
+public class StemCache implements Stemmer {
+
+	/**
+	 * Default number of slots
+	 */
+	public static final int DEFAULT_CAPACITY = 1 << 14;
+
+	/**
+	 * Shared cache of the English stemmer used to index and search
+	 */
+	public static final StemCache ENGLISH = new StemCache(SnowballStemmer.ALGORITHM.ENGLISH, DEFAULT_CAPACITY);
+
+	/**
+	 * Stemmer of each thread, for misses
+	 */
+	private final ThreadLocal<Stemmer> stemmers;
+
+	/**
+	 * Cached words with their stems, by hash
+	 */
+	private final Entry[] table;
+
+	/**
+	 * Lookups answered from the cache
+	 */
+	private final LongAdder hits;
+
+	/**
+	 * Lookups that had to stem the word
+	 */
+	private final LongAdder misses;
+
+	/**
+	 * Creates an empty cache
+	 *
+	 * @param algorithm	stemming algorithm
+	 * @param capacity	number of slots, rounded up to a power of two
+	 */
+	public StemCache(SnowballStemmer.ALGORITHM algorithm, int capacity) {
+		this.stemmers = ThreadLocal.withInitial(() -> new SnowballStemmer(algorithm));
+		this.table = new Entry[Integer.highestOneBit(Math.max(1, capacity - 1)) << 1];
+		this.hits = new LongAdder();
+		this.misses = new LongAdder();
+	}
+
+	/**
+	 * Stems a word, from the cache if it was stemmed before. The word is only
+	 * copied into a string on a miss, so a reused buffer such as a
+	 * {@link Tokenizer} can be passed as is.
+	 *
+	 * @param word	to be stemmed
+	 * @return the stem
+	 */
+	@Override
+	public String stem(CharSequence word) {
+		int hash = hash(word);
+		int slot = (hash ^ (hash >>> 16)) & (table.length - 1);
+		Entry entry = table[slot];
+		if (entry != null && entry.word.contentEquals(word)) {
+			hits.increment();
+			return entry.stem;
+		}
+		misses.increment();
+		String key = word.toString();
+		String stem = stemmers.get().stem(key).toString();
+		table[slot] = new Entry(key, stem);
+		return stem;
+	}
+
+	/**
+	 * Hash of a word, the same as {@link String#hashCode()} of its characters
+	 *
+	 * @param word	word to be hashed
+	 * @return hash code
+	 */
+	private static int hash(CharSequence word) {
+		if (word instanceof String) {
+			return word.hashCode();
+		}
+		int hash = 0;
+		for (int i = 0; i < word.length(); i++) {
+			hash = 31 * hash + word.charAt(i);
+		}
+		return hash;
+	}
+
+	/**
+	 * Number of lookups answered from the cache
+	 *
+	 * @return hit count
+	 */
+	public long getHits() {
+		return hits.sum();
+	}
+
+	/**
+	 * Number of lookups that had to stem the word
+	 *
+	 * @return miss count
+	 */
+	public long getMisses() {
+		return misses.sum();
+	}
+
+	/**
+	 * Share of the lookups answered from the cache
+	 *
+	 * @return hit rate between 0 and 1, 0 before any lookup
+	 */
+	public double getHitRate() {
+		long hit = getHits();
+		long lookups = hit + getMisses();
+		return lookups == 0 ? 0.0 : (double) hit / lookups;
+	}
+
+	/**
+	 * Number of slots
+	 *
+	 * @return capacity
+	 */
+	public int capacity() {
+		return table.length;
+	}
+
+	@Override
+	public String toString() {
+		return String.format("%d slots, %d hits, %d misses (%.1f%% hit rate)", capacity(), getHits(), getMisses(),
+				100.0 * getHitRate());
+	}
+
+	/**
+	 * A word with its stem
+	 */
+	private static class Entry {
+
+		/**
+		 * The word
+		 */
+		private final String word;
+
+		/**
+		 * Its stem
+		 */
+		private final String stem;
+
+		/**
+		 * Creates an entry
+		 *
+		 * @param word	the word
+		 * @param stem	its stem
+		 */
+		private Entry(String word, String stem) {
+			this.word = word;
+			this.stem = stem;
+		}
+	}
+}
@@ -0,0 +1,34 @@
+/**
+ * Default ranking: the number of matches divided by the number of words in the
+ * document. The score is computed from the counts directly; the weight of a
+ * word, its own share of the score, is only used to bound scores when pruning.
+ *
+ * @author pcarbajal
+ */
+public class TermFrequencyScorer implements Scorer {
+
+	@Override
+	public double idf(int documentFrequency, int documents) {
+		return 0;
+	}
+
+	@Override
+	public double weight(int frequency, int length, double idf, double averageLength) {
+		return (double) frequency / length;
+	}
+
+	@Override
+	public double score(double weights, int count, int length) {
+		return (double) count / length;
+	}
+
+	@Override
+	public boolean weighted() {
+		return false;
+	}
+
+	@Override
+	public String toString() {
+		return "tf";
+	}
+}
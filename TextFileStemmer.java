@@ -32,7 +32,7 @@ public class TextFileStemmer {
 
 	/**
 	 * Returns a set of unique (no duplicates) cleaned and stemmed words parsed from
-	 * the provided line. (cool)
+	 * the provided line. (cool) Stems go through the shared {@link StemCache}.
 	 *
 	 * @param line the line of words to clean, split, and stem
 	 * @return a sorted set of unique cleaned and stemmed words
@@ -42,7 +42,7 @@ public class TextFileStemmer {
 	 * @see #uniqueStems(String, Stemmer)
 	 */
 	public static Set<?> uniqueStems(String line) {
-		return uniqueStems(line, new SnowballStemmer(DEFAULT));
+		return uniqueStems(line, StemCache.ENGLISH);
 	}
 
 	/**
@@ -59,9 +59,10 @@ public class TextFileStemmer {
 
 	public static Set<String> uniqueStems(String line, Stemmer stemmer) {
 		Set<String> set = new TreeSet<>();
-		String[] split = TextParser.parse(line);
-		for (String word : split) {
-			String stemmedString = toStem((word), stemmer);
+		Tokenizer tokenizer = new Tokenizer();
+		tokenizer.reset(line);
+		while (tokenizer.next()) {
+			String stemmedString = stemmer.stem(tokenizer).toString();
 			if (!stemmedString.equals("")) {
 				set.add(stemmedString);
 			}
@@ -69,6 +70,27 @@ public class TextFileStemmer {
 		return set;
 	}
 
+	/**
+	 * Returns the cleaned and stemmed words parsed from the provided line, in
+	 * order and with duplicates, as needed for phrases
+	 *
+	 * @param line    the line of words to clean, split, and stem
+	 * @param stemmer the stemmer to use
+	 * @return list of cleaned and stemmed words
+	 */
+	public static List<String> listStems(String line, Stemmer stemmer) {
+		List<String> list = new ArrayList<>();
+		Tokenizer tokenizer = new Tokenizer();
+		tokenizer.reset(line);
+		while (tokenizer.next()) {
+			String stemmedString = stemmer.stem(tokenizer).toString();
+			if (!stemmedString.equals("")) {
+				list.add(stemmedString);
+			}
+		}
+		return list;
+	}
+
 	/**
 	 * Reads a file line by line, parses each line into cleaned and stemmed words,
 	 * and then adds those words to a set.
@@ -82,7 +104,7 @@ public class TextFileStemmer {
 	 */
 	public static List<String> uniqueStems(Path inputFile) throws IOException {
 		List<String> list = new ArrayList<>();
-		Stemmer stemmer = new SnowballStemmer(DEFAULT);
+		Stemmer stemmer = StemCache.ENGLISH;
 		String newFile = inputFile.toString();
 		try (BufferedReader br = new BufferedReader(new FileReader(newFile, StandardCharsets.UTF_8))) {
 			String line;
@@ -105,7 +127,7 @@ public class TextFileStemmer {
 	 */
 	public static List<Set<String>> queriesFromFile(String inputFile) {
 		List<Set<String>> queries = new ArrayList<>();
-		Stemmer stemmer = new SnowballStemmer(DEFAULT);
+		Stemmer stemmer = StemCache.ENGLISH;
 		try (BufferedReader br = new BufferedReader(new FileReader(inputFile, StandardCharsets.UTF_8))) {
 			String line;
 			while((line = br.readLine()) != null) {
@@ -1,4 +1,6 @@
 import java.text.Normalizer;
+import java.util.ArrayList;
+import java.util.List;
 import java.util.regex.Pattern;
 
 /**
@@ -42,15 +44,22 @@ public class TextParser {
 	}
 
 	/**
-	 * Cleans the text and then splits it by whitespace.
+	 * Cleans the text and then splits it by whitespace, in a single pass for
+	 * ASCII text (see {@link Tokenizer}).
 	 *
 	 * @param text the text to clean and split
-	 * @return an array of {@link String} objects
+	 * @return an array of {@link String} objects, the same as split(clean(text))
 	 *
 	 * @see #clean(String)
-	 * @see #parse(String)
+	 * @see #split(String)
 	 */
 	public static String[] parse(String text) {
-		return split(clean(text));
+		List<String> words = new ArrayList<>();
+		Tokenizer tokenizer = new Tokenizer();
+		tokenizer.reset(text);
+		while (tokenizer.next()) {
+			words.add(tokenizer.toString());
+		}
+		return words.toArray(new String[0]);
 	}
 }
\ No newline at end of file
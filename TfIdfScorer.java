@@ -0,0 +1,28 @@
+/**
+ * Ranks by the sum, over the matched words, of the relative frequency of the
+ * word in the document times the log of how rare the word is in the index
+ *
+ * @author pcarbajal
+ */
+public class TfIdfScorer implements Scorer {
+
+	@Override
+	public double idf(int documentFrequency, int documents) {
+		return Math.log((double) documents / documentFrequency);
+	}
+
+	@Override
+	public double weight(int frequency, int length, double idf, double averageLength) {
+		return (double) frequency / length * idf;
+	}
+
+	@Override
+	public double score(double weights, int count, int length) {
+		return weights;
+	}
+
+	@Override
+	public String toString() {
+		return "tfidf";
+	}
+}
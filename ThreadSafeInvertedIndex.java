@@ -1,3 +1,14 @@
+import java.io.IOException;
+import java.nio.file.Path;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.function.Supplier;
+
 // should we lock at the addAll? or at addEntry?
 
 /**
@@ -9,17 +20,79 @@
 public class ThreadSafeInvertedIndex extends InvertedIndex {
 	
 	/**
-	 * lock object declaration
+	 * lock used for reading
+	 */
+	private final SimpleLock readLock;
+
+	/**
+	 * lock used for writing
+	 */
+	private final SimpleLock writeLock;
+
+	/**
+	 * Lock that issues the stamps of optimistic reads, or null when reads always
+	 * take the read lock
+	 */
+	private final WriterPreferringReadWriteLock optimisticLock;
+
+	/**
+	 * Whether merges run concurrently instead of under the write lock
 	 */
-	private final ReadWriteLock lock;
+	private final boolean concurrent;
+
+	/**
+	 * Whether this thread holds the read lock for a whole traversal, in which
+	 * case the getters hand out the live views instead of copies
+	 */
+	private final ThreadLocal<Boolean> traversing;
 
 
 	/**
 	 * Instantiating my inverted index
 	 */
 	public ThreadSafeInvertedIndex() {
-		super();
-		lock = new ReadWriteLock();
+		this(false);
+	}
+
+	/**
+	 * Instantiating my inverted index, optionally in concurrent build mode. In
+	 * that mode the index is backed by concurrent skip lists and
+	 * {@link #addAll(InvertedIndex)} does not take the global write lock, so
+	 * workers merging different words proceed in parallel.
+	 * 
+	 * @param concurrent whether to build concurrently
+	 */
+	public ThreadSafeInvertedIndex(boolean concurrent) {
+		this(concurrent, false);
+	}
+
+	/**
+	 * Instantiating my inverted index, optionally in concurrent build mode and
+	 * optionally optimistic. In optimistic mode the lock is a
+	 * {@link WriterPreferringReadWriteLock}, and contains and search do not take
+	 * it at all unless a merge happens meanwhile (see {@link #read(Supplier)}).
+	 * The index is then backed by concurrent skip lists even when it is not
+	 * built concurrently, so that a read without the lock never walks a tree in
+	 * the middle of a rebalance.
+	 * 
+	 * @param concurrent whether to build concurrently
+	 * @param optimistic whether to use the writer-preferring optimistic lock
+	 */
+	public ThreadSafeInvertedIndex(boolean concurrent, boolean optimistic) {
+		super(concurrent || optimistic);
+		this.concurrent = concurrent;
+		this.traversing = ThreadLocal.withInitial(() -> false);
+		if (optimistic) {
+			WriterPreferringReadWriteLock lock = new WriterPreferringReadWriteLock();
+			optimisticLock = lock;
+			readLock = lock.readLock();
+			writeLock = lock.writeLock();
+		} else {
+			optimisticLock = null;
+			ReadWriteLock lock = new ReadWriteLock();
+			readLock = lock.readLock();
+			writeLock = lock.writeLock();
+		}
 	}
 
 //	/**
@@ -33,22 +106,22 @@ public class ThreadSafeInvertedIndex extends InvertedIndex {
 	/*
 	@Override
 	public void addEntry(String word, String location, int position) {
-		lock.writeLock().lock();
+		writeLock.lock();
 		try {
 			super.addEntry(word, location, position);
 		} finally {
-			lock.writeLock().unlock();
+			writeLock.unlock();
 		}
 	}
 	*/
 	/*
 	@Override
 	public void incrementWordCount(String location) {
-		lock.writeLock().lock();
+		writeLock.lock();
 		try {
 			super.incrementWordCount(location);
 		} finally {
-			lock.writeLock().unlock();
+			writeLock.unlock();
 		}
 	}
 	*/
@@ -56,11 +129,45 @@ public class ThreadSafeInvertedIndex extends InvertedIndex {
 	
 	@Override
 	public void addAll(InvertedIndex local) {
-		lock.writeLock().lock();
+		if (concurrent) { // the skip lists take care of it
+			super.addAll(local);
+			return;
+		}
+		writeLock.lock();
+		try {
+			super.addAll(local);
+		} finally {
+			writeLock.unlock();
+		}
+	}
+
+	/**
+	 * Removes some locations under the write lock, even in concurrent build
+	 * mode, since a word left without locations is dropped as a whole. Merges
+	 * that do not take the lock must not run at the same time.
+	 */
+	@Override
+	public void removeLocations(Set<String> locations) {
+		writeLock.lock();
+		try {
+			super.removeLocations(locations);
+		} finally {
+			writeLock.unlock();
+		}
+	}
+
+	/**
+	 * Removes and adds under a single write lock, so that a search sees either
+	 * the old files or the new ones, never a file missing in between
+	 */
+	@Override
+	public void replaceLocations(Set<String> locations, InvertedIndex local) {
+		writeLock.lock();
 		try {
+			super.removeLocations(locations);
 			super.addAll(local);
 		} finally {
-			lock.writeLock().unlock();
+			writeLock.unlock();
 		}
 	}
 	
@@ -72,11 +179,11 @@ public class ThreadSafeInvertedIndex extends InvertedIndex {
 	 */
 //	@Override
 //	protected void incrementWordCount(String location) {
-//		lock.writeLock().lock();
+//		writeLock.lock();
 //		try {
 //			super.incrementWordCount(location);
 //		} finally {
-//			lock.writeLock().unlock();
+//			writeLock.unlock();
 //		}
 //	}
 
@@ -88,12 +195,7 @@ public class ThreadSafeInvertedIndex extends InvertedIndex {
 	 */
 	@Override
 	public boolean contains(String word) {
-		lock.readLock().lock();
-		try {
-			return super.contains(word);
-		} finally {
-			lock.readLock().unlock();
-		}
+		return read(() -> super.contains(word));
 	}
 
 	/**
@@ -105,12 +207,7 @@ public class ThreadSafeInvertedIndex extends InvertedIndex {
 	 */
 	@Override
 	public boolean contains(String word, String location) {
-		lock.readLock().lock();
-		try {
-			return super.contains(word, location);
-		} finally {
-			lock.readLock().unlock();
-		}
+		return read(() -> super.contains(word, location));
 	}
 
 	/**
@@ -123,14 +220,279 @@ public class ThreadSafeInvertedIndex extends InvertedIndex {
 	 */
 	@Override
 	public boolean contains(String word, String location, int position) {
-		lock.readLock().lock();
+		return read(() -> super.contains(word, location, position));
+	}
+	
+	/**
+	 * Searches under the read lock, or without it in optimistic mode (see
+	 * {@link #read(Supplier)})
+	 * 
+	 * @param queries 	query to be processed
+	 * @param exact 	determines the switch of which function to run
+	 * @return List of SearchMetrics objects
+	 */
+	@Override
+	public List<SearchMetrics> search(Set<String> queries, boolean exact) {
+		return read(() -> super.search(queries, exact));
+	}
+
+	/**
+	 * Top-k search under the read lock, or without it in optimistic mode
+	 * (see {@link #read(Supplier)})
+	 * 
+	 * @param queries 	query to be processed
+	 * @param exact 	whether to search exactly or by prefix
+	 * @param k			maximum number of results
+	 * @return the k best SearchMetrics objects
+	 */
+	@Override
+	public List<SearchMetrics> search(Set<String> queries, boolean exact, int k) {
+		return read(() -> super.search(queries, exact, k));
+	}
+
+	/**
+	 * Phrase search under the read lock, or without it in optimistic mode
+	 * (see {@link #read(Supplier)})
+	 * 
+	 * @param phrases	stems of each phrase, in phrase order
+	 * @param k			maximum number of results
+	 * @return the k best SearchMetrics objects
+	 */
+	@Override
+	public List<SearchMetrics> phraseSearch(List<List<String>> phrases, int k) {
+		return read(() -> super.phraseSearch(phrases, k));
+	}
+
+	/**
+	 * Plans a batch of queries under the read lock, or without it in
+	 * optimistic mode (see {@link #read(Supplier)})
+	 * 
+	 * @param queries	stems of each query
+	 * @param exact		whether to search exactly or by prefix
+	 * @return plan to search the queries with
+	 */
+	@Override
+	public QueryPlanner plan(Collection<Set<String>> queries, boolean exact) {
+		return read(() -> super.plan(queries, exact));
+	}
+
+	/**
+	 * Boolean search under the read lock, or without it in optimistic mode
+	 * (see {@link #read(Supplier)})
+	 * 
+	 * @param query	parsed query
+	 * @param exact	whether to search exactly or by prefix
+	 * @param k		maximum number of results
+	 * @return the k best SearchMetrics objects
+	 */
+	@Override
+	public List<SearchMetrics> booleanSearch(BooleanQuery query, boolean exact, int k) {
+		return read(() -> super.booleanSearch(query, exact, k));
+	}
+
+	/**
+	 * Runs a read without any lock in optimistic mode, and keeps it only if no
+	 * merge took the write lock in the meantime. Otherwise, or if the read failed
+	 * on a word removed half way through, it runs again under the read lock.
+	 * 
+	 * @param <T>		result type
+	 * @param reader	read to be run
+	 * @return result of the read
+	 */
+	private <T> T read(Supplier<T> reader) {
+		long stamp = optimisticLock == null ? 0 : optimisticLock.tryOptimisticRead();
+		if (stamp != 0) {
+			try {
+				T result = reader.get();
+				if (optimisticLock.validate(stamp)) {
+					return result;
+				}
+			} catch (RuntimeException e) {
+				// read a merge half way through, try again under the lock
+			}
+		}
+		readLock.lock();
 		try {
-			return super.contains(word, location, position);
+			return reader.get();
 		} finally {
-			lock.readLock().unlock();
+			readLock.unlock();
 		}
 	}
-	
+
+	/**
+	 * Getter of all locations in the inverted index, copied under the read lock
+	 * so it can be iterated while merges go on
+	 * 
+	 * @return unmodifiable copy
+	 */
+	@Override
+	public Set<String> getLocations() {
+		readLock.lock();
+		try {
+			return traversing.get() ? super.getLocations() : Collections.unmodifiableSet(new LinkedHashSet<>(super.getLocations()));
+		} finally {
+			readLock.unlock();
+		}
+	}
+
+	/**
+	 * Getter of all words in the inverted index, in sorted order, copied under
+	 * the read lock so it can be iterated while merges go on
+	 * 
+	 * @return unmodifiable copy
+	 */
+	@Override
+	public Set<String> getWords() {
+		readLock.lock();
+		try {
+			return traversing.get() ? super.getWords() : Collections.unmodifiableSet(new LinkedHashSet<>(super.getWords()));
+		} finally {
+			readLock.unlock();
+		}
+	}
+
+	/**
+	 * Getter of the locations a word was found in, in sorted order, copied
+	 * under the read lock
+	 * 
+	 * @param word to be looked up
+	 * @return unmodifiable copy, empty if the word is not in the index
+	 */
+	@Override
+	public Set<String> getLocations(String word) {
+		readLock.lock();
+		try {
+			return traversing.get() ? super.getLocations(word) : Collections.unmodifiableSet(new LinkedHashSet<>(super.getLocations(word)));
+		} finally {
+			readLock.unlock();
+		}
+	}
+
+	/**
+	 * Getter of the positions a word was found at in a location, in sorted
+	 * order, copied under the read lock
+	 * 
+	 * @param word     to be looked up
+	 * @param location of word in a file
+	 * @return unmodifiable copy, empty if the word is not in that location
+	 */
+	@Override
+	public Set<Integer> getPositions(String word, String location) {
+		readLock.lock();
+		try {
+			return traversing.get() ? super.getPositions(word, location) : Collections.unmodifiableSet(new LinkedHashSet<>(super.getPositions(word, location)));
+		} finally {
+			readLock.unlock();
+		}
+	}
+
+	/**
+	 * Getter of every location a word was found in mapped to its positions, in
+	 * sorted order, copied under the read lock
+	 * 
+	 * @param word to be looked up
+	 * @return unmodifiable copy, empty if the word is not in the index
+	 */
+	@Override
+	public Map<String, ? extends Collection<Integer>> getPostings(String word) {
+		readLock.lock();
+		try {
+			if (traversing.get()) {
+				return super.getPostings(word);
+			}
+			Map<String, List<Integer>> postings = new LinkedHashMap<>(); // already in sorted order
+			for (Map.Entry<String, ? extends Collection<Integer>> location : super.getPostings(word).entrySet()) {
+				postings.put(location.getKey(), List.copyOf(location.getValue()));
+			}
+			return Collections.unmodifiableMap(postings);
+		} finally {
+			readLock.unlock();
+		}
+	}
+
+	/**
+	 * Creates the snapshot while holding the read lock, so no merge is seen
+	 * half way through. The snapshot reads the live maps rather than copies of
+	 * them, since no merge can happen meanwhile.
+	 * 
+	 * @return frozen copy of this index
+	 */
+	@Override
+	public FrozenInvertedIndex freeze() {
+		readLock.lock();
+		traversing.set(true);
+		try {
+			return super.freeze();
+		} finally {
+			traversing.set(false);
+			readLock.unlock();
+		}
+	}
+
+	/**
+	 * Writes the inverted index under the read lock, so no merge is seen half
+	 * way through
+	 * 
+	 * @param path Path to be written
+	 * @throws IOException throws exception
+	 */
+	@Override
+	public void writeIndex(Path path) throws IOException {
+		readLock.lock();
+		try {
+			super.writeIndex(path);
+		} finally {
+			readLock.unlock();
+		}
+	}
+
+	/**
+	 * Writes the word counts under the read lock
+	 * 
+	 * @param path Path to be written
+	 * @throws IOException throws exception
+	 */
+	@Override
+	public void writeCounts(Path path) throws IOException {
+		readLock.lock();
+		try {
+			super.writeCounts(path);
+		} finally {
+			readLock.unlock();
+		}
+	}
+
+	/**
+	 * Returns the inverted index as pretty JSON, made under the read lock
+	 * 
+	 * @return String representation (JSON) of the inverted index
+	 */
+	@Override
+	public String toString() {
+		readLock.lock();
+		try {
+			return super.toString();
+		} finally {
+			readLock.unlock();
+		}
+	}
+
+	/**
+	 * Getter of the number of words stored for a location
+	 * 
+	 * @param location of which is counted
+	 * @return word count, 0 if the location is not in the index
+	 */
+	@Override
+	public int getWordCount(String location) {
+		readLock.lock();
+		try {
+			return super.getWordCount(location);
+		} finally {
+			readLock.unlock();
+		}
+	}
+
 	/*
 	 * TODO Need to override and lock every public method from InvertedIndex
 	 * that directly accesses the private data that could be shared between threads
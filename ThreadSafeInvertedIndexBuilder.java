@@ -1,12 +1,15 @@
 import java.io.IOException;
-import java.nio.file.FileVisitOption;
+import java.io.UncheckedIOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
 import java.nio.file.Files;
 import java.nio.file.Path;
-import java.nio.file.attribute.BasicFileAttributes;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Collections;
 import java.util.List;
+import java.util.concurrent.atomic.AtomicInteger;
 import java.util.function.Predicate;
-import java.util.stream.Collectors;
-import java.util.stream.Stream;
 
 import org.apache.logging.log4j.LogManager;
 import org.apache.logging.log4j.Logger;
@@ -39,31 +42,26 @@ public class ThreadSafeInvertedIndexBuilder {
 	 */
 	private static Logger log = LogManager.getLogger();
 
+	/**
+	 * Files larger than this many bytes are split into chunks indexed in parallel
+	 */
+	public static final long DEFAULT_CHUNK_SIZE = 1 << 23;
+
 	/**
 	 * Checks if the path given is a text file
 	 */
-	public static final Predicate<Path> IS_TEXT_FILE = (Path p) -> {
-		try {
-			BasicFileAttributes basicAttr = Files.readAttributes(p, BasicFileAttributes.class);
-			String pathStr = p.toString().toLowerCase();
-			return ((pathStr.endsWith(".txt") || pathStr.endsWith(".text")) && basicAttr.isRegularFile());
-		} catch (IOException e) {
-			return false;
-		}
-	};
+	public static final Predicate<Path> IS_TEXT_FILE = InvertedIndexBuilder.IS_TEXT_FILE;
 
 	/**
 	 * Traverses a path for a file or directory
 	 * 
 	 * @param start argument to be traversed
-	 * @return Stream<Path> open stream to process file
+	 * @return text files found, in the order of the walk
 	 * @throws IOException	throws exception
+	 * @see InvertedIndexBuilder#find(Path)
 	 */
 	public static List<Path> find(Path start) throws IOException {
-		try (Stream<Path> stream = Files.walk(start, Integer.MAX_VALUE, FileVisitOption.FOLLOW_LINKS)
-				.filter(IS_TEXT_FILE)) {
-			return stream.collect(Collectors.toList());
-		}
+		return InvertedIndexBuilder.find(start);
 	}
 	
 	/**
@@ -75,14 +73,490 @@ public class ThreadSafeInvertedIndexBuilder {
 	 * @throws IOException	throws exception
 	 */
 	public static void buildInvertedIndexFromPath(ThreadSafeInvertedIndex invertedIndex, Path inputPath, WorkQueue workQueue) throws IOException {
-		List<Path> files = find(inputPath); //main thread
+		buildInvertedIndexFromPath(invertedIndex, inputPath, workQueue, DEFAULT_CHUNK_SIZE);
+	}
+
+	/**
+	 * Builds inverted index with one task per file, and several for a file
+	 * larger than the chunk size. Such a file is split after line breaks into
+	 * chunks of about the chunk size, each one indexed on its own with positions
+	 * starting over at 1. Once every chunk is done, the positions of each chunk
+	 * are moved past the words of the chunks before it and the chunks are
+	 * merged, so the index is the same as if the file had been read whole.
+	 *
+	 * Each file is submitted as soon as the walk finds it, with the size the
+	 * walk read, so the workers start on the first files while the rest of the
+	 * tree is still being walked.
+	 *
+	 * @param invertedIndex InvertedIndex data structure
+	 * @param inputPath     input path to be read and traversed recursively
+	 * @param workQueue 	array of workers for multi-threading
+	 * @param chunkSize		size in bytes above which a file is split
+	 * @throws IOException	if a directory cannot be read, once the files found
+	 *                      before it are indexed
+	 */
+	public static void buildInvertedIndexFromPath(ThreadSafeInvertedIndex invertedIndex, Path inputPath, WorkQueue workQueue, long chunkSize) throws IOException {
+		List<ChunkedFile> chunked = new ArrayList<>();
+		try {
+			InvertedIndexBuilder.forEachTextFile(inputPath, //main thread
+					(path, attrs) -> submit(invertedIndex, path, attrs.size(), workQueue, chunkSize, chunked));
+		} finally {
+			workQueue.finish();
+		}
+		mergeChunks(invertedIndex, chunked, workQueue);
+	}
+
+	/**
+	 * Builds inverted index from some files, with one task per file, and several
+	 * for a file larger than the chunk size
+	 *
+	 * @param invertedIndex InvertedIndex data structure
+	 * @param files			files to be read
+	 * @param workQueue 	array of workers for multi-threading
+	 * @param chunkSize		size in bytes above which a file is split
+	 * @see #buildInvertedIndexFromPath(ThreadSafeInvertedIndex, Path, WorkQueue, long)
+	 */
+	public static void buildInvertedIndexFromFiles(ThreadSafeInvertedIndex invertedIndex, List<Path> files, WorkQueue workQueue, long chunkSize) {
+		List<ChunkedFile> chunked = new ArrayList<>();
 		for (Path path : files) {
+			submit(invertedIndex, path, -1, workQueue, chunkSize, chunked);
+		}
+		workQueue.finish();
+		mergeChunks(invertedIndex, chunked, workQueue);
+	}
+
+	/**
+	 * Submits the tasks that index a file: one for the whole file, or one per
+	 * chunk if it is larger than the chunk size
+	 *
+	 * @param invertedIndex InvertedIndex data structure
+	 * @param path			file to be indexed
+	 * @param size			size of the file if already known, or -1
+	 * @param workQueue 	array of workers for multi-threading
+	 * @param chunkSize		size in bytes above which a file is split
+	 * @param chunked		files that were split, to be merged once indexed
+	 */
+	private static void submit(ThreadSafeInvertedIndex invertedIndex, Path path, long size, WorkQueue workQueue, long chunkSize, List<ChunkedFile> chunked) {
+		ChunkedFile file = size >= 0 && size <= chunkSize ? null : ChunkedFile.split(path, chunkSize);
+		if (file != null) { // one task per chunk, merged once every chunk is counted
+			chunked.add(file);
+			for (int i = 0; i < file.locals.length; i++) {
+				workQueue.execute(new ChunkTask(file, i));
+			}
+		} else if (workQueue instanceof VirtualThreadQueue) { // read without holding a CPU permit
+			((VirtualThreadQueue) workQueue).executeBlocking(new VirtualIndexTask(path, invertedIndex, (VirtualThreadQueue) workQueue));
+		} else {
 			workQueue.execute(new InvertedIndexBuilderTask(path, invertedIndex));
+		}
+	}
 
+	/**
+	 * Merges the chunks of the files that were split, once every chunk is
+	 * indexed, moving the positions of each chunk past the chunks before it
+	 *
+	 * @param invertedIndex InvertedIndex data structure
+	 * @param chunked		files that were split
+	 * @param workQueue 	array of workers for multi-threading
+	 */
+	private static void mergeChunks(ThreadSafeInvertedIndex invertedIndex, List<ChunkedFile> chunked, WorkQueue workQueue) {
+		for (ChunkedFile file : chunked) {
+			if (file.failed) { // like a file read whole, nothing of it is kept
+				System.out.println("unable to index " + file.path);
+				continue;
+			}
+			int offset = 0;
+			for (InvertedIndex local : file.locals) {
+				workQueue.execute(new ChunkMergeTask(invertedIndex, local, offset));
+				offset += local.getWordCount(file.path.toString());
+			}
 		}
 		workQueue.finish();
 	}
+
+	/**
+	 * A file split into chunks and the local indexes of its chunks
+	 *
+	 * @author pcarbajal
+	 */
+	private static class ChunkedFile {
+
+		/**
+		 * file being indexed
+		 */
+		private final Path path;
+
+		/**
+		 * offset of each chunk, followed by the size of the file
+		 */
+		private final long[] bounds;
+
+		/**
+		 * local index of each chunk, once indexed
+		 */
+		private final InvertedIndex[] locals;
+
+		/**
+		 * whether a chunk could not be indexed
+		 */
+		private volatile boolean failed;
+
+		/**
+		 * Assigns the file and its chunks
+		 *
+		 * @param path		file being indexed
+		 * @param bounds	offset of each chunk, followed by the size of the file
+		 */
+		private ChunkedFile(Path path, long[] bounds) {
+			this.path = path;
+			this.bounds = bounds;
+			this.locals = new InvertedIndex[bounds.length - 1];
+			this.failed = false;
+		}
+
+		/**
+		 * Splits a file into chunks of about the chunk size, each one ending with
+		 * a line break, so that no line or character is cut
+		 *
+		 * @param path		file to be split
+		 * @param chunkSize	size in bytes above which a file is split
+		 * @return the chunks, or null if the file is not split: it is small, has
+		 *         no line break to split at, cannot be read, or has a chunk too
+		 *         large to be mapped
+		 */
+		private static ChunkedFile split(Path path, long chunkSize) {
+			try {
+				if (Files.size(path) <= chunkSize) {
+					return null;
+				}
+			} catch (IOException e) {
+				return null; // the task reading it whole reports it
+			}
+			List<Long> bounds = new ArrayList<>();
+			try (FileChannel channel = FileChannel.open(path, StandardOpenOption.READ)) {
+				long size = channel.size();
+				ByteBuffer window = ByteBuffer.allocate(1 << 12);
+				long start = 0;
+				bounds.add(start);
+				while (size - start > chunkSize) {
+					long position = start + chunkSize;
+					long end = -1;
+					while (end < 0 && position < size) { // look for the next line break
+						window.clear();
+						int read = channel.read(window, position);
+						if (read <= 0) break;
+						for (int i = 0; i < read && end < 0; i++) {
+							byte b = window.get(i);
+							if (b == '\n' || b == '\r') {
+								end = position + i + 1;
+							}
+						}
+						position += read;
+					}
+					if (end < 0 || end >= size) break;
+					bounds.add(end);
+					start = end;
+				}
+				bounds.add(size);
+			} catch (IOException e) {
+				return null; // the task reading it whole reports it
+			}
+			if (bounds.size() < 3) {
+				return null;
+			}
+			long[] array = new long[bounds.size()];
+			for (int i = 0; i < array.length; i++) {
+				array[i] = bounds.get(i);
+				if (i > 0 && array[i] - array[i - 1] > Integer.MAX_VALUE) {
+					return null;
+				}
+			}
+			return new ChunkedFile(path, array);
+		}
+	}
+
+	/**
+	 * Task that indexes one chunk of a file into its own local index
+	 *
+	 * @author pcarbajal
+	 */
+	private static class ChunkTask implements Runnable {
+
+		/**
+		 * file the chunk belongs to
+		 */
+		private final ChunkedFile file;
+
+		/**
+		 * number of the chunk
+		 */
+		private final int chunk;
+
+		/**
+		 * Assigns the chunk to be indexed
+		 *
+		 * @param file	file the chunk belongs to
+		 * @param chunk	number of the chunk
+		 */
+		public ChunkTask(ChunkedFile file, int chunk) {
+			this.file = file;
+			this.chunk = chunk;
+		}
+
+		@Override
+		public void run() {
+			log.info("(ii builder)indexing " + file.path + " chunk " + chunk + " started");
+			try (FileChannel channel = FileChannel.open(file.path, StandardOpenOption.READ)) {
+				long start = file.bounds[chunk];
+				ByteBuffer bytes = channel.map(FileChannel.MapMode.READ_ONLY, start, file.bounds[chunk + 1] - start);
+				InvertedIndex local = new InvertedIndex();
+				InvertedIndexBuilder.addBytes(bytes, file.path.toString(), local);
+				file.locals[chunk] = local;
+			} catch (IOException e) {
+				log.debug("unable to index " + file.path + " chunk " + chunk);
+			} finally {
+				if (file.locals[chunk] == null) { // nothing of the file is kept, even on an unexpected exception
+					file.failed = true;
+				}
+				log.info("(ii builder)indexing " + file.path + " chunk " + chunk + " ended");
+			}
+		}
+	}
+
+	/**
+	 * Task that merges the local index of a chunk into the shared index, with
+	 * its positions moved past the words before the chunk
+	 *
+	 * @author pcarbajal
+	 */
+	private static class ChunkMergeTask implements Runnable {
+
+		/**
+		 * shared index
+		 */
+		private final ThreadSafeInvertedIndex invertedIndex;
+
+		/**
+		 * local index of the chunk
+		 */
+		private final InvertedIndex local;
+
+		/**
+		 * number of words of the file before the chunk
+		 */
+		private final int offset;
+
+		/**
+		 * Assigns the chunk to be merged
+		 *
+		 * @param invertedIndex	shared index
+		 * @param local			local index of the chunk
+		 * @param offset		number of words of the file before the chunk
+		 */
+		public ChunkMergeTask(ThreadSafeInvertedIndex invertedIndex, InvertedIndex local, int offset) {
+			this.invertedIndex = invertedIndex;
+			this.local = local;
+			this.offset = offset;
+		}
+
+		@Override
+		public void run() {
+			invertedIndex.addAll(local, offset);
+		}
+	}
 	
+	/**
+	 * Builds inverted index with one local index per worker instead of one per
+	 * file. Every worker keeps taking the next file and adds it to its own local
+	 * index. Once all files are read, the local indexes are merged pairwise in
+	 * parallel rounds (a merge tree) and only the last one is merged into the
+	 * shared index, so there is a single global merge instead of one per file.
+	 *
+	 * @param invertedIndex InvertedIndex data structure
+	 * @param inputPath     input path to be read and traversed recursively
+	 * @param workQueue 	array of workers for multi-threading
+	 * @throws IOException	throws exception
+	 */
+	public static void buildInvertedIndexWithMergeTree(ThreadSafeInvertedIndex invertedIndex, Path inputPath, WorkQueue workQueue) throws IOException {
+		List<Path> files = find(inputPath); //main thread
+		AtomicInteger next = new AtomicInteger();
+		List<InvertedIndex> locals = Collections.synchronizedList(new ArrayList<>());
+		for (int i = 0; i < Math.min(workQueue.size(), files.size()); i++) {
+			workQueue.execute(new LocalIndexTask(files, next, locals));
+		}
+		workQueue.finish();
+
+		while (locals.size() > 1) { // one round of the merge tree
+			List<InvertedIndex> merged = Collections.synchronizedList(new ArrayList<>());
+			for (int i = 0; i + 1 < locals.size(); i += 2) {
+				workQueue.execute(new MergeTask(locals.get(i), locals.get(i + 1), merged));
+			}
+			if (locals.size() % 2 == 1) {
+				merged.add(locals.get(locals.size() - 1));
+			}
+			workQueue.finish();
+			locals = merged;
+		}
+		if (!locals.isEmpty()) {
+			invertedIndex.addAll(locals.get(0));
+		}
+	}
+
+	/**
+	 * Task that adds files to one local index until no files are left
+	 *
+	 * @author pcarbajal
+	 */
+	private static class LocalIndexTask implements Runnable {
+
+		/**
+		 * files to be indexed, shared by all tasks
+		 */
+		private final List<Path> files;
+
+		/**
+		 * index of the next file nobody has taken yet
+		 */
+		private final AtomicInteger next;
+
+		/**
+		 * where the local index goes once all files are taken
+		 */
+		private final List<InvertedIndex> locals;
+
+		/**
+		 * Assigns the files and the list of finished local indexes
+		 *
+		 * @param files		files to be indexed
+		 * @param next		index of the next file to be taken
+		 * @param locals	list of finished local indexes
+		 */
+		public LocalIndexTask(List<Path> files, AtomicInteger next, List<InvertedIndex> locals) {
+			this.files = files;
+			this.next = next;
+			this.locals = locals;
+		}
+
+		@Override
+		public void run() {
+			InvertedIndex local = new InvertedIndex();
+			int i;
+			while ((i = next.getAndIncrement()) < files.size()) {
+				Path path = files.get(i);
+				log.info("(ii builder)indexing " + path + " started");
+				try {
+					InvertedIndex single = new InvertedIndex(); // a file failing half way is dropped whole, as in the per-file build
+					InvertedIndexBuilder.addFile(path, single);
+					local.addAll(single);
+				} catch (IOException e) {
+					System.out.println("unable to index " + path);
+				} finally {
+					log.info("(ii builder)indexing " + path + " ended");
+				}
+			}
+			locals.add(local);
+		}
+	}
+
+	/**
+	 * Task that merges two local indexes by walking their sorted words side by
+	 * side
+	 *
+	 * @author pcarbajal
+	 */
+	private static class MergeTask implements Runnable {
+
+		/**
+		 * local index to be merged
+		 */
+		private final InvertedIndex left;
+
+		/**
+		 * local index to be merged
+		 */
+		private final InvertedIndex right;
+
+		/**
+		 * where the merged index goes
+		 */
+		private final List<InvertedIndex> merged;
+
+		/**
+		 * Assigns the indexes to be merged
+		 *
+		 * @param left		local index to be merged
+		 * @param right		local index to be merged
+		 * @param merged	list of merged indexes for the next round
+		 */
+		public MergeTask(InvertedIndex left, InvertedIndex right, List<InvertedIndex> merged) {
+			this.left = left;
+			this.right = right;
+			this.merged = merged;
+		}
+
+		@Override
+		public void run() {
+			merged.add(InvertedIndex.mergeSorted(left, right));
+		}
+	}
+
+	/**
+	 * Task that reads a whole file on a virtual thread and then stems and merges
+	 * it while holding one of the CPU permits of the queue
+	 *
+	 * @author pcarbajal
+	 */
+	private static class VirtualIndexTask implements Runnable {
+
+		/**
+		 * file to be indexed
+		 */
+		private final Path path;
+
+		/**
+		 * shared index
+		 */
+		private final ThreadSafeInvertedIndex invertedIndex;
+
+		/**
+		 * queue that hands out the CPU permits
+		 */
+		private final VirtualThreadQueue workQueue;
+
+		/**
+		 * Assigns the file, the shared index and the queue
+		 *
+		 * @param path			file to be indexed
+		 * @param invertedIndex	shared index
+		 * @param workQueue		queue that hands out the CPU permits
+		 */
+		public VirtualIndexTask(Path path, ThreadSafeInvertedIndex invertedIndex, VirtualThreadQueue workQueue) {
+			this.path = path;
+			this.invertedIndex = invertedIndex;
+			this.workQueue = workQueue;
+		}
+
+		@Override
+		public void run() {
+			log.info("(ii builder)indexing " + path + " started");
+			try {
+				ByteBuffer bytes = InvertedIndexBuilder.readFile(path); // blocks without a CPU permit
+				workQueue.runCpuBound(() -> {
+					try {
+						InvertedIndex local = new InvertedIndex();
+						InvertedIndexBuilder.addBytes(bytes, path.toString(), local);
+						invertedIndex.addAll(local);
+					} catch (IOException e) { // malformed input
+						throw new UncheckedIOException(e);
+					}
+				});
+			} catch (IOException | UncheckedIOException e) {
+				System.out.println("unable to index " + path);
+			} finally {
+				log.info("(ii builder)indexing " + path + " ended");
+			}
+		}
+	}
+
 	/**
 	 * Inner class for multithreading
 	 * 
@@ -1,5 +1,6 @@
 import java.io.BufferedReader;
 import java.io.IOException;
+import java.io.UncheckedIOException;
 import java.nio.charset.StandardCharsets;
 import java.nio.file.Files;
 import java.nio.file.Path;
@@ -10,7 +11,6 @@ import java.util.TreeMap;
 import java.util.List;
 
 import opennlp.tools.stemmer.Stemmer;
-import opennlp.tools.stemmer.snowball.SnowballStemmer;
 
 /**
  * Put it as a class of its own as suggested by Professor
@@ -32,6 +32,34 @@ public class ThreadSafeQueryParser {
 	 * declaring WorkQueue
 	 */
 	private static WorkQueue workQueue = new WorkQueue();
+
+	/**
+	 * declaring cache of search results, may be null
+	 */
+	private static QueryCache cache;
+
+	/**
+	 * declaring maximum number of results kept per query
+	 */
+	private static int limit = Integer.MAX_VALUE;
+
+	/**
+	 * declaring bounded store the results are written out from, null to keep
+	 * them all in memory
+	 */
+	private static ResultsSpool spool;
+
+	/**
+	 * declaring whether query lines with double quotes are parsed as phrase
+	 * queries, and lines with AND, OR, NOT or parentheses as boolean queries,
+	 * instead of plain ones
+	 */
+	private static boolean syntax;
+
+	/**
+	 * declaring first failure of a worker to spill results, null if none
+	 */
+	private static volatile IOException failure;
 	
 	/**
 	 * Setting up class and data structure
@@ -40,8 +68,68 @@ public class ThreadSafeQueryParser {
 	 * @param workQueue passing in a workQueue
 	 */
 	public ThreadSafeQueryParser(InvertedIndex invertedIndex, WorkQueue workQueue) {
+		this(invertedIndex, workQueue, null);
+	}
+
+	/**
+	 * Setting up class and data structure, searching through a shared cache of
+	 * search results
+	 * 
+	 * @param invertedIndex	invertedIndex access
+	 * @param workQueue passing in a workQueue
+	 * @param cache	cache of search results, or null to always search the index
+	 */
+	public ThreadSafeQueryParser(InvertedIndex invertedIndex, WorkQueue workQueue, QueryCache cache) {
+		this(invertedIndex, workQueue, cache, Integer.MAX_VALUE);
+	}
+
+	/**
+	 * Setting up class and data structure, keeping only the best results of each
+	 * query
+	 * 
+	 * @param invertedIndex	invertedIndex access
+	 * @param workQueue passing in a workQueue
+	 * @param cache	cache of search results, or null to always search the index
+	 * @param limit	maximum number of results per query
+	 */
+	public ThreadSafeQueryParser(InvertedIndex invertedIndex, WorkQueue workQueue, QueryCache cache, int limit) {
+		this(invertedIndex, workQueue, cache, limit, null);
+	}
+
+	/**
+	 * Setting up class and data structure, streaming the results through a
+	 * bounded spool instead of keeping them all until they are written
+	 * 
+	 * @param invertedIndex	invertedIndex access
+	 * @param workQueue passing in a workQueue
+	 * @param cache	cache of search results, or null to always search the index
+	 * @param limit	maximum number of results per query
+	 * @param spool	bounded store of the results, or null to keep them in memory
+	 */
+	public ThreadSafeQueryParser(InvertedIndex invertedIndex, WorkQueue workQueue, QueryCache cache, int limit, ResultsSpool spool) {
+		this(invertedIndex, workQueue, cache, limit, spool, false);
+	}
+
+	/**
+	 * Setting up class and data structure, optionally parsing the phrase and
+	 * boolean query syntax (see {@link QueryParser#phrases(String, Stemmer)} and
+	 * {@link BooleanQuery})
+	 * 
+	 * @param invertedIndex	invertedIndex access
+	 * @param workQueue passing in a workQueue
+	 * @param cache	cache of search results, or null to always search the index
+	 * @param limit	maximum number of results per query
+	 * @param spool	bounded store of the results, or null to keep them in memory
+	 * @param syntax	whether phrases and boolean operators are parsed
+	 */
+	public ThreadSafeQueryParser(InvertedIndex invertedIndex, WorkQueue workQueue, QueryCache cache, int limit, ResultsSpool spool, boolean syntax) {
 		ThreadSafeQueryParser.index = invertedIndex;
 		ThreadSafeQueryParser.workQueue = workQueue;
+		ThreadSafeQueryParser.cache = cache;
+		ThreadSafeQueryParser.limit = limit;
+		ThreadSafeQueryParser.spool = spool;
+		ThreadSafeQueryParser.syntax = syntax;
+		ThreadSafeQueryParser.failure = null;
 		allQueryResults = new TreeMap<>();
 	}
 		
@@ -60,8 +148,42 @@ public class ThreadSafeQueryParser {
 			}
 			workQueue.finish();
 		}
+		checkFailure();
 	}
 	
+	/**
+	 * Searches a whole query file as one batch: the lines are stemmed by the
+	 * workers and the plain queries collected, then planned together so that
+	 * queries sharing stems or prefixes share the work (see {@link QueryPlanner}),
+	 * and the workers put the results of each query together from the plan.
+	 * Phrase and boolean queries are searched line by line as usual. The batch
+	 * does not go through the cache.
+	 * 
+	 * @param path	path to be read in
+	 * @param exact	flag to check exact or partial search
+	 * @throws IOException	throws exception
+	 */
+	public void performBatchSearch(Path path, boolean exact) throws IOException {
+		Map<String, Set<String>> batch = new TreeMap<>();
+		try (BufferedReader br = Files.newBufferedReader(path, StandardCharsets.UTF_8)) {
+			String line;
+			while((line = br.readLine()) != null) {
+				workQueue.execute(new StemTask(line, exact, batch));
+			}
+			workQueue.finish();
+		}
+		checkFailure();
+
+		QueryPlanner planner = index.plan(batch.values(), exact);
+		for (Map.Entry<String, Set<String>> query : batch.entrySet()) {
+			if (!searched(query.getKey())) {
+				workQueue.execute(new BatchSearchTask(query.getKey(), query.getValue(), planner));
+			}
+		}
+		workQueue.finish();
+		checkFailure();
+	}
+
 	/**
 	 * Breaks and cleans the line into queries
 	 * Conducts search and stores them 
@@ -70,21 +192,93 @@ public class ThreadSafeQueryParser {
 	 * @param exact	flag to check if exact or partial
 	 */
 	public static void performSearch(String line, boolean exact) {
-		Stemmer stemmer = new SnowballStemmer(TextFileStemmer.DEFAULT);
-		Set<String> query = TextFileStemmer.uniqueStems(line, stemmer);
+		Stemmer stemmer = StemCache.ENGLISH;
+		if (syntax && QueryParser.isPhraseQuery(line)) {
+			List<List<String>> phrases = QueryParser.phrases(line, stemmer);
+			if (phrases.isEmpty()) {
+				return;
+			}
+			String joined = QueryParser.join(phrases);
+			if (searched(joined)) {
+				return;
+			}
+			store(joined, cache != null ? cache.phraseSearch(phrases, limit) : index.phraseSearch(phrases, limit));
+			return;
+		}
+		Set<String> query;
+		if (syntax && BooleanQuery.isBooleanQuery(line)) {
+			BooleanQuery booleanQuery = BooleanQuery.parse(line, stemmer);
+			if (booleanQuery == null) {
+				return;
+			}
+			query = booleanQuery.disjunction();
+			if (query == null) {
+				String joined = booleanQuery.toString();
+				if (searched(joined)) {
+					return;
+				}
+				store(joined, cache != null ? cache.booleanSearch(booleanQuery, exact, limit) : index.booleanSearch(booleanQuery, exact, limit));
+				return;
+			} // words only ORed together are the plain query of those words
+		} else {
+			query = TextFileStemmer.uniqueStems(line, stemmer);
+		}
 		if (query.isEmpty()) {
 			return;
 		}
 		String joined = String.join(" ", query);
 		 
-		if (allQueryResults.containsKey(joined)) {
+		if (searched(joined)) {
+			return;
+		}
+		store(joined, cache != null ? cache.search(query, exact, limit) : index.search(query, exact, limit));
+	}
+
+	/**
+	 * Checks if a query has been searched already
+	 * 
+	 * @param joined	text the query is reported under
+	 * @return true if its results are kept (a spooled query may be searched again)
+	 */
+	private static boolean searched(String joined) {
+		return spool != null ? spool.contains(joined) : allQueryResults.containsKey(joined);
+	}
+
+	/**
+	 * Keeps the results of a query, in memory or in the spool. A failure to
+	 * spill is kept to be thrown once the workers are done.
+	 * 
+	 * @param joined	text the query is reported under
+	 * @param results	results of the query
+	 */
+	private static void store(String joined, List<InvertedIndex.SearchMetrics> results) {
+		if (spool != null) {
+			try {
+				spool.put(joined, results);
+			} catch (UncheckedIOException e) {
+				if (failure == null) {
+					failure = e.getCause();
+				}
+			}
 			return;
 		}
-		List<InvertedIndex.SearchMetrics> results = index.search(query,exact);
 		synchronized(allQueryResults) {
 			allQueryResults.put(joined, results);
 		}
 	}
+
+	/**
+	 * Throws the first failure of a worker to spill results, if any
+	 * 
+	 * @throws IOException	throws exception
+	 */
+	private static void checkFailure() throws IOException {
+		IOException e = failure;
+		if (e != null) {
+			failure = null;
+			throw e;
+		}
+	}
 	
 	/**
 	 * Writing search results to Json format
@@ -93,6 +287,10 @@ public class ThreadSafeQueryParser {
 	 * @throws IOException	throws exception
 	 */
 	public void writeSearchResults(Path resultsPath) throws IOException {
+		if (spool != null) {
+			spool.writeTo(resultsPath);
+			return;
+		}
 		JsonWriter.searchResultsToJson(allQueryResults,resultsPath);
 	}
 
@@ -123,5 +321,87 @@ public class ThreadSafeQueryParser {
 			performSearch(line, exact);
 		}
 	}
-}
 
+	/**
+	 * Stems a line of a batch and collects it if it is a plain query, or
+	 * searches it right away if it is not
+	 */
+	private static class StemTask implements Runnable {
+		/**
+		 * line to be stemmed
+		 */
+		private final String line;
+
+		/**
+		 * flag to check exact or partial search
+		 */
+		private final boolean exact;
+
+		/**
+		 * plain queries of the batch by their joined stems, guarded by itself
+		 */
+		private final Map<String, Set<String>> batch;
+
+		/**
+		 * @param line	line to be stemmed
+		 * @param exact	flag
+		 * @param batch	plain queries collected so far
+		 */
+		public StemTask(String line, boolean exact, Map<String, Set<String>> batch) {
+			this.line = line;
+			this.exact = exact;
+			this.batch = batch;
+		}
+
+		@Override
+		public void run() {
+			if (syntax && (QueryParser.isPhraseQuery(line) || BooleanQuery.isBooleanQuery(line))) {
+				performSearch(line, exact);
+				return;
+			}
+			Set<String> query = TextFileStemmer.uniqueStems(line, StemCache.ENGLISH);
+			if (query.isEmpty()) {
+				return;
+			}
+			synchronized(batch) {
+				batch.putIfAbsent(String.join(" ", query), query);
+			}
+		}
+	}
+
+	/**
+	 * Searches one plain query of a batch from its plan
+	 */
+	private static class BatchSearchTask implements Runnable {
+		/**
+		 * joined stems of the query
+		 */
+		private final String joined;
+
+		/**
+		 * stems of the query
+		 */
+		private final Set<String> query;
+
+		/**
+		 * plan of the batch
+		 */
+		private final QueryPlanner planner;
+
+		/**
+		 * @param joined	joined stems of the query
+		 * @param query		stems of the query
+		 * @param planner	plan of the batch
+		 */
+		public BatchSearchTask(String joined, Set<String> query, QueryPlanner planner) {
+			this.joined = joined;
+			this.query = query;
+			this.planner = planner;
+		}
+
+		@Override
+		public void run() {
+			store(joined, planner.search(query, limit));
+		}
+	}
+}
@@ -0,0 +1,379 @@
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.text.Normalizer;
+import java.util.Locale;
+
+/**
+ * Breaks a line into the same words as {@link TextParser#split(String)} of
+ * {@link TextParser#clean(String)}, one at a time into a buffer that is reused
+ * for every word, so the words themselves are not made into strings unless
+ * asked for. The tokenizer is the current word: it can be read as a
+ * {@link CharSequence} (see {@link StemCache#stem(CharSequence)}).
+ *
+ * A line of ASCII characters is scanned once, without normalizing it: letters
+ * are lowercased into the buffer, whitespace ends a word and everything else is
+ * dropped. The letters of Latin-1 are taken the same way from a table of what
+ * each one becomes once cleaned and lowercased, since each one normalizes to a
+ * letter followed by marks that are dropped. Any other line is normalized and
+ * cleaned character by character, lowercased as a whole (lowercasing depends
+ * on the neighbouring letters for a few of them) and split by hand, keeping
+ * every quirk of the regular expressions: a word is split by Unicode
+ * whitespace, but only trimmed of what {@link Character#isWhitespace(int)}
+ * calls whitespace, so a line starting with a no-break space has an empty
+ * first word. Turkish and Azerbaijani
+ * lowercase a plain I differently, so with such a default locale every line
+ * takes the second way.
+ *
+ * Such a line can also be scanned straight from the UTF-8 bytes it was read as
+ * (see {@link InvertedIndexBuilder#addBytes(ByteBuffer, String, InvertedIndex)}),
+ * without making it into a string first.
+ *
+ * A tokenizer is not thread-safe; each thread uses its own.
+ *
+ * @author pcarbajal
+ */
+public class Tokenizer implements CharSequence {
+
+	/**
+	 * Marks a character that only the full way can take
+	 */
+	private static final char SLOW = '\uffff';
+
+	/**
+	 * What each character below U+0100 becomes once cleaned and lowercased on
+	 * its own: a letter, 0 if it is dropped, or {@link #SLOW}. Whitespace other
+	 * than ASCII is left to the full way.
+	 */
+	private static final char[] LATIN = latin();
+
+	/**
+	 * Current word
+	 */
+	private char[] buffer;
+
+	/**
+	 * Length of the current word
+	 */
+	private int length;
+
+	/**
+	 * Line being scanned, or the cleaned and lowercased line if it was not simple
+	 */
+	private String text;
+
+	/**
+	 * Bytes being scanned instead of the text, null if scanning the text
+	 */
+	private ByteBuffer bytes;
+
+	/**
+	 * Next character of the text to look at
+	 */
+	private int index;
+
+	/**
+	 * End of the text to look at
+	 */
+	private int end;
+
+	/**
+	 * Whether the text is the cleaned and lowercased line
+	 */
+	private boolean cleaned;
+
+	/**
+	 * Creates a tokenizer with no line
+	 */
+	public Tokenizer() {
+		this.buffer = new char[32];
+		this.length = 0;
+		this.text = "";
+		this.bytes = null;
+		this.index = 0;
+		this.end = 0;
+		this.cleaned = false;
+	}
+
+	/**
+	 * Starts over with a line
+	 *
+	 * @param line	text to be broken into words
+	 */
+	public void reset(String line) {
+		this.length = 0;
+		this.index = 0;
+		this.bytes = null;
+		if (isSimple(line) && !isTurkic(Locale.getDefault())) {
+			this.text = line;
+			this.end = line.length();
+			this.cleaned = false;
+			return;
+		}
+		this.text = clean(line);
+		this.cleaned = true;
+		if (text.isBlank()) { // no words, not even empty ones
+			this.end = 0;
+			return;
+		}
+		int start = 0;
+		this.end = text.length();
+		while (start < end && Character.isWhitespace(text.codePointAt(start))) { // as String.strip()
+			start += Character.charCount(text.codePointAt(start));
+		}
+		while (end > start && Character.isWhitespace(text.codePointBefore(end))) {
+			end -= Character.charCount(text.codePointBefore(end));
+		}
+		this.index = start;
+		int last = end; // as Pattern.split(), drop the trailing separators and the empty word before them
+		while (last > start && isSpace(text.codePointBefore(last))) {
+			last -= Character.charCount(text.codePointBefore(last));
+		}
+		this.end = last;
+		if (last == start) { // only separators, not even the leading empty word is kept
+			this.index = end;
+		}
+	}
+
+	/**
+	 * Starts over with a line of UTF-8 bytes that {@link #isSimple(ByteBuffer, int, int)}
+	 * accepts, which are read in place until the next reset
+	 *
+	 * @param bytes	bytes holding the line
+	 * @param start	index of the first byte of the line
+	 * @param stop	index past the last byte of the line
+	 */
+	public void reset(ByteBuffer bytes, int start, int stop) {
+		if (isTurkic(Locale.getDefault())) { // needs the full lowercasing, as a string
+			reset(StandardCharsets.UTF_8.decode(bytes.slice(start, stop - start)).toString());
+			return;
+		}
+		this.length = 0;
+		this.bytes = bytes;
+		this.text = null;
+		this.index = start;
+		this.end = stop;
+		this.cleaned = false;
+	}
+
+	/**
+	 * Moves to the next word
+	 *
+	 * @return true if there is one, false at the end of the line
+	 */
+	public boolean next() {
+		length = 0;
+		if (cleaned) {
+			return nextCleaned();
+		}
+		if (bytes != null) {
+			return nextByte();
+		}
+		while (index < end) {
+			char c = text.charAt(index++);
+			if (c >= 'a' && c <= 'z') {
+				append(c);
+			} else if (c >= 'A' && c <= 'Z') {
+				append((char) (c + ('a' - 'A')));
+			} else if (c == ' ' || (c >= '\t' && c <= '\r')) {
+				if (length > 0) return true;
+			} else if (c >= 0x80 && LATIN[c] != 0) {
+				append(LATIN[c]);
+			}
+		}
+		return length > 0;
+	}
+
+	/**
+	 * Moves to the next word of a line of UTF-8 bytes, the same way as a line
+	 * of characters
+	 *
+	 * @return true if there is one
+	 */
+	private boolean nextByte() {
+		while (index < end) {
+			int c = bytes.get(index++);
+			if (c >= 'a' && c <= 'z') {
+				append((char) c);
+			} else if (c >= 'A' && c <= 'Z') {
+				append((char) (c + ('a' - 'A')));
+			} else if (c == ' ' || (c >= '\t' && c <= '\r')) {
+				if (length > 0) return true;
+			} else if (c < 0) { // two bytes of a character below U+0100
+				c = ((c & 0x1f) << 6) | (bytes.get(index++) & 0x3f);
+				if (LATIN[c] != 0) {
+					append(LATIN[c]);
+				}
+			}
+		}
+		return length > 0;
+	}
+
+	/**
+	 * Moves to the next word of a cleaned line, which is split at every run of
+	 * Unicode whitespace
+	 *
+	 * @return true if there is one
+	 */
+	private boolean nextCleaned() {
+		if (index >= end) return false;
+		while (index < end) {
+			int cp = text.codePointAt(index);
+			int count = Character.charCount(cp);
+			if (isSpace(cp)) {
+				index += count;
+				while (index < end && isSpace(text.codePointAt(index))) {
+					index += Character.charCount(text.codePointAt(index));
+				}
+				return true;
+			}
+			for (int i = 0; i < count; i++) {
+				append(text.charAt(index + i));
+			}
+			index += count;
+		}
+		index++; // past the end, the last word has been given
+		return true;
+	}
+
+	/**
+	 * Adds a character to the current word
+	 *
+	 * @param c	character to be added
+	 */
+	private void append(char c) {
+		if (length == buffer.length) {
+			char[] larger = new char[length * 2];
+			System.arraycopy(buffer, 0, larger, 0, length);
+			buffer = larger;
+		}
+		buffer[length++] = c;
+	}
+
+	@Override
+	public int length() {
+		return length;
+	}
+
+	@Override
+	public char charAt(int i) {
+		if (i < 0 || i >= length) {
+			throw new IndexOutOfBoundsException(i);
+		}
+		return buffer[i];
+	}
+
+	@Override
+	public CharSequence subSequence(int start, int stop) {
+		return toString().substring(start, stop);
+	}
+
+	/**
+	 * The current word as a string
+	 */
+	@Override
+	public String toString() {
+		return new String(buffer, 0, length);
+	}
+
+	/**
+	 * Normalizes a line, drops what is neither a letter nor whitespace and
+	 * lowercases the rest, as {@link TextParser#clean(String)}
+	 *
+	 * @param line	text to be cleaned
+	 * @return cleaned text
+	 */
+	private static String clean(String line) {
+		String normalized = Normalizer.normalize(line, Normalizer.Form.NFD);
+		StringBuilder kept = new StringBuilder(normalized.length());
+		for (int i = 0; i < normalized.length(); ) {
+			int cp = normalized.codePointAt(i);
+			if (Character.isAlphabetic(cp) || isSpace(cp)) {
+				kept.appendCodePoint(cp);
+			}
+			i += Character.charCount(cp);
+		}
+		return kept.toString().toLowerCase();
+	}
+
+	/**
+	 * Whether a character is whitespace in the sense of {@code (?U)\p{Space}}
+	 *
+	 * @param cp	code point
+	 * @return true if it separates words
+	 */
+	private static boolean isSpace(int cp) {
+		int type = Character.getType(cp);
+		return type == Character.SPACE_SEPARATOR || type == Character.LINE_SEPARATOR
+				|| type == Character.PARAGRAPH_SEPARATOR || (cp >= '\t' && cp <= '\r') || cp == 0x85;
+	}
+
+	/**
+	 * Checks if a line can be scanned without normalizing it
+	 *
+	 * @param line	text to be checked
+	 * @return true if every character is ASCII or in the table
+	 */
+	private static boolean isSimple(String line) {
+		for (int i = 0; i < line.length(); i++) {
+			char c = line.charAt(i);
+			if (c >= 0x80 && (c >= 0x100 || LATIN[c] == SLOW)) return false;
+		}
+		return true;
+	}
+
+	/**
+	 * Checks if a line of UTF-8 bytes can be scanned in place: every byte is
+	 * ASCII or part of a well-formed character in the table
+	 *
+	 * @param bytes	bytes holding the line
+	 * @param start	index of the first byte of the line
+	 * @param stop	index past the last byte of the line
+	 * @return true if it can
+	 */
+	public static boolean isSimple(ByteBuffer bytes, int start, int stop) {
+		for (int i = start; i < stop; i++) {
+			int b = bytes.get(i);
+			if (b >= 0) continue;
+			if ((b & 0xfe) != 0xc2 || i + 1 == stop) return false; // only U+0080 to U+00FF take two bytes starting 0xc2 or 0xc3
+			int next = bytes.get(++i);
+			if ((next & 0xc0) != 0x80 || LATIN[((b & 0x1f) << 6) | (next & 0x3f)] == SLOW) return false;
+		}
+		return true;
+	}
+
+	/**
+	 * Makes the table of the characters below U+0100, cleaning and lowercasing
+	 * each one on its own as {@link #clean(String)} would
+	 *
+	 * @return the table
+	 */
+	private static char[] latin() {
+		char[] table = new char[0x100];
+		for (char c = 0x80; c < 0x100; c++) {
+			String normalized = Normalizer.normalize(String.valueOf(c), Normalizer.Form.NFD);
+			StringBuilder kept = new StringBuilder();
+			for (int i = 0; i < normalized.length(); i++) {
+				char n = normalized.charAt(i);
+				if (isSpace(n)) {
+					kept.append(SLOW);
+				} else if (Character.isAlphabetic(n)) {
+					kept.append(n);
+				}
+			}
+			String lower = kept.toString().toLowerCase(Locale.ROOT);
+			table[c] = lower.isEmpty() ? 0 : lower.length() == 1 ? lower.charAt(0) : SLOW;
+		}
+		return table;
+	}
+
+	/**
+	 * Checks if a locale lowercases a plain I to a dotless i
+	 *
+	 * @param locale	locale to be checked
+	 * @return true for Turkish and Azerbaijani
+	 */
+	private static boolean isTurkic(Locale locale) {
+		String language = locale.getLanguage();
+		return language.equals("tr") || language.equals("az");
+	}
+}
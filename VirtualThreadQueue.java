@@ -0,0 +1,222 @@
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.Logger;
+
+/**
+ * Work queue that runs every piece of work on its own virtual thread instead
+ * of a fixed pool of platform threads, so work blocked on a file read does not
+ * keep a core idle.
+ *
+ * Two limits keep it from running away: work given to {@link #execute(Runnable)}
+ * is CPU-bound and at most {@link #size()} pieces of it run at once, while
+ * work given to {@link #executeBlocking(Runnable)} may block and is only limited
+ * by a larger number of blocking permits. Blocking work runs its CPU-heavy part
+ * through {@link #runCpuBound(Runnable)}, which takes one of the CPU permits.
+ *
+ * Virtual threads need Java 21. On older runtimes the same scheduling is done
+ * with one daemon platform thread per piece of work.
+ *
+ * @author pcarbajal
+ */
+public class VirtualThreadQueue extends WorkQueue {
+
+	/**
+	 * Default number of blocking pieces of work running at once
+	 */
+	public static final int DEFAULT_BLOCKING = 256;
+
+	/**
+	 * logger to see what is going on
+	 */
+	private static final Logger log = LogManager.getLogger();
+
+	/**
+	 * Creates the thread of each piece of work
+	 */
+	private static final ThreadFactory FACTORY = threadFactory();
+
+	/**
+	 * Permits to run CPU-bound work
+	 */
+	private final Semaphore cpu;
+
+	/**
+	 * Permits to run blocking work
+	 */
+	private final Semaphore blocking;
+
+	/**
+	 * Number of CPU permits
+	 */
+	private final int cpus;
+
+	/**
+	 * Work submitted but not yet finished
+	 */
+	private final AtomicInteger pending;
+
+	/**
+	 * Used to signal the queue should be shutdown
+	 */
+	private volatile boolean shutdown;
+
+	/**
+	 * Starts a queue with one CPU permit per available processor.
+	 *
+	 * @see #VirtualThreadQueue(int, int)
+	 */
+	public VirtualThreadQueue() {
+		this(Runtime.getRuntime().availableProcessors(), DEFAULT_BLOCKING);
+	}
+
+	/**
+	 * Starts a queue with the given limits. The base queue is started without
+	 * threads of its own.
+	 *
+	 * @param cpus		number of CPU-bound pieces of work running at once
+	 * @param blocking	number of blocking pieces of work running at once
+	 */
+	public VirtualThreadQueue(int cpus, int blocking) {
+		super(0);
+		this.cpus = cpus;
+		this.cpu = new Semaphore(cpus);
+		this.blocking = new Semaphore(blocking);
+		this.pending = new AtomicInteger();
+		shutdown = false;
+	}
+
+	/**
+	 * Looks up the virtual thread factory, which only exists from Java 21 on
+	 *
+	 * @return factory of virtual threads, or of daemon platform threads
+	 */
+	private static ThreadFactory threadFactory() {
+		try {
+			Object builder = Thread.class.getMethod("ofVirtual").invoke(null);
+			return (ThreadFactory) Class.forName("java.lang.Thread$Builder").getMethod("factory").invoke(builder);
+		} catch (ReflectiveOperationException e) {
+			log.info("virtual threads are not available, using platform threads");
+			return r -> {
+				Thread thread = new Thread(r);
+				thread.setDaemon(true);
+				return thread;
+			};
+		}
+	}
+
+	/**
+	 * Runs CPU-bound work on a new virtual thread once a CPU permit is free.
+	 *
+	 * @param r work request (in the form of a {@link Runnable} object)
+	 */
+	@Override
+	public void execute(Runnable r) {
+		start(() -> runCpuBound(r));
+	}
+
+	/**
+	 * Runs work that may block on a new virtual thread once a blocking permit is
+	 * free. CPU-heavy parts of it should go through {@link #runCpuBound(Runnable)}.
+	 *
+	 * @param r work request (in the form of a {@link Runnable} object)
+	 */
+	public void executeBlocking(Runnable r) {
+		start(() -> {
+			blocking.acquireUninterruptibly();
+			try {
+				if (!shutdown) {
+					r.run();
+				}
+			} finally {
+				blocking.release();
+			}
+		});
+	}
+
+	/**
+	 * Runs CPU-bound work on the calling thread while holding a CPU permit
+	 *
+	 * @param r work to be run
+	 */
+	public void runCpuBound(Runnable r) {
+		cpu.acquireUninterruptibly();
+		try {
+			if (!shutdown) {
+				r.run();
+			}
+		} finally {
+			cpu.release();
+		}
+	}
+
+	/**
+	 * Starts the thread of a piece of work and keeps track of it until it is done
+	 *
+	 * @param r work to be run
+	 */
+	private void start(Runnable r) {
+		pending.incrementAndGet();
+		log.debug("{} being added to work queue ... {} pending jobs", Thread.currentThread().getName(), pending);
+		FACTORY.newThread(() -> {
+			try {
+				r.run();
+			}
+			catch (RuntimeException ex) {
+				// catch runtime exceptions so finish() is not left waiting
+				System.err.println("Warning: Work queue encountered an exception while running.");
+			}
+			finally {
+				decrementPending();
+			}
+		}).start();
+	}
+
+	/**
+	 * Asks the queue to shutdown. Work that has not started yet will not be run,
+	 * but work in progress will not be interrupted.
+	 */
+	@Override
+	public void shutdown() {
+		shutdown = true;
+	}
+
+	/**
+	 * Returns the number of CPU-bound pieces of work that run at once, which
+	 * plays the role of the number of worker threads
+	 *
+	 * @return number of CPU permits
+	 */
+	@Override
+	public int size() {
+		return cpus;
+	}
+
+	/**
+	 * Signifies the end of work
+	 */
+	@Override
+	public synchronized void finish() {
+		while (pending.get() > 0) {
+			try {
+				this.wait();
+			} catch (InterruptedException e) {
+				Thread.currentThread().interrupt();
+			}
+		}
+	}
+
+	/**
+	 * Marks one piece of work as done, waking up {@link #finish()} when it was
+	 * the last one
+	 */
+	private void decrementPending() {
+		if (pending.decrementAndGet() == 0) {
+			synchronized (this) {
+				this.notifyAll();
+			}
+		}
+	}
+}
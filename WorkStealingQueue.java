@@ -0,0 +1,267 @@
+import java.util.concurrent.ConcurrentLinkedDeque;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.locks.LockSupport;
+
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.Logger;
+
+/**
+ * Work queue with the same execute/finish/shutdown contract as
+ * {@link WorkQueue}, but without a single shared queue. Every worker owns a
+ * deque: work submitted from outside is spread round-robin over the deques,
+ * work submitted by a worker goes to its own deque. A worker takes work from
+ * the back of its own deque and, once that is empty, steals from the front of
+ * the other deques.
+ *
+ * Idle workers park themselves and are woken one at a time instead of all
+ * at once: every execute wakes one idle worker, and a worker that takes work
+ * while more is left in the deques wakes one more, so a burst of work spreads
+ * over all the workers without waking every thread on every execute. Pending
+ * work is an atomic counter; the monitor is only used by {@link #finish()}.
+ *
+ * @author pcarbajal
+ */
+public class WorkStealingQueue extends WorkQueue {
+
+	/**
+	 * Worker threads, each with its own deque
+	 */
+	private final StealingWorker[] workers;
+
+	/**
+	 * Workers that found no work and are parked (or about to park)
+	 */
+	private final ConcurrentLinkedQueue<StealingWorker> idle;
+
+	/**
+	 * Deque that gets the next piece of work submitted from outside
+	 */
+	private final AtomicInteger nextDeque;
+
+	/**
+	 * Work submitted but not yet finished
+	 */
+	private final AtomicInteger pending;
+
+	/**
+	 * Used to signal the queue should be shutdown
+	 */
+	private volatile boolean shutdown;
+
+	/**
+	 * logger to see what is going on
+	 */
+	private final Logger log = LogManager.getLogger();
+
+	/**
+	 * Starts a work-stealing queue with the default number of threads.
+	 *
+	 * @see #WorkStealingQueue(int)
+	 */
+	public WorkStealingQueue() {
+		this(DEFAULT);
+	}
+
+	/**
+	 * Starts a work-stealing queue with the specified number of threads. The
+	 * base queue is started without threads of its own.
+	 *
+	 * @param threads number of worker threads; should be greater than 1
+	 */
+	public WorkStealingQueue(int threads) {
+		super(0);
+		this.workers = new StealingWorker[threads];
+		this.idle = new ConcurrentLinkedQueue<>();
+		this.nextDeque = new AtomicInteger();
+		this.pending = new AtomicInteger();
+		shutdown = false;
+
+		for (int i = 0; i < threads; i++) {
+			workers[i] = new StealingWorker(i);
+		}
+		for (StealingWorker worker : workers) { // all deques exist before anyone steals
+			worker.start();
+		}
+	}
+
+	/**
+	 * Adds a work request to the deque of the calling worker, or of the next
+	 * worker in turn when called from outside. One idle worker is woken up, if
+	 * any is parked.
+	 *
+	 * @param r work request (in the form of a {@link Runnable} object)
+	 */
+	@Override
+	public void execute(Runnable r) {
+		pending.incrementAndGet();
+		Thread current = Thread.currentThread();
+		if (current instanceof StealingWorker && ((StealingWorker) current).owner() == this) {
+			((StealingWorker) current).deque.addLast(r);
+		} else {
+			workers[Math.floorMod(nextDeque.getAndIncrement(), workers.length)].deque.addLast(r);
+		}
+
+		wakeIdleWorker();
+		log.debug("{} being added to work queue ... {} pending jobs", current.getName(), pending);
+	}
+
+	/**
+	 * Wakes up one parked worker, if there is one
+	 */
+	private void wakeIdleWorker() {
+		StealingWorker sleeper = idle.poll();
+		if (sleeper != null) {
+			LockSupport.unpark(sleeper);
+		}
+	}
+
+	/**
+	 * Asks the queue to shutdown. Any unprocessed work will not be finished,
+	 * but threads in-progress will not be interrupted.
+	 */
+	@Override
+	public void shutdown() {
+		shutdown = true;
+		for (StealingWorker worker : workers) {
+			LockSupport.unpark(worker);
+		}
+	}
+
+	/**
+	 * Returns the number of worker threads being used by the work queue.
+	 *
+	 * @return number of worker threads
+	 */
+	@Override
+	public int size() {
+		return workers.length;
+	}
+
+	/**
+	 * Signifies the end of work
+	 */
+	@Override
+	public synchronized void finish() {
+		while (pending.get() > 0) {
+			try {
+				this.wait();
+			} catch (InterruptedException e) {
+				Thread.currentThread().interrupt();
+			}
+		}
+	}
+
+	/**
+	 * Marks one piece of work as done, waking up {@link #finish()} when it was
+	 * the last one
+	 */
+	private void decrementPending() {
+		if (pending.decrementAndGet() == 0) {
+			synchronized (this) {
+				this.notifyAll();
+			}
+		}
+	}
+
+	/**
+	 * Worker thread that runs the work of its own deque first and then steals
+	 * from the others. When it takes work and more is left, it wakes up another
+	 * idle worker for it. When there is nothing to run anywhere, it registers as
+	 * idle, looks once more (work may have been added before it was registered)
+	 * and then parks until {@link #execute(Runnable)}, another worker or
+	 * {@link #shutdown()} wakes it up.
+	 */
+	private class StealingWorker extends Thread {
+
+		/**
+		 * Work of this worker, taken from the back by the owner and stolen from
+		 * the front by the others
+		 */
+		private final ConcurrentLinkedDeque<Runnable> deque;
+
+		/**
+		 * Position of this worker, where stealing starts from
+		 */
+		private final int id;
+
+		/**
+		 * Creates a worker with an empty deque
+		 *
+		 * @param id	position of this worker
+		 */
+		public StealingWorker(int id) {
+			this.deque = new ConcurrentLinkedDeque<>();
+			this.id = id;
+		}
+
+		/**
+		 * Queue this worker belongs to
+		 *
+		 * @return enclosing queue
+		 */
+		public WorkStealingQueue owner() {
+			return WorkStealingQueue.this;
+		}
+
+		/**
+		 * Takes work from this worker's deque, or steals it from another one
+		 *
+		 * @return work to be run, or null if every deque is empty
+		 */
+		private Runnable findWork() {
+			Runnable r = deque.pollLast();
+			for (int i = 1; r == null && i < workers.length; i++) {
+				r = workers[(id + i) % workers.length].deque.pollFirst();
+			}
+			return r;
+		}
+
+		/**
+		 * Whether any deque still has work in it
+		 *
+		 * @return true if some work is waiting to be taken
+		 */
+		private boolean workLeft() {
+			for (StealingWorker worker : workers) {
+				if (!worker.deque.isEmpty()) {
+					return true;
+				}
+			}
+			return false;
+		}
+
+		@Override
+		public void run() {
+			while (!shutdown) {
+				Runnable r = findWork();
+				if (r == null) {
+					idle.add(this);
+					r = findWork();
+					if (r == null) {
+						LockSupport.park(this);
+						idle.remove(this);
+						continue;
+					}
+					idle.remove(this);
+				}
+				if (workLeft()) { // the rest of a burst, for a parked worker
+					wakeIdleWorker();
+				}
+
+				try {
+					log.debug("{} starting ... {} pending jobs", getName(), pending);
+					r.run();
+				}
+				catch (RuntimeException ex) {
+					// catch runtime exceptions to avoid leaking threads
+					System.err.println("Warning: Work queue encountered an exception while running.");
+				}
+				finally {
+					decrementPending();
+					log.debug("{} finished ... {} pending jobs", getName(), pending);
+				}
+			}
+		}
+	}
+}
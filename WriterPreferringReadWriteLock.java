@@ -0,0 +1,260 @@
+import java.lang.invoke.VarHandle;
+import java.util.ConcurrentModificationException;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.Condition;
+import java.util.concurrent.locks.ReentrantLock;
+
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.Logger;
+
+/**
+ * Read/write lock with writer preference and optimistic reads, used in place
+ * of {@link ReadWriteLock} when reads vastly outnumber writes, so that a
+ * writer is not starved by a steady stream of readers.
+ *
+ * The readers and the write bit share one atomic state, so taking the read lock
+ * is a single compare-and-set while no writer holds or waits for the lock.
+ * Otherwise new readers wait on their own queue until no writer is left, and
+ * writers wait on a separate queue; unlocking wakes one writer if there is one
+ * and only then the readers. Read locks are reentrant, so a thread that already
+ * reads never waits behind a writer that is waiting for it.
+ *
+ * {@link #tryOptimisticRead()} and {@link #validate(long)} let a short read
+ * skip the lock entirely: the read is only kept if no writer took the lock in
+ * between.
+ *
+ * @author pcarbajal
+ */
+public class WriterPreferringReadWriteLock {
+
+	/**
+	 * Bit of the state that is set while a writer holds the lock; the other bits
+	 * count the readers
+	 */
+	private static final int WRITER = 1 << 30;
+
+	/**
+	 * Readers holding the lock, plus {@link #WRITER} while a writer holds it
+	 */
+	private final AtomicInteger state;
+
+	/**
+	 * Writers waiting for the lock
+	 */
+	private volatile int waitingWriters;
+
+	/**
+	 * Even while no writer holds the lock, odd while one does; every write
+	 * changes it
+	 */
+	private final AtomicLong version;
+
+	/**
+	 * Thread holding the write lock
+	 */
+	private volatile Thread currentWriterThread;
+
+	/**
+	 * Number of read locks held by each thread
+	 */
+	private final ThreadLocal<int[]> readHolds;
+
+	/**
+	 * Guards the wait queues
+	 */
+	private final ReentrantLock mutex;
+
+	/**
+	 * Readers waiting for the writers to finish
+	 */
+	private final Condition readersQueue;
+
+	/**
+	 * Writers waiting for the readers and the other writer to finish
+	 */
+	private final Condition writersQueue;
+
+	/** The lock used for reading. */
+	private final SimpleLock readerLock;
+
+	/** The lock used for writing. */
+	private final SimpleLock writerLock;
+
+	/**
+	 * instantiating log4j2
+	 */
+	private final Logger log = LogManager.getLogger();
+
+	/**
+	 * Initializes a new lock
+	 */
+	public WriterPreferringReadWriteLock() {
+		state = new AtomicInteger();
+		waitingWriters = 0;
+		version = new AtomicLong();
+		currentWriterThread = null;
+		readHolds = ThreadLocal.withInitial(() -> new int[1]);
+		mutex = new ReentrantLock();
+		readersQueue = mutex.newCondition();
+		writersQueue = mutex.newCondition();
+		readerLock = new ReadLock();
+		writerLock = new WriteLock();
+	}
+
+	/**
+	 * Returns the reader lock.
+	 *
+	 * @return the reader lock
+	 */
+	public SimpleLock readLock() {
+		return readerLock;
+	}
+
+	/**
+	 * Returns the writer lock.
+	 *
+	 * @return the writer lock
+	 */
+	public SimpleLock writeLock() {
+		return writerLock;
+	}
+
+	/**
+	 * Starts an optimistic read
+	 *
+	 * @return stamp to be validated after the read, or 0 if a writer holds the
+	 * lock
+	 */
+	public long tryOptimisticRead() {
+		long stamp = version.get();
+		return (stamp & 1) == 0 ? stamp + 2 : 0; // shifted so that 0 means no stamp
+	}
+
+	/**
+	 * Checks that no writer took the lock since the stamp was issued, in which
+	 * case everything read in between is consistent
+	 *
+	 * @param stamp	stamp returned by {@link #tryOptimisticRead()}
+	 * @return true if the read can be kept
+	 */
+	public boolean validate(long stamp) {
+		VarHandle.acquireFence(); // the reads being validated happen before reading the version
+		return stamp != 0 && version.get() + 2 == stamp;
+	}
+
+	/**
+	 * Used to maintain simultaneous read operations.
+	 */
+	private class ReadLock implements SimpleLock {
+
+		/**
+		 * Adds a reader with a compare-and-set while no writer holds or waits for
+		 * the lock, or when this thread already reads. Otherwise waits until no
+		 * writer is left.
+		 */
+		@Override
+		public void lock() {
+			int[] holds = readHolds.get();
+			boolean reentrant = holds[0] > 0;
+			while (true) {
+				int current = state.get();
+				if ((current & WRITER) == 0 && (reentrant || waitingWriters == 0)) {
+					if (state.compareAndSet(current, current + 1)) {
+						holds[0]++;
+						return;
+					}
+				} else {
+					awaitWriters();
+				}
+			}
+		}
+
+		/**
+		 * Waits until no writer holds or waits for the lock
+		 */
+		private void awaitWriters() {
+			mutex.lock();
+			try {
+				while ((state.get() & WRITER) != 0 || waitingWriters > 0) {
+					readersQueue.awaitUninterruptibly();
+				}
+			} finally {
+				mutex.unlock();
+			}
+		}
+
+		/**
+		 * Removes a reader, waking up one waiting writer when it was the last one
+		 */
+		@Override
+		public void unlock() {
+			readHolds.get()[0]--;
+			if (state.decrementAndGet() == 0 && waitingWriters > 0) {
+				mutex.lock();
+				try {
+					writersQueue.signal();
+				} finally {
+					mutex.unlock();
+				}
+			}
+		}
+	}
+
+	/**
+	 * Used to maintain exclusive write operations.
+	 */
+	private class WriteLock implements SimpleLock {
+
+		/**
+		 * Waits until there are no readers or writers, announcing itself first so
+		 * that new readers wait behind it
+		 */
+		@Override
+		public void lock() {
+			mutex.lock();
+			try {
+				waitingWriters++;
+				while (!state.compareAndSet(0, WRITER)) {
+					writersQueue.awaitUninterruptibly();
+				}
+				waitingWriters--;
+				version.incrementAndGet();
+				currentWriterThread = Thread.currentThread();
+				log.debug("Locking {}", Thread.currentThread().getName());
+			} finally {
+				mutex.unlock();
+			}
+		}
+
+		/**
+		 * Releases the lock and wakes up the next writer, or all readers if no
+		 * writer waits. If unlock is called by a thread that does not hold the
+		 * lock, then a {@link ConcurrentModificationException} is thrown.
+		 *
+		 * @throws ConcurrentModificationException if unlock is called without previously
+		 * calling lock or if unlock is called by a thread that does not hold the write lock
+		 */
+		@Override
+		public void unlock() throws ConcurrentModificationException {
+			if (!ReadWriteLock.sameThread(currentWriterThread)) {
+				log.fatal("wrong thread is calling unlock or lock has not yet been called {}", Thread.currentThread().getName());
+				throw new ConcurrentModificationException();
+			}
+			mutex.lock();
+			try {
+				currentWriterThread = null;
+				version.incrementAndGet();
+				state.set(0);
+				if (waitingWriters > 0) {
+					writersQueue.signal();
+				} else {
+					readersQueue.signalAll();
+				}
+				log.debug("Unlocking {}", Thread.currentThread().getName());
+			} finally {
+				mutex.unlock();
+			}
+		}
+	}
+}